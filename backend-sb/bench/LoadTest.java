@@ -0,0 +1,81 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Closed-loop HTTP load generator used for the platform vs virtual thread comparison in the README.
+ * Each of the concurrent clients sends its next request as soon as the previous one completes.
+ * <p>
+ * Usage: java bench/LoadTest.java URL [concurrency] [seconds] [bearerToken]
+ */
+public class LoadTest {
+
+    public static void main(String[] args) throws Exception {
+        URI uri = URI.create(args[0]);
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        String token = args.length > 3 ? args[3] : null;
+
+        HttpClient client = HttpClient.newBuilder()
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri).GET().timeout(Duration.ofSeconds(30));
+        if (token != null) {
+            builder.header("Authorization", "Bearer " + token);
+        }
+        HttpRequest request = builder.build();
+
+        AtomicLong ok = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        List<long[]> latencies = new ArrayList<>();
+        long deadline = System.nanoTime() + Duration.ofSeconds(seconds).toNanos();
+
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < concurrency; i++) {
+                long[] samples = new long[1 << 15];
+                latencies.add(samples);
+                clients.submit(() -> {
+                    int n = 0;
+                    while (System.nanoTime() < deadline) {
+                        long start = System.nanoTime();
+                        try {
+                            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                            if (response.statusCode() < 400) {
+                                ok.incrementAndGet();
+                            } else {
+                                failed.incrementAndGet();
+                            }
+                        } catch (Exception e) {
+                            failed.incrementAndGet();
+                        }
+                        if (n < samples.length - 1) {
+                            samples[++n] = System.nanoTime() - start;
+                        }
+                    }
+                    samples[0] = n;
+                    return null;
+                });
+            }
+        }
+
+        long[] all = latencies.stream()
+                .flatMapToLong(s -> Arrays.stream(s, 1, (int) s[0] + 1))
+                .sorted()
+                .toArray();
+        System.out.printf("%s concurrency=%d duration=%ds%n", uri, concurrency, seconds);
+        System.out.printf("ok=%d failed=%d throughput=%.0f req/s%n", ok.get(), failed.get(), ok.get() / (double) seconds);
+        if (all.length > 0) {
+            System.out.printf("p50=%.1fms p99=%.1fms max=%.1fms%n",
+                    all[all.length / 2] / 1e6, all[(int) (all.length * 0.99)] / 1e6, all[all.length - 1] / 1e6);
+        }
+    }
+}
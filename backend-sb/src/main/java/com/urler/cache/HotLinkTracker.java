@@ -0,0 +1,183 @@
+package com.urler.cache;
+
+import com.urler.dto.HotLinkDto;
+import com.urler.repository.RedirectRow;
+import com.urler.repository.UrlRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Streaming heavy-hitter detection over resolved short codes using the Space-Saving algorithm.
+ * At most urler.hotlinks.capacity counters are kept. An unseen code replaces the smallest counter and
+ * inherits its count as error, so any code with more than total/capacity hits is guaranteed to be tracked.
+ * <p>
+ * Every urler.hotlinks.window the per-window rate of each counter is recorded and all counts are halved,
+ * so links that stop trending age out. The top urler.hotlinks.pinned codes at or above
+ * urler.hotlinks.min-rate clicks per second are then pinned in the {@link RedirectCache}.
+ * At startup the most clicked links of all time are pinned until the first window has been observed.
+ */
+@Slf4j
+@Component
+public class HotLinkTracker {
+
+    private static final Comparator<Counter> BY_COUNT =
+            Comparator.comparingLong((Counter c) -> c.count).thenComparing(c -> c.shortenedUrl);
+
+    private final RedirectCache redirectCache;
+    private final UrlRepository urlRepository;
+    private final int capacity;
+    private final int pinnedCount;
+    private final double minRate;
+    private final double windowSeconds;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Map<String, Counter> counters = new HashMap<>();
+    // ascending by count, first() is the counter to replace
+    private final TreeSet<Counter> ordered = new TreeSet<>(BY_COUNT);
+
+    private volatile List<HotLinkDto> hottest = List.of();
+
+    public HotLinkTracker(RedirectCache redirectCache,
+                          UrlRepository urlRepository,
+                          @Value("${urler.hotlinks.capacity:1000}") int capacity,
+                          @Value("${urler.hotlinks.pinned:100}") int pinnedCount,
+                          @Value("${urler.hotlinks.min-rate:1.0}") double minRate,
+                          @Value("${urler.hotlinks.window:PT1M}") Duration window) {
+        this.redirectCache = redirectCache;
+        this.urlRepository = urlRepository;
+        this.capacity = capacity;
+        this.pinnedCount = pinnedCount;
+        this.minRate = minRate;
+        this.windowSeconds = window.toMillis() / 1000.0;
+    }
+
+    /**
+     * Counts one redirect of the code. Called on the redirect path, so a contended update is dropped
+     * instead of waited for. Contention does not depend on which code is being counted, so this samples
+     * the stream without biasing it.
+     */
+    public void offer(String shortenedUrl) {
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            Counter counter = counters.get(shortenedUrl);
+            if (counter == null) {
+                if (counters.size() < capacity) {
+                    counter = new Counter(shortenedUrl, 0);
+                } else {
+                    Counter smallest = ordered.pollFirst();
+                    counters.remove(smallest.shortenedUrl);
+                    counter = new Counter(shortenedUrl, smallest.count);
+                    counter.count = smallest.count;
+                }
+                counters.put(shortenedUrl, counter);
+            } else {
+                ordered.remove(counter);
+            }
+            counter.count++;
+            counter.windowCount++;
+            ordered.add(counter);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the hottest codes as of the last completed window, hottest first
+     */
+    public List<HotLinkDto> getHottest() {
+        return hottest;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void preload() {
+        try {
+            List<String> codes = urlRepository.findMostClicked(Limit.of(pinnedCount)).stream()
+                    .map(RedirectRow::getShortenedUrl)
+                    .toList();
+            redirectCache.pin(codes);
+            log.info("Pinned {} most clicked links", codes.size());
+        } catch (Exception e) {
+            log.warn("Failed to preload hot links", e);
+        }
+    }
+
+    @Scheduled(initialDelayString = "${urler.hotlinks.window:PT1M}", fixedRateString = "${urler.hotlinks.window:PT1M}")
+    public void rotate() {
+        List<Counter> top = new ArrayList<>();
+        lock.lock();
+        try {
+            List<Counter> all = new ArrayList<>(ordered);
+            ordered.clear();
+            for (Counter counter : all) {
+                counter.rate = counter.windowCount / windowSeconds;
+                counter.windowCount = 0;
+                counter.count /= 2;
+                counter.error /= 2;
+                if (counter.count == 0) {
+                    counters.remove(counter.shortenedUrl);
+                } else {
+                    ordered.add(counter);
+                }
+            }
+            for (Counter counter : ordered.descendingSet()) {
+                if (top.size() == pinnedCount) {
+                    break;
+                }
+                top.add(counter.copy());
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        List<String> pin = top.stream().filter(c -> c.rate >= minRate).map(c -> c.shortenedUrl).toList();
+        // nothing observed yet, keep the preloaded links
+        if (!top.isEmpty()) {
+            try {
+                redirectCache.pin(pin);
+            } catch (Exception e) {
+                log.warn("Failed to pin hot links, keeping the previous set", e);
+            }
+        }
+        hottest = top.stream()
+                .map(c -> new HotLinkDto(c.shortenedUrl, c.count, c.error, c.rate, redirectCache.isPinned(c.shortenedUrl)))
+                .toList();
+    }
+
+    // only touched under the lock, count only changes while the counter is out of the TreeSet
+    private static final class Counter {
+        private final String shortenedUrl;
+        private long count;
+        private long error;
+        private long windowCount;
+        // lower bound, offers dropped under contention are not counted
+        private double rate;
+
+        private Counter(String shortenedUrl, long error) {
+            this.shortenedUrl = shortenedUrl;
+            this.error = error;
+        }
+
+        private Counter copy() {
+            Counter copy = new Counter(shortenedUrl, error);
+            copy.count = count;
+            copy.rate = rate;
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.urler.cache;
+
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.urler.dto.RedirectTarget;
+import com.urler.repository.UrlRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.TransactionException;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Bounded in-process cache of short code -> redirect target sitting in front of
+ * {@link UrlRepository#findRedirectTargetByShortenedUrl(String)}.
+ * Entries are evicted by size and by time since write. Concurrent misses for the same
+ * code block on a single load instead of each issuing its own query.
+ * Unknown codes are not cached so a link created on another node becomes visible on the next lookup.
+ * <p>
+ * Misses are served from the {@link RedirectSnapshotStore} first when urler.snapshot.serve-first is set
+ * (links are never edited, so a snapshot hit is as good as the database). This keeps a freshly started
+ * node off Postgres. If the database lookup fails the snapshot is used as a fallback.
+ * <p>
+ * The cache is asynchronous: the map only holds a future while a load is in flight. A synchronous
+ * Caffeine load runs inside ConcurrentHashMap.compute, whose monitor would pin a virtual thread's carrier
+ * for the whole database round trip. In virtual-thread mode loads run on their own virtual thread
+ * and callers park on the future instead. With platform threads the load runs on the calling thread.
+ * <p>
+ * Codes found by the {@link HotLinkTracker} are pinned in a separate immutable map checked before Caffeine,
+ * so viral links are never evicted or expired by a long tail of cold lookups.
+ */
+@Component
+public class RedirectCache {
+
+    private final UrlRepository urlRepository;
+    private final RedirectSnapshotStore snapshotStore;
+    private final boolean snapshotFirst;
+    private final AsyncLoadingCache<String, RedirectTarget> cache;
+
+    // replaced wholesale by pin(), never mutated, so reads need no lock
+    private volatile Map<String, RedirectTarget> pinned = Map.of();
+
+    @Autowired
+    public RedirectCache(UrlRepository urlRepository,
+                         RedirectSnapshotStore snapshotStore,
+                         MeterRegistry meterRegistry,
+                         @Value("${urler.redirect-cache.max-size:100000}") long maxSize,
+                         @Value("${urler.redirect-cache.ttl:PT10M}") Duration ttl,
+                         @Value("${urler.snapshot.serve-first:true}") boolean snapshotFirst,
+                         @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this(urlRepository, snapshotStore, meterRegistry, maxSize, ttl, snapshotFirst,
+                virtualThreads ? Executors.newVirtualThreadPerTaskExecutor() : Runnable::run);
+    }
+
+    RedirectCache(UrlRepository urlRepository,
+                  RedirectSnapshotStore snapshotStore,
+                  MeterRegistry meterRegistry,
+                  long maxSize,
+                  Duration ttl,
+                  boolean snapshotFirst,
+                  Executor loadExecutor) {
+        this.urlRepository = urlRepository;
+        this.snapshotStore = snapshotStore;
+        this.snapshotFirst = snapshotFirst;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .executor(loadExecutor)
+                .recordStats()
+                .buildAsync(this::load);
+        // exposes hit/miss counts and ratios under the cache.* metrics, tagged cache=redirects
+        CaffeineCacheMetrics.monitor(meterRegistry, cache.synchronous(), "redirects");
+        meterRegistry.gauge("urler.redirect-cache.pinned", this, c -> c.pinned.size());
+    }
+
+    /**
+     * Resolves a short code, loading it from the database on a miss.
+     *
+     * @param shortenedUrl the short code
+     * @return the redirect target, or null if the code does not exist
+     */
+    public RedirectTarget get(String shortenedUrl) {
+        RedirectTarget target = pinned.get(shortenedUrl);
+        if (target != null) {
+            return target;
+        }
+        return cache.get(shortenedUrl).join();
+    }
+
+    /**
+     * Writes a freshly created link through to the cache so its first redirect is a hit.
+     */
+    public void put(String shortenedUrl, RedirectTarget target) {
+        cache.put(shortenedUrl, CompletableFuture.completedFuture(target));
+    }
+
+    public void invalidate(String shortenedUrl) {
+        if (pinned.containsKey(shortenedUrl)) {
+            Map<String, RedirectTarget> next = new HashMap<>(pinned);
+            next.remove(shortenedUrl);
+            pinned = Map.copyOf(next);
+        }
+        cache.synchronous().invalidate(shortenedUrl);
+    }
+
+    /**
+     * Replaces the pinned set. Targets already pinned are kept, the rest are resolved through the cache.
+     * Codes that no longer exist are skipped.
+     */
+    public void pin(Collection<String> shortenedUrls) {
+        Map<String, RedirectTarget> current = pinned;
+        Map<String, RedirectTarget> next = new HashMap<>();
+        for (String shortenedUrl : shortenedUrls) {
+            RedirectTarget target = current.get(shortenedUrl);
+            if (target == null) {
+                target = cache.get(shortenedUrl).join();
+            }
+            if (target != null) {
+                next.put(shortenedUrl, target);
+            }
+        }
+        pinned = Map.copyOf(next);
+    }
+
+    public boolean isPinned(String shortenedUrl) {
+        return pinned.containsKey(shortenedUrl);
+    }
+
+    public CacheStats stats() {
+        return cache.synchronous().stats();
+    }
+
+    public long size() {
+        return cache.synchronous().estimatedSize();
+    }
+
+    private RedirectTarget load(String shortenedUrl) {
+        if (snapshotFirst) {
+            RedirectTarget target = snapshotStore.lookup(shortenedUrl);
+            if (target != null) {
+                return target;
+            }
+        }
+        try {
+            return urlRepository.findRedirectTargetByShortenedUrl(shortenedUrl);
+        } catch (DataAccessException | TransactionException e) {
+            // database unavailable, keep redirecting whatever the last snapshot knows about
+            RedirectTarget target = snapshotFirst ? null : snapshotStore.lookup(shortenedUrl);
+            if (target == null) {
+                throw e;
+            }
+            return target;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.urler.cache;
+
+import com.urler.dto.RedirectTarget;
+import com.urler.repository.RedirectRow;
+import com.urler.repository.UrlRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Memory-mapped on-disk snapshot of every short code -> redirect target.
+ * <p>
+ * The snapshot is rewritten every urler.snapshot.interval and mapped read-only at startup,
+ * so a freshly started node can serve redirects without a query per code, and redirects keep
+ * working from the snapshot while Postgres is unavailable.
+ * <p>
+ * File layout, big-endian:
+ * <pre>
+ * header  magic(int) version(int) entryCount(long) slotCount(long) createdAt(long epoch millis)
+ * slots   slotCount x long, open-addressing table, 0 = empty,
+ *         otherwise (16 bit hash fingerprint &lt;&lt; 48) | absolute record offset
+ * records codeLength(short) code(UTF-8) id(long) urlLength(int) url(UTF-8)
+ * </pre>
+ * The file is written to a temporary file and atomically moved into place, so readers never see a partial snapshot.
+ */
+@Slf4j
+@Component
+public class RedirectSnapshotStore {
+
+    private static final int MAGIC = 0x55524C53; // "URLS"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int PAGE_SIZE = 10_000;
+    private static final double LOAD_FACTOR = 0.6;
+    private static final long OFFSET_MASK = (1L << 48) - 1;
+
+    private final UrlRepository urlRepository;
+    private final Path path;
+    private final boolean enabled;
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    private volatile Snapshot current;
+
+    public RedirectSnapshotStore(UrlRepository urlRepository,
+                                 @Value("${urler.snapshot.path:data/redirect-snapshot.bin}") Path path,
+                                 @Value("${urler.snapshot.enabled:true}") boolean enabled) {
+        this.urlRepository = urlRepository;
+        this.path = path;
+        this.enabled = enabled;
+    }
+
+    @PostConstruct
+    void open() {
+        if (!enabled || !Files.exists(path)) {
+            return;
+        }
+        try {
+            current = Snapshot.map(path);
+            log.info("Mapped redirect snapshot {} with {} entries", path, current.entryCount);
+        } catch (Exception e) {
+            log.warn("Ignoring unreadable redirect snapshot {}", path, e);
+        }
+    }
+
+    /**
+     * @return the target stored in the snapshot, or null if there is no snapshot or the code is not in it
+     */
+    public RedirectTarget lookup(String shortenedUrl) {
+        Snapshot snapshot = current;
+        return snapshot == null ? null : snapshot.lookup(shortenedUrl);
+    }
+
+    public long getEntryCount() {
+        Snapshot snapshot = current;
+        return snapshot == null ? 0 : snapshot.entryCount;
+    }
+
+    @Scheduled(initialDelayString = "${urler.snapshot.interval:PT5M}",
+            fixedDelayString = "${urler.snapshot.interval:PT5M}")
+    public void refresh() {
+        if (!enabled || !writeLock.tryLock()) {
+            return;
+        }
+        try {
+            write();
+            current = Snapshot.map(path);
+            log.info("Wrote redirect snapshot {} with {} entries", path, current.entryCount);
+        } catch (Exception e) {
+            log.warn("Failed to write redirect snapshot, keeping the previous one", e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // two passes so the heap stays constant: stream records to a temp file, then build the slot table in the mapped output
+    private void write() throws IOException {
+        Path dir = path.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path records = Files.createTempFile(dir, "redirect-records", ".tmp");
+        Path output = Files.createTempFile(dir, "redirect-snapshot", ".tmp");
+        try {
+            long entryCount = writeRecords(records);
+            long slotCount = Long.highestOneBit(Math.max(16, (long) (entryCount / LOAD_FACTOR)) * 2 - 1);
+            long recordsStart = HEADER_SIZE + slotCount * Long.BYTES;
+            long fileSize = recordsStart + Files.size(records);
+            if (fileSize > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot of " + fileSize + " bytes exceeds the 2 GB mapping limit");
+            }
+
+            try (FileChannel out = FileChannel.open(output, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                 FileChannel in = FileChannel.open(records, StandardOpenOption.READ)) {
+                long copied = 0;
+                long size = in.size();
+                while (copied < size) {
+                    copied += out.transferFrom(in, recordsStart + copied, size - copied);
+                }
+                MappedByteBuffer buffer = out.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putLong(8, entryCount);
+                buffer.putLong(16, slotCount);
+                buffer.putLong(24, System.currentTimeMillis());
+                indexRecords(buffer, records, slotCount, recordsStart);
+                buffer.force();
+            }
+            Files.move(output, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(records);
+            Files.deleteIfExists(output);
+        }
+    }
+
+    private long writeRecords(Path records) throws IOException {
+        long entryCount = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(records), 1 << 16))) {
+            long afterId = 0;
+            List<RedirectRow> page;
+            do {
+                page = urlRepository.findRedirectRowsAfter(afterId, Limit.of(PAGE_SIZE));
+                for (RedirectRow row : page) {
+                    afterId = row.getId();
+                    if (row.getShortenedUrl() == null || row.getUrl() == null) {
+                        continue;
+                    }
+                    byte[] code = row.getShortenedUrl().getBytes(StandardCharsets.UTF_8);
+                    byte[] url = row.getUrl().getBytes(StandardCharsets.UTF_8);
+                    out.writeShort(code.length);
+                    out.write(code);
+                    out.writeLong(row.getId());
+                    out.writeInt(url.length);
+                    out.write(url);
+                    entryCount++;
+                }
+            } while (page.size() == PAGE_SIZE);
+        }
+        return entryCount;
+    }
+
+    private void indexRecords(MappedByteBuffer buffer, Path records, long slotCount, long recordsStart) throws IOException {
+        long mask = slotCount - 1;
+        long offset = recordsStart;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(records), 1 << 16))) {
+            byte[] code = new byte[Short.MAX_VALUE];
+            while (offset < buffer.limit()) {
+                int codeLength = in.readUnsignedShort();
+                in.readFully(code, 0, codeLength);
+                in.readLong();
+                int urlLength = in.readInt();
+                in.skipNBytes(urlLength);
+
+                long hash = hash(code, codeLength);
+                long slot = hash & mask;
+                while (buffer.getLong(slotPosition(slot)) != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                buffer.putLong(slotPosition(slot), (fingerprint(hash) << 48) | offset);
+                offset += Short.BYTES + codeLength + Long.BYTES + Integer.BYTES + urlLength;
+            }
+        }
+    }
+
+    private static int slotPosition(long slot) {
+        return (int) (HEADER_SIZE + slot * Long.BYTES);
+    }
+
+    // FNV-1a over the UTF-8 bytes finalised with the murmur3 mixer, never changes without bumping VERSION
+    private static long hash(byte[] bytes, int length) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < length; i++) {
+            h ^= bytes[i] & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb93fe1a85ec3L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static long fingerprint(long hash) {
+        return hash >>> 48;
+    }
+
+    private static final class Snapshot {
+        private final ByteBuffer buffer;
+        private final long entryCount;
+        private final long slotMask;
+
+        private Snapshot(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.entryCount = buffer.getLong(8);
+            this.slotMask = buffer.getLong(16) - 1;
+        }
+
+        static Snapshot map(Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                    throw new IOException("Not a version " + VERSION + " redirect snapshot");
+                }
+                return new Snapshot(buffer);
+            }
+        }
+
+        // absolute reads only, so lookups are safe from any number of threads without copying the buffer
+        RedirectTarget lookup(String shortenedUrl) {
+            byte[] code = shortenedUrl.getBytes(StandardCharsets.UTF_8);
+            long hash = hash(code, code.length);
+            long fingerprint = fingerprint(hash);
+            long slot = hash & slotMask;
+            while (true) {
+                long entry = buffer.getLong(slotPosition(slot));
+                if (entry == 0) {
+                    return null;
+                }
+                if ((entry >>> 48) == fingerprint) {
+                    RedirectTarget target = readIfMatches((int) (entry & OFFSET_MASK), code);
+                    if (target != null) {
+                        return target;
+                    }
+                }
+                slot = (slot + 1) & slotMask;
+            }
+        }
+
+        private RedirectTarget readIfMatches(int offset, byte[] code) {
+            int codeLength = Short.toUnsignedInt(buffer.getShort(offset));
+            if (codeLength != code.length) {
+                return null;
+            }
+            int position = offset + Short.BYTES;
+            for (int i = 0; i < codeLength; i++) {
+                if (buffer.get(position + i) != code[i]) {
+                    return null;
+                }
+            }
+            position += codeLength;
+            long id = buffer.getLong(position);
+            position += Long.BYTES;
+            int urlLength = buffer.getInt(position);
+            position += Integer.BYTES;
+            byte[] url = new byte[urlLength];
+            buffer.get(position, url);
+            return new RedirectTarget(id, new String(url, StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.urler.cache;
+
+import com.urler.repository.ShortCodeRow;
+import com.urler.repository.UrlRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bloom filter over every existing short code.
+ * A negative answer means the code definitely does not exist, so the redirect path can answer 404
+ * without querying Postgres. Positives still go through the redirect cache (false positive rate
+ * urler.bloom.fpp).
+ * <p>
+ * The filter is built at startup and rebuilt every urler.bloom.rebuild-interval to resize as the
+ * table grows. Links created on this node are added immediately. With urler.cluster.enabled, links
+ * created on other nodes arrive through {@link com.urler.service.ClusterRelay}, which distrusts the
+ * negatives whenever it may be missing some. Until the first build completes, and while negatives are
+ * distrusted, every code is reported as possibly present.
+ */
+@Slf4j
+@Component
+public class ShortCodeBloomFilter {
+
+    private static final int PAGE_SIZE = 10_000;
+
+    private final UrlRepository urlRepository;
+    private final long expectedInsertions;
+    private final double fpp;
+    private final Counter rejectedCounter;
+    private final ReentrantLock rebuildLock = new ReentrantLock();
+
+    private volatile BitArray current;
+    // filter being rebuilt, receives concurrent puts so nothing created mid-rebuild is lost on swap
+    private volatile BitArray building;
+    private volatile boolean negativesTrusted = true;
+
+    public ShortCodeBloomFilter(UrlRepository urlRepository,
+                                MeterRegistry meterRegistry,
+                                @Value("${urler.bloom.expected-insertions:1000000}") long expectedInsertions,
+                                @Value("${urler.bloom.fpp:0.01}") double fpp) {
+        this.urlRepository = urlRepository;
+        this.expectedInsertions = expectedInsertions;
+        this.fpp = fpp;
+        this.rejectedCounter = meterRegistry.counter("urler.redirect.bloom.rejected");
+    }
+
+    /**
+     * @return false only if the code definitely does not exist
+     */
+    public boolean mightContain(String shortenedUrl) {
+        BitArray bits = current;
+        if (bits == null || !negativesTrusted || bits.mightContain(shortenedUrl)) {
+            return true;
+        }
+        rejectedCounter.increment();
+        return false;
+    }
+
+    public void put(String shortenedUrl) {
+        // building before current: once building reads null the swap is done and current is the new filter
+        BitArray next = building;
+        if (next != null) {
+            next.put(shortenedUrl);
+        }
+        BitArray bits = current;
+        if (bits != null) {
+            bits.put(shortenedUrl);
+        }
+    }
+
+    public boolean isReady() {
+        return current != null;
+    }
+
+    /**
+     * Makes every code possibly present until {@link #trustNegatives()}, for while codes created
+     * elsewhere may be missed.
+     */
+    public void distrustNegatives() {
+        negativesTrusted = false;
+    }
+
+    public void trustNegatives() {
+        negativesTrusted = true;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        // the cluster relay may have built it already
+        if (!isReady()) {
+            rebuild();
+        }
+    }
+
+    @Scheduled(initialDelayString = "${urler.bloom.rebuild-interval:PT10M}",
+            fixedDelayString = "${urler.bloom.rebuild-interval:PT10M}")
+    public void rebuild() {
+        if (rebuildLock.tryLock()) {
+            rebuildLocked();
+        }
+    }
+
+    /**
+     * Rebuilds after any rebuild in progress, so the result holds every code committed before the call.
+     *
+     * @return whether the rebuild succeeded
+     */
+    public boolean rebuildNow() {
+        rebuildLock.lock();
+        return rebuildLocked();
+    }
+
+    private boolean rebuildLocked() {
+        try {
+            long rows = urlRepository.count();
+            BitArray next = BitArray.create(Math.max(expectedInsertions, rows * 2), fpp);
+            building = next;
+            long added = 0;
+            long afterId = 0;
+            List<ShortCodeRow> page;
+            do {
+                page = urlRepository.findShortCodesAfter(afterId, Limit.of(PAGE_SIZE));
+                for (ShortCodeRow row : page) {
+                    next.put(row.getShortenedUrl());
+                    afterId = row.getId();
+                }
+                added += page.size();
+            } while (page.size() == PAGE_SIZE);
+            current = next;
+            log.info("Rebuilt short code bloom filter with {} codes ({} bits, {} hashes)", added, next.bitSize, next.hashCount);
+            return true;
+        } catch (Exception e) {
+            log.error("Failed to rebuild short code bloom filter, keeping the previous one", e);
+            return false;
+        } finally {
+            building = null;
+            rebuildLock.unlock();
+        }
+    }
+
+    static final class BitArray {
+        private final AtomicLongArray words;
+        private final long bitSize;
+        private final int hashCount;
+
+        private BitArray(long bitSize, int hashCount) {
+            this.words = new AtomicLongArray((int) ((bitSize + 63) >>> 6));
+            this.bitSize = (long) words.length() << 6;
+            this.hashCount = hashCount;
+        }
+
+        // standard sizing: m = -n ln(p) / ln(2)^2 bits, k = m/n ln(2) hash functions
+        static BitArray create(long expectedInsertions, double fpp) {
+            long bits = (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+            int hashes = Math.max(1, (int) Math.round((double) bits / expectedInsertions * Math.log(2)));
+            return new BitArray(Math.max(64, bits), hashes);
+        }
+
+        void put(String key) {
+            long hash1 = hash(key);
+            long hash2 = fmix64(hash1 ^ 0x9E3779B97F4A7C15L);
+            for (int i = 0; i < hashCount; i++) {
+                long bit = Long.remainderUnsigned(hash1 + i * hash2, bitSize);
+                long mask = 1L << bit;
+                int word = (int) (bit >>> 6);
+                if ((words.get(word) & mask) == 0) {
+                    words.accumulateAndGet(word, mask, (a, b) -> a | b);
+                }
+            }
+        }
+
+        boolean mightContain(String key) {
+            long hash1 = hash(key);
+            long hash2 = fmix64(hash1 ^ 0x9E3779B97F4A7C15L);
+            for (int i = 0; i < hashCount; i++) {
+                long bit = Long.remainderUnsigned(hash1 + i * hash2, bitSize);
+                if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // FNV-1a over the chars (no byte[] copy on the lookup path), finalised with the murmur3 mixer
+        private static long hash(String key) {
+            long h = 0xcbf29ce484222325L;
+            for (int i = 0; i < key.length(); i++) {
+                h ^= key.charAt(i);
+                h *= 0x100000001b3L;
+            }
+            return fmix64(h);
+        }
+
+        private static long fmix64(long h) {
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb93fe1a85ec3L;
+            h ^= h >>> 33;
+            return h;
+        }
+    }
+}
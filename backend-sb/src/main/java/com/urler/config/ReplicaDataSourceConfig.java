@@ -0,0 +1,66 @@
+package com.urler.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import java.time.Duration;
+
+/**
+ * Replaces the auto-configured datasource with a primary and a replica pool behind a {@link ReplicaRoutingDataSource}
+ * when urler.datasource.replica.url is set. The primary pool keeps its spring.datasource.* settings, the replica pool
+ * is tuned under urler.datasource.replica.hikari.*.
+ */
+@Configuration
+@ConditionalOnProperty("urler.datasource.replica.url")
+public class ReplicaDataSourceConfig {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    @Bean
+    @ConfigurationProperties("urler.datasource.replica.hikari")
+    public HikariDataSource replicaDataSource(DataSourceProperties properties,
+                                              @Value("${urler.datasource.replica.url}") String url,
+                                              @Value("${urler.datasource.replica.username:}") String username,
+                                              @Value("${urler.datasource.replica.password:}") String password) {
+        HikariDataSource replica = DataSourceBuilder.create()
+                .type(HikariDataSource.class)
+                .url(url)
+                .username(username.isEmpty() ? properties.determineUsername() : username)
+                .password(password.isEmpty() ? properties.determinePassword() : password)
+                .build();
+        replica.setPoolName("replica");
+        replica.setReadOnly(true);
+        // start without the replica and fall back to the primary quickly instead of queueing for a connection
+        replica.setInitializationFailTimeout(-1);
+        replica.setConnectionTimeout(1000);
+        return replica;
+    }
+
+    @Bean
+    @Primary
+    public ReplicaRoutingDataSource dataSource(@Qualifier("primaryDataSource") HikariDataSource primary,
+                                               @Qualifier("replicaDataSource") HikariDataSource replica,
+                                               @Value("${urler.datasource.replica.max-lag:PT5S}") Duration maxLag,
+                                               MeterRegistry meterRegistry) {
+        ReplicaRoutingDataSource dataSource = new ReplicaRoutingDataSource(primary, replica, maxLag);
+        Gauge.builder("urler.datasource.replica.lag", dataSource, ReplicaRoutingDataSource::getLagSeconds)
+                .description("Replay lag of the read replica in seconds, NaN while it is unreachable")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        return dataSource;
+    }
+}
@@ -0,0 +1,106 @@
+package com.urler.config;
+
+import com.urler.service.ReplicaRouting;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+
+/**
+ * Hands out replica connections inside {@link ReplicaRouting#read} and primary connections everywhere else.
+ * <p>
+ * Every urler.datasource.replica.check-interval the replica's replay lag is measured against the primary's current
+ * WAL position. While it is unreachable or further behind than urler.datasource.replica.max-lag, reads go to the
+ * primary. A replica connection that cannot
+ * be obtained also falls back to the primary and marks the replica down until the next successful check.
+ */
+@Slf4j
+public class ReplicaRoutingDataSource extends AbstractDataSource {
+
+    private static final String PRIMARY_LSN_QUERY = "select pg_current_wal_lsn()";
+    // a replica that has replayed up to the primary's position read just before is current, however long ago the
+    // last commit was. Comparing with what the replica received instead would report a replica that lost its
+    // upstream as current. Null, unknown lag, if it is behind but has not replayed a transaction since startup
+    private static final String LAG_QUERY = """
+            select case when not pg_is_in_recovery() or pg_last_wal_replay_lsn() >= ?::pg_lsn then 0
+                        else extract(epoch from now() - pg_last_xact_replay_timestamp()) end""";
+
+    private final DataSource primary;
+    private final DataSource replica;
+    private final double maxLagSeconds;
+
+    private volatile boolean replicaUsable;
+    private volatile double lagSeconds = Double.NaN;
+
+    public ReplicaRoutingDataSource(DataSource primary, DataSource replica, Duration maxLag) {
+        this.primary = primary;
+        this.replica = replica;
+        this.maxLagSeconds = maxLag.toMillis() / 1000.0;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (ReplicaRouting.isReplicaRequested() && replicaUsable) {
+            try {
+                return replica.getConnection();
+            } catch (SQLException e) {
+                replicaUsable = false;
+                log.warn("Read replica unavailable, reading from the primary until it recovers: {}", e.getMessage());
+            }
+        }
+        return primary.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return primary.getConnection(username, password);
+    }
+
+    @Scheduled(fixedDelayString = "${urler.datasource.replica.check-interval:PT5S}")
+    public void checkReplica() {
+        boolean usable;
+        try {
+            String primaryLsn;
+            try (Connection connection = primary.getConnection();
+                 Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery(PRIMARY_LSN_QUERY)) {
+                resultSet.next();
+                primaryLsn = resultSet.getString(1);
+            }
+            try (Connection connection = replica.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(LAG_QUERY)) {
+                statement.setString(1, primaryLsn);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    resultSet.next();
+                    double lag = resultSet.getDouble(1);
+                    lagSeconds = resultSet.wasNull() ? Double.NaN : lag;
+                }
+            }
+            // NaN compares false
+            usable = lagSeconds <= maxLagSeconds;
+        } catch (SQLException e) {
+            lagSeconds = Double.NaN;
+            usable = false;
+        }
+        if (usable != replicaUsable) {
+            log.info(usable ? "Reading from the replica, {}s behind" : "Not reading from the replica, lag {}s", lagSeconds);
+        }
+        replicaUsable = usable;
+    }
+
+    public boolean isReplicaUsable() {
+        return replicaUsable;
+    }
+
+    // NaN while the replica cannot be reached or its lag is unknown
+    public double getLagSeconds() {
+        return lagSeconds;
+    }
+}
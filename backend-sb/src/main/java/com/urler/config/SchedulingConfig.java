@@ -0,0 +1,41 @@
+package com.urler.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.annotation.SchedulingConfigurer;
+import org.springframework.scheduling.concurrent.SimpleAsyncTaskScheduler;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.scheduling.config.ScheduledTaskRegistrar;
+
+// Without this, @Scheduled jobs (click flushes, bloom rebuild, snapshot writes) would run on the
+// STOMP broker's heartbeat scheduler: its TaskScheduler bean makes Spring Boot skip its own.
+@Configuration
+public class SchedulingConfig implements SchedulingConfigurer {
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    @Value("${urler.scheduling.pool-size:4}")
+    private int poolSize;
+
+    @Bean
+    public TaskScheduler urlerTaskScheduler() {
+        if (virtualThreads) {
+            SimpleAsyncTaskScheduler scheduler = new SimpleAsyncTaskScheduler();
+            scheduler.setThreadNamePrefix("scheduling-");
+            scheduler.setVirtualThreads(true);
+            return scheduler;
+        }
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setThreadNamePrefix("scheduling-");
+        scheduler.setPoolSize(poolSize);
+        return scheduler;
+    }
+
+    @Override
+    public void configureTasks(ScheduledTaskRegistrar registrar) {
+        registrar.setTaskScheduler(urlerTaskScheduler());
+    }
+}
@@ -1,7 +1,16 @@
 package com.urler.config;
 
+import com.urler.controller.RedirectFastPathFilter;
+import com.urler.security.ratelimit.RateLimitFilter;
+import com.urler.security.ratelimit.RateLimiter;
+import com.urler.service.UrlService;
+import jakarta.servlet.DispatcherType;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.security.SecurityProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
 import org.springframework.web.cors.CorsConfiguration;
 import org.springframework.web.cors.CorsConfigurationSource;
 import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
@@ -32,4 +41,37 @@ public class WebConfig {
 
         return source;
     }
+
+    // runs before the Spring Security filter chain (order -100) so public redirects skip it entirely
+    @Bean
+    @ConditionalOnProperty(name = "urler.redirect.fast-path.enabled", havingValue = "true", matchIfMissing = true)
+    public FilterRegistrationBean<RedirectFastPathFilter> redirectFastPathFilter(UrlService urlService) {
+        FilterRegistrationBean<RedirectFastPathFilter> registration = new FilterRegistrationBean<>(new RedirectFastPathFilter(urlService));
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE + 1);
+        registration.addUrlPatterns("/*");
+        registration.setDispatcherTypes(DispatcherType.REQUEST);
+        return registration;
+    }
+
+    // per client IP, first in the chain so a flood of redirects is refused before any lookup
+    @Bean
+    @ConditionalOnProperty(name = "urler.rate-limit.enabled", havingValue = "true", matchIfMissing = true)
+    public FilterRegistrationBean<RateLimitFilter> redirectRateLimitFilter(RateLimiter rateLimiter) {
+        FilterRegistrationBean<RateLimitFilter> registration = new FilterRegistrationBean<>(new RateLimitFilter(rateLimiter, RateLimiter.Route.REDIRECT));
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        registration.addUrlPatterns("/*");
+        registration.setDispatcherTypes(DispatcherType.REQUEST);
+        return registration;
+    }
+
+    // per user, right behind the Spring Security filter chain which has authenticated the request by then
+    @Bean
+    @ConditionalOnProperty(name = "urler.rate-limit.enabled", havingValue = "true", matchIfMissing = true)
+    public FilterRegistrationBean<RateLimitFilter> shortenRateLimitFilter(RateLimiter rateLimiter) {
+        FilterRegistrationBean<RateLimitFilter> registration = new FilterRegistrationBean<>(new RateLimitFilter(rateLimiter, RateLimiter.Route.SHORTEN));
+        registration.setOrder(SecurityProperties.DEFAULT_FILTER_ORDER + 1);
+        registration.addUrlPatterns("/api/urls/*");
+        registration.setDispatcherTypes(DispatcherType.REQUEST);
+        return registration;
+    }
 }
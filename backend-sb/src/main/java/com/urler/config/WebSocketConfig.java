@@ -1,21 +1,50 @@
 package com.urler.config;
 
+import com.urler.security.jwt.JwtStompInterceptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.util.unit.DataSize;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
 
+import java.time.Duration;
+
 @Configuration
 @EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
+    // same switch Spring Boot uses for Tomcat, @Async and @Scheduled
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    // a session whose single write takes longer, or that buffers more while a write blocks, is closed
+    @Value("${urler.ws.outbound.send-time-limit:PT10S}")
+    private Duration sendTimeLimit;
+
+    @Value("${urler.ws.outbound.buffer-size-limit:512KB}")
+    private DataSize bufferSizeLimit;
+
+    @Autowired
+    private JwtStompInterceptor jwtStompInterceptor;
+
+    @Autowired
+    private WebSocketSessionMonitor sessionMonitor;
+
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
-        // Enable a simple memory-based message broker for broadcasting
-        config.enableSimpleBroker("/topic");
+        // Enable a simple memory-based message broker, live clicks go to /user/queue/clicks of the link's owner
+        config.enableSimpleBroker("/queue");
         // Prefix for messages FROM client to server
         config.setApplicationDestinationPrefixes("/app");
+        if (virtualThreads) {
+            config.configureBrokerChannel().executor(new VirtualThreadTaskExecutor("ws-broker-"));
+        }
     }
 
     @Override
@@ -25,4 +54,28 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
                 .setAllowedOrigins("http://localhost:3000")
                 .withSockJS();
     }
+
+    // the inbound/outbound channels default to bounded platform thread pools
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        registration.interceptors(jwtStompInterceptor);
+        if (virtualThreads) {
+            registration.executor(new VirtualThreadTaskExecutor("ws-inbound-"));
+        }
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        registration.setSendTimeLimit((int) sendTimeLimit.toMillis())
+                .setSendBufferSizeLimit((int) bufferSizeLimit.toBytes())
+                .addDecoratorFactory(sessionMonitor::decorate);
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        registration.interceptors(sessionMonitor);
+        if (virtualThreads) {
+            registration.executor(new VirtualThreadTaskExecutor("ws-outbound-"));
+        }
+    }
 }
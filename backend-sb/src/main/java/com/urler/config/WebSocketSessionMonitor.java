@@ -0,0 +1,228 @@
+package com.urler.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks how far each WebSocket session is behind on outbound STOMP messages.
+ * <p>
+ * A MESSAGE frame counts as queued from the moment the broker hands it to the client outbound channel until it
+ * has been written to the socket, so the count covers both the outbound executor queue and the send buffer Spring
+ * keeps per session while a slow client blocks a write. A session with urler.ws.outbound.max-queued frames or more
+ * is behind: {@link com.urler.service.ClickSessionOutbox} then conflates its click updates instead of queueing
+ * more. A session behind for longer than urler.ws.outbound.max-behind is closed, the client reconnects and starts
+ * over from fresh totals. The send time and buffer size limits of {@link WebSocketConfig} still close sessions
+ * whose single write hangs.
+ * <p>
+ * Metrics: urler.ws.outbound.lag (time from the broker to the socket per frame), urler.ws.outbound.max-lag (age of
+ * the oldest unwritten frame of any session), urler.ws.sessions.behind and urler.ws.sessions.closed.
+ */
+@Slf4j
+@Component
+public class WebSocketSessionMonitor implements ChannelInterceptor {
+
+    private static final byte[] MESSAGE_COMMAND = "MESSAGE\n".getBytes(StandardCharsets.UTF_8);
+
+    private final int maxQueued;
+    private final long maxBehindNanos;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final Timer lag;
+    private final Counter closed;
+
+    private static final class Session {
+        final WebSocketSession socket;
+        // enqueue times of the frames not written yet, oldest first
+        final ConcurrentLinkedQueue<Long> queuedAt = new ConcurrentLinkedQueue<>();
+        final AtomicInteger queued = new AtomicInteger();
+        volatile long behindSince;
+
+        Session(WebSocketSession socket) {
+            this.socket = socket;
+        }
+    }
+
+    public WebSocketSessionMonitor(MeterRegistry meterRegistry,
+                                   @Value("${urler.ws.outbound.max-queued:8}") int maxQueued,
+                                   @Value("${urler.ws.outbound.max-behind:PT30S}") Duration maxBehind) {
+        this.maxQueued = maxQueued;
+        this.maxBehindNanos = maxBehind.toNanos();
+        this.lag = Timer.builder("urler.ws.outbound.lag")
+                .description("Time from the broker to the socket per STOMP MESSAGE frame")
+                .register(meterRegistry);
+        this.closed = meterRegistry.counter("urler.ws.sessions.closed", "reason", "behind");
+        Gauge.builder("urler.ws.outbound.max-lag", this, monitor -> monitor.maxLagNanos() / 1e9)
+                .description("Age of the oldest frame not yet written to any session")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        meterRegistry.gauge("urler.ws.sessions.behind", this, WebSocketSessionMonitor::behindCount);
+    }
+
+    /**
+     * @return true while the session has max-queued or more frames not written yet
+     */
+    public boolean isBehind(String sessionId) {
+        Session session = sessions.get(sessionId);
+        return session != null && session.queued.get() >= maxQueued;
+    }
+
+    public boolean isOpen(String sessionId) {
+        return sessions.containsKey(sessionId);
+    }
+
+    /**
+     * Wraps the STOMP handler so every session is registered and its socket writes are counted.
+     * Spring puts its own send-limit decorator around the session passed here, so the writes seen
+     * are the ones actually reaching the socket.
+     */
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession socket) throws Exception {
+                Session session = new Session(socket);
+                sessions.put(socket.getId(), session);
+                super.afterConnectionEstablished(new CountingSession(socket, session));
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession socket, CloseStatus closeStatus) throws Exception {
+                sessions.remove(socket.getId());
+                super.afterConnectionClosed(socket, closeStatus);
+            }
+        };
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        if (sessionId != null && SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) == SimpMessageType.MESSAGE) {
+            Session session = sessions.get(sessionId);
+            if (session != null) {
+                long now = System.nanoTime();
+                session.queuedAt.add(now);
+                if (session.queued.incrementAndGet() >= maxQueued && session.behindSince == 0) {
+                    session.behindSince = now;
+                }
+            }
+        }
+        return message;
+    }
+
+    private void written(Session session) {
+        Long queuedAt = session.queuedAt.poll();
+        if (queuedAt != null) {
+            lag.record(System.nanoTime() - queuedAt, TimeUnit.NANOSECONDS);
+            if (session.queued.decrementAndGet() < maxQueued) {
+                session.behindSince = 0;
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${urler.ws.outbound.check-interval:PT1S}")
+    public void closeHopeless() {
+        long now = System.nanoTime();
+        sessions.values().forEach(session -> {
+            long behindSince = session.behindSince;
+            if (behindSince == 0) {
+                return;
+            }
+            if (session.queued.get() < maxQueued) {
+                // a write raced with the frame that set it
+                session.behindSince = 0;
+            } else if (now - behindSince > maxBehindNanos) {
+                log.info("Closing WebSocket session {}, {} frames behind for {}s", session.socket.getId(),
+                        session.queued.get(), TimeUnit.NANOSECONDS.toSeconds(now - behindSince));
+                closed.increment();
+                sessions.remove(session.socket.getId(), session);
+                try {
+                    session.socket.close(CloseStatus.SESSION_NOT_RELIABLE);
+                } catch (IOException e) {
+                    log.debug("Failed to close WebSocket session {}", session.socket.getId(), e);
+                }
+            }
+        });
+    }
+
+    private long maxLagNanos() {
+        long now = System.nanoTime();
+        long max = 0;
+        for (Session session : sessions.values()) {
+            Long oldest = session.queuedAt.peek();
+            if (oldest != null) {
+                max = Math.max(max, now - oldest);
+            }
+        }
+        return max;
+    }
+
+    private int behindCount() {
+        int behind = 0;
+        for (Session session : sessions.values()) {
+            if (session.queued.get() >= maxQueued) {
+                behind++;
+            }
+        }
+        return behind;
+    }
+
+    // counts the STOMP MESSAGE frames written to the socket
+    private final class CountingSession extends WebSocketSessionDecorator {
+
+        private final Session session;
+
+        CountingSession(WebSocketSession delegate, Session session) {
+            super(delegate);
+            this.session = session;
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) throws IOException {
+            super.sendMessage(message);
+            if (isMessageFrame(message)) {
+                written(session);
+            }
+        }
+    }
+
+    // compares bytes, a TextMessage built from the encoded frame is never decoded into a String
+    static boolean isMessageFrame(WebSocketMessage<?> message) {
+        ByteBuffer payload;
+        if (message instanceof TextMessage text) {
+            payload = ByteBuffer.wrap(text.asBytes());
+        } else if (message instanceof BinaryMessage binary) {
+            payload = binary.getPayload().duplicate();
+        } else {
+            return false;
+        }
+        return payload.remaining() >= MESSAGE_COMMAND.length
+                && payload.slice(payload.position(), MESSAGE_COMMAND.length).equals(ByteBuffer.wrap(MESSAGE_COMMAND));
+    }
+}
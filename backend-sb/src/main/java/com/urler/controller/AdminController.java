@@ -0,0 +1,80 @@
+package com.urler.controller;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.urler.cache.HotLinkTracker;
+import com.urler.cache.RedirectCache;
+import com.urler.dto.CacheStatsDto;
+import com.urler.dto.HotLinkDto;
+import com.urler.service.ClickRollupService;
+import com.urler.service.UserService;
+import lombok.AllArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/admin")
+@AllArgsConstructor
+public class AdminController {
+    private RedirectCache redirectCache;
+    private HotLinkTracker hotLinkTracker;
+    private ClickRollupService clickRollupService;
+    private UserService userService;
+
+    // hit/miss ratios of the redirect cache, used to size urler.redirect-cache.max-size
+    @GetMapping("/cache")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<CacheStatsDto> getRedirectCacheStats(){
+        CacheStats stats = redirectCache.stats();
+        CacheStatsDto dto = new CacheStatsDto();
+        dto.setSize(redirectCache.size());
+        dto.setHitCount(stats.hitCount());
+        dto.setMissCount(stats.missCount());
+        dto.setHitRate(stats.hitRate());
+        dto.setMissRate(stats.missRate());
+        dto.setLoadCount(stats.loadCount());
+        dto.setEvictionCount(stats.evictionCount());
+        dto.setAverageLoadPenaltyMillis(stats.averageLoadPenalty() / 1_000_000.0);
+        return ResponseEntity.ok(dto);
+    }
+
+    // hottest short codes over the last urler.hotlinks.window, hottest first
+    @GetMapping("/hotlinks")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<List<HotLinkDto>> getHotLinks(){
+        return ResponseEntity.ok(hotLinkTracker.getHottest());
+    }
+
+    // rebuilds the hourly/daily click rollups from the raw clicks, e.g. after upgrading or restoring clicks
+    @PostMapping("/rollups/backfill")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Map<String, Integer>> backfillRollups() throws InterruptedException {
+        int months = clickRollupService.backfill();
+        if (months < 0) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+        return ResponseEntity.ok(Map.of("months", months));
+    }
+
+    // {"role":"ROLE_ADMIN"}, the user's existing tokens are revoked and the new role applies from the next login
+    @PutMapping("/users/{username}/role")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Void> changeRole(@PathVariable String username, @RequestBody Map<String, String> body){
+        String role = body.get("role");
+        if (!"ROLE_USER".equals(role) && !"ROLE_ADMIN".equals(role)) {
+            throw new IllegalArgumentException("Unknown role '" + role + "', expected ROLE_USER or ROLE_ADMIN");
+        }
+        userService.changeRole(username, role);
+        return ResponseEntity.noContent().build();
+    }
+}
@@ -2,8 +2,10 @@ package com.urler.controller;
 
 import com.urler.dto.LoginRequest;
 import com.urler.dto.RegisterRequest;
+import com.urler.security.jwt.JwtUtils;
 import com.urler.service.UserService;
 import com.urler.table.User;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.AllArgsConstructor;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -17,6 +19,7 @@ import org.springframework.web.bind.annotation.RestController;
 public class AuthController {
 
     private UserService userService;
+    private JwtUtils jwtUtils;
 
     @PostMapping("/public/login")
     public ResponseEntity<?> loginUser(@RequestBody LoginRequest loginRequest){
@@ -38,4 +41,14 @@ public class AuthController {
         userService.registerUser(user);
         return ResponseEntity.ok(java.util.Map.of("message", "User registered successfully"));
     }
+
+    // revokes the bearer token of the request, other sessions of the user stay logged in
+    @PostMapping("/logout")
+    public ResponseEntity<Void> logoutUser(HttpServletRequest request){
+        String jwt = jwtUtils.getJwtFromHeader(request);
+        if (jwt != null) {
+            userService.logout(jwt);
+        }
+        return ResponseEntity.noContent().build();
+    }
 }
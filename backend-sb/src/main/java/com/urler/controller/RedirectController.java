@@ -1,7 +1,6 @@
 package com.urler.controller;
 
-import com.urler.exception.ResourceNotFoundException;
-import com.urler.table.Url;
+import com.urler.dto.RedirectTarget;
 import com.urler.service.UrlService;
 import lombok.AllArgsConstructor;
 import org.springframework.http.HttpHeaders;
@@ -14,17 +13,21 @@ import org.springframework.web.bind.annotation.RestController;
 @AllArgsConstructor
 public class RedirectController {
 
+    // unknown codes are mostly scanner traffic, answer them with a shared empty 404
+    // instead of throwing through GlobalExceptionHandler and building an ErrorResponse
+    private static final ResponseEntity<Void> NOT_FOUND = ResponseEntity.notFound().build();
+
     private UrlService urlService;
 
     @GetMapping("/{shortenedUrl}")
     public ResponseEntity<Void> redirect(@PathVariable String shortenedUrl){
-        Url url = urlService.getOriginalUrl(shortenedUrl);
+        RedirectTarget url = urlService.getOriginalUrl(shortenedUrl);
         if (url != null) {
             HttpHeaders httpHeaders = new HttpHeaders();
             httpHeaders.add("Location", url.getUrl());
             return ResponseEntity.status(302).headers(httpHeaders).build();
         } else {
-            throw new ResourceNotFoundException("Shortened URL '" + shortenedUrl + "' not found.");
+            return NOT_FOUND;
         }
     }
 }
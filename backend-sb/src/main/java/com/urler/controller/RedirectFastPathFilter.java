@@ -0,0 +1,70 @@
+package com.urler.controller;
+
+import com.urler.dto.RedirectTarget;
+import com.urler.service.UrlService;
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+
+/**
+ * Serves {@code GET /{shortenedUrl}} straight from the servlet filter chain, ahead of Spring Security,
+ * the JWT filter, CORS processing and DispatcherServlet handler mapping. A redirect needs none of them.
+ * Only single-segment paths made of URL-safe characters are handled here. Everything else, including
+ * /api/**, /ws/** and /actuator/**, continues down the full chain. {@link RedirectController} still
+ * handles anything this filter passes on.
+ * Registered in {@link com.urler.config.WebConfig} rather than as a component so its order is explicit.
+ */
+public class RedirectFastPathFilter implements Filter {
+
+    private final UrlService urlService;
+
+    public RedirectFastPathFilter(UrlService urlService) {
+        this.urlService = urlService;
+    }
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain) throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) req;
+        if (!"GET".equals(request.getMethod()) || !isShortCodePath(request.getRequestURI())) {
+            chain.doFilter(req, res);
+            return;
+        }
+
+        HttpServletResponse response = (HttpServletResponse) res;
+        RedirectTarget target = urlService.getOriginalUrl(request.getRequestURI().substring(1));
+        if (target == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+        } else {
+            response.setStatus(HttpServletResponse.SC_FOUND);
+            response.setHeader("Location", target.getUrl());
+        }
+        response.setContentLength(0);
+    }
+
+    // "/" followed by [A-Za-z0-9_-]+, checked without a regex or substring allocation
+    public static boolean isShortCodePath(String uri) {
+        int length = uri.length();
+        if (length < 2 || uri.charAt(0) != '/' || isReserved(uri)) {
+            return false;
+        }
+        for (int i = 1; i < length; i++) {
+            char c = uri.charAt(i);
+            boolean safe = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_';
+            if (!safe) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // bare first segments of routes that must keep the full chain
+    private static boolean isReserved(String uri) {
+        return uri.equals("/api") || uri.equals("/ws") || uri.equals("/actuator") || uri.equals("/error");
+    }
+}
@@ -2,17 +2,29 @@ package com.urler.controller;
 
 import com.urler.dto.ClicksDto;
 import com.urler.dto.UrlDto;
+import com.urler.dto.UrlPageDto;
+import com.urler.table.Url;
 import com.urler.table.User;
+import com.urler.service.BulkShortenService;
+import com.urler.service.ClickExportService;
+import com.urler.service.ClickRollupService;
 import com.urler.service.UrlService;
 import com.urler.service.UserService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.AllArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
 import java.security.Principal;
+import java.time.DateTimeException;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
 import java.util.Map;
@@ -23,6 +35,8 @@ import java.util.Map;
 public class UrlController {
     private UrlService urlService;
     private UserService userService;
+    private BulkShortenService bulkShortenService;
+    private ClickExportService clickExportService;
 
     // {"url":"https://example.com"}
 //    https://abc.com/QN7XOa0a --> https://example.com
@@ -31,30 +45,86 @@ public class UrlController {
     @PreAuthorize("hasRole('USER')")
     public ResponseEntity<UrlDto> createShortUrl(@RequestBody UrlDto requestDto,
                                                         Principal principal){
-        User user = userService.findByUsername(principal.getName());
+        User user = userService.currentUser(principal);
         UrlDto urlDto = urlService.createShortUrl(requestDto, user);
         return ResponseEntity.ok(urlDto);
     }
 
 
+    // NDJSON or CSV upload, one link per line, answered with one NDJSON result line per input line
+    @PostMapping(value = "/bulk", consumes = {MediaType.APPLICATION_NDJSON_VALUE, "text/csv"})
+    @PreAuthorize("hasRole('USER')")
+    public void createShortUrls(HttpServletRequest request,
+                                HttpServletResponse response,
+                                Principal principal) throws IOException {
+        User user = userService.currentUser(principal);
+        BulkShortenService.Format format = MediaType.parseMediaType(request.getContentType())
+                .isCompatibleWith(MediaType.valueOf("text/csv")) ? BulkShortenService.Format.CSV : BulkShortenService.Format.NDJSON;
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        bulkShortenService.shorten(request.getInputStream(), format, user, response.getOutputStream());
+    }
+
+
+    // raw clicks of one of the caller's links, streamed; the range defaults to everything
+    @GetMapping(value = "/{shortenedUrl}/clicks/export", produces = {MediaType.APPLICATION_NDJSON_VALUE, "text/csv"})
+    @PreAuthorize("hasRole('USER')")
+    public void exportClicks(@PathVariable String shortenedUrl,
+                             @RequestParam(value = "format", defaultValue = "ndjson") String format,
+                             @RequestParam(value = "startDate", required = false) String startDate,
+                             @RequestParam(value = "endDate", required = false) String endDate,
+                             HttpServletResponse response,
+                             Principal principal) throws IOException {
+        User user = userService.currentUser(principal);
+        Url url = clickExportService.findOwnedUrl(shortenedUrl, user);
+        ClickExportService.Format exportFormat = switch (format.toLowerCase()) {
+            case "csv" -> ClickExportService.Format.CSV;
+            case "ndjson" -> ClickExportService.Format.NDJSON;
+            default -> throw new IllegalArgumentException("Unknown format '" + format + "', expected ndjson or csv");
+        };
+        DateTimeFormatter formatter = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+        LocalDateTime start = startDate == null ? LocalDateTime.of(1970, 1, 1, 0, 0) : LocalDateTime.parse(startDate, formatter);
+        LocalDateTime end = endDate == null ? LocalDateTime.now().plusDays(1) : LocalDateTime.parse(endDate, formatter);
+
+        boolean csv = exportFormat == ClickExportService.Format.CSV;
+        response.setContentType(csv ? "text/csv" : MediaType.APPLICATION_NDJSON_VALUE);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                "attachment; filename=\"" + shortenedUrl + "-clicks." + (csv ? "csv" : "ndjson") + "\"");
+        clickExportService.export(url, start, end, exportFormat, response.getOutputStream());
+    }
+
+
+    // keyset-paginated, pass the returned nextCursor to get the following page
     @GetMapping("/myurls")
     @PreAuthorize("hasRole('USER')")
-    public ResponseEntity<List<UrlDto>> getUserUrls(Principal principal){
-        User user = userService.findByUsername(principal.getName());
-        List<UrlDto> urls = urlService.getUrlsByUser(user);
-        return ResponseEntity.ok(urls);
+    public ResponseEntity<UrlPageDto> getUserUrls(@RequestParam(value = "sort", defaultValue = "created") String sort,
+                                                  @RequestParam(value = "cursor", required = false) String cursor,
+                                                  @RequestParam(value = "limit", defaultValue = "50") int limit,
+                                                  Principal principal){
+        User user = userService.currentUser(principal);
+        UrlPageDto page = urlService.getUrlsByUser(user, UrlService.UrlSort.parse(sort), cursor, limit);
+        return ResponseEntity.ok(page);
     }
 
 
+    // dense series of clicks per minute, hour, day or week, startDate/endDate are local times in timezone
     @GetMapping("/analytics/{shortenedUrl}")
     @PreAuthorize("hasRole('USER')")
     public ResponseEntity<List<ClicksDto>> getUrlAnalytics(@PathVariable String shortenedUrl,
                                                                @RequestParam("startDate") String startDate,
-                                                               @RequestParam("endDate") String endDate){
+                                                               @RequestParam("endDate") String endDate,
+                                                               @RequestParam(value = "granularity", defaultValue = "day") String granularity,
+                                                               @RequestParam(value = "timezone", required = false) String timezone){
         DateTimeFormatter formatter = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
         LocalDateTime start = LocalDateTime.parse(startDate, formatter);
         LocalDateTime end = LocalDateTime.parse(endDate, formatter);
-        List<ClicksDto> clicksDtos = urlService.getClickEventsByDate(shortenedUrl, start, end);
+        ZoneId zone;
+        try {
+            zone = timezone == null ? ZoneId.systemDefault() : ZoneId.of(timezone);
+        } catch (DateTimeException e) {
+            throw new IllegalArgumentException("Unknown timezone '" + timezone + "'");
+        }
+        List<ClicksDto> clicksDtos = urlService.getClickEventsByDate(shortenedUrl, start, end,
+                ClickRollupService.Granularity.parse(granularity), zone);
         return ResponseEntity.ok(clicksDtos);
     }
 
@@ -65,7 +135,7 @@ public class UrlController {
                                                                      @RequestParam("startDate") String startDate,
                                                                      @RequestParam("endDate") String endDate){
         DateTimeFormatter formatter = DateTimeFormatter.ISO_LOCAL_DATE;
-        User user = userService.findByUsername(principal.getName());
+        User user = userService.currentUser(principal);
         LocalDate start = LocalDate.parse(startDate, formatter);
         LocalDate end = LocalDate.parse(endDate, formatter);
         Map<LocalDate, Long> totalClicks = urlService.getTotalClicksByUserAndDate(user, start, end);
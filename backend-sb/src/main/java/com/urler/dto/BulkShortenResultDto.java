@@ -0,0 +1,15 @@
+package com.urler.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+// one NDJSON line of the bulk shorten response, either shortenedUrl or error is set
+@Data
+@AllArgsConstructor
+public class BulkShortenResultDto {
+    // 1-based line number in the upload
+    private long line;
+    private String url;
+    private String shortenedUrl;
+    private String error;
+}
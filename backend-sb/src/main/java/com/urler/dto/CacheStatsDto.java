@@ -0,0 +1,15 @@
+package com.urler.dto;
+
+import lombok.Data;
+
+@Data
+public class CacheStatsDto {
+    private long size;
+    private long hitCount;
+    private long missCount;
+    private double hitRate;
+    private double missRate;
+    private long loadCount;
+    private long evictionCount;
+    private double averageLoadPenaltyMillis;
+}
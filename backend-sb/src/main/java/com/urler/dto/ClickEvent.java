@@ -0,0 +1,14 @@
+package com.urler.dto;
+
+import lombok.Value;
+
+import java.time.LocalDateTime;
+
+/**
+ * A click captured on the redirect path, waiting in the ingestion queue to be written as a Clicks row.
+ */
+@Value
+public class ClickEvent {
+    Long urlId;
+    LocalDateTime clickDate;
+}
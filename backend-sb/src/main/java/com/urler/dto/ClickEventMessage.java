@@ -11,6 +11,9 @@ import java.time.LocalDateTime;
 @NoArgsConstructor
 public class ClickEventMessage {
     private Long urlId;
-    private int clicks;
+    // total clicks of the url
+    private long clicks;
+    // clicks since the previous message for the url
+    private long delta;
     private LocalDateTime clickDate;
 }
@@ -3,9 +3,12 @@ package com.urler.dto;
 import lombok.Data;
 
 import java.time.LocalDate;
+import java.time.OffsetDateTime;
 
 @Data
 public class ClicksDto {
     private LocalDate clickDate;
+    // start of the bucket in the requested timezone
+    private OffsetDateTime bucket;
     private Long count;
 }
@@ -0,0 +1,15 @@
+package com.urler.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class HotLinkDto {
+    private String shortenedUrl;
+    // decayed Space-Saving estimate, overcounts by at most error
+    private long count;
+    private long error;
+    private double clicksPerSecond;
+    private boolean pinned;
+}
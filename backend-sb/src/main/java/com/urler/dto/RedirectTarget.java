@@ -0,0 +1,13 @@
+package com.urler.dto;
+
+import lombok.Value;
+
+/**
+ * Minimal view of a short link needed to serve a redirect.
+ * Immutable so it can be shared freely between threads through the redirect cache.
+ */
+@Value
+public class RedirectTarget {
+    Long id;
+    String url;
+}
@@ -1,16 +1,27 @@
 package com.urler.dto;
 
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 import java.time.LocalDateTime;
 
 @Data
+@NoArgsConstructor
 public class UrlDto {
     private Long id;
     private String url;
     private String shortenedUrl;
     private String customAlias;
-    private int clicks;
+    private long clicks;
     private LocalDateTime dateCreated;
     private String username;
+
+    // constructor expression target of the listing queries in UrlRepository
+    public UrlDto(Long id, String url, String shortenedUrl, long clicks, LocalDateTime dateCreated) {
+        this.id = id;
+        this.url = url;
+        this.shortenedUrl = shortenedUrl;
+        this.clicks = clicks;
+        this.dateCreated = dateCreated;
+    }
 }
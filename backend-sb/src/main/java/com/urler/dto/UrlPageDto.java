@@ -0,0 +1,14 @@
+package com.urler.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+// one page of GET /api/urls/myurls, nextCursor is null on the last page
+@Data
+@AllArgsConstructor
+public class UrlPageDto {
+    private List<UrlDto> urls;
+    private String nextCursor;
+}
@@ -0,0 +1,9 @@
+package com.urler.repository;
+
+import java.time.LocalDateTime;
+
+// clicks summed over one time bucket, aggregated in SQL by the analytics queries
+public interface BucketClicks {
+    LocalDateTime getBucket();
+    long getClicks();
+}
@@ -0,0 +1,40 @@
+package com.urler.repository;
+
+import com.urler.table.ClickRollupDaily;
+import com.urler.table.User;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+
+// reads of the click rollups, they are written with upserts in ClickRollupService
+@Repository
+public interface ClickRollupRepository extends JpaRepository<ClickRollupDaily, ClickRollupDaily.Key> {
+
+   // hourly rollup re-bucketed per date_trunc unit in the given zone, buckets are stored in the server zone
+   @Query(value = """
+           select date_trunc(:unit, (r.bucket at time zone :serverZone) at time zone :zone) as bucket, sum(r.clicks) as clicks
+           from click_rollup_hourly r where r.url_id = :urlId and r.bucket >= :from and r.bucket <= :to
+           group by 1""", nativeQuery = true)
+   List<BucketClicks> sumHourlyByBucket(@Param("urlId") Long urlId, @Param("unit") String unit,
+                                        @Param("serverZone") String serverZone, @Param("zone") String zone,
+                                        @Param("from") LocalDateTime from, @Param("to") LocalDateTime to);
+
+   // daily rollup re-bucketed per date_trunc unit, only meaningful in the server zone
+   @Query(value = """
+           select date_trunc(:unit, cast(r.day as timestamp)) as bucket, sum(r.clicks) as clicks
+           from click_rollup_daily r where r.url_id = :urlId and r.day >= :from and r.day < :to
+           group by 1""", nativeQuery = true)
+   List<BucketClicks> sumDailyByBucket(@Param("urlId") Long urlId, @Param("unit") String unit,
+                                       @Param("from") LocalDate from, @Param("to") LocalDate to);
+
+   @Query("""
+           select r.day as day, sum(r.clicks) as clicks from ClickRollupDaily r
+           where r.urlId in (select u.id from Url u where u.user = :user) and r.day >= :from and r.day <= :to
+           group by r.day""")
+   List<DailyClicks> sumDailyByUser(@Param("user") User user, @Param("from") LocalDate from, @Param("to") LocalDate to);
+}
@@ -1,8 +1,9 @@
 package com.urler.repository;
 
 import com.urler.table.Clicks;
-import com.urler.table.Url;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
@@ -10,6 +11,12 @@ import java.util.List;
 
 @Repository
 public interface ClicksRepository extends JpaRepository<Clicks, Long> {
-   List<Clicks> findByUrlAndClickDateBetween(Url url, LocalDateTime startDate, LocalDateTime endDate);
-   List<Clicks> findByUrlInAndClickDateBetween(List<Url> urls, LocalDateTime startDate, LocalDateTime endDate);
+   // raw clicks per date_trunc unit in the given zone, click_date is stored in the server zone
+   @Query(value = """
+           select date_trunc(:unit, (c.click_date at time zone :serverZone) at time zone :zone) as bucket, count(*) as clicks
+           from clicks c where c.url_id = :urlId and c.click_date >= :from and c.click_date <= :to
+           group by 1""", nativeQuery = true)
+   List<BucketClicks> countByBucket(@Param("urlId") Long urlId, @Param("unit") String unit,
+                                    @Param("serverZone") String serverZone, @Param("zone") String zone,
+                                    @Param("from") LocalDateTime from, @Param("to") LocalDateTime to);
 }
@@ -0,0 +1,9 @@
+package com.urler.repository;
+
+import java.time.LocalDate;
+
+// clicks summed over one day, read from the daily rollup
+public interface DailyClicks {
+    LocalDate getDay();
+    long getClicks();
+}
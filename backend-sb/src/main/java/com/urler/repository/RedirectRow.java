@@ -0,0 +1,8 @@
+package com.urler.repository;
+
+// id + short code + target projection for keyset scans that export redirects
+public interface RedirectRow {
+    Long getId();
+    String getShortenedUrl();
+    String getUrl();
+}
@@ -0,0 +1,7 @@
+package com.urler.repository;
+
+// id + short code projection for keyset scans over the url table
+public interface ShortCodeRow {
+    Long getId();
+    String getShortenedUrl();
+}
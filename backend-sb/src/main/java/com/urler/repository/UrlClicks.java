@@ -0,0 +1,9 @@
+package com.urler.repository;
+
+// projection of a Url's current click total and owner, used to publish totals without loading entities
+public interface UrlClicks {
+    Long getId();
+    long getClicks();
+    // null for links without an owner
+    String getUsername();
+}
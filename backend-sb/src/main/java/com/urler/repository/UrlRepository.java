@@ -1,14 +1,77 @@
 package com.urler.repository;
 
+import com.urler.dto.RedirectTarget;
+import com.urler.dto.UrlDto;
 import com.urler.table.Url;
 import com.urler.table.User;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
 public interface UrlRepository extends JpaRepository<Url, Long> {
    Url findByShortenedUrl(String shortenedUrl);
-   List<Url> findByUser(User user);
+   // keyset pages of a user's links read straight into UrlDto, newest first or most clicked first, ties broken by id.
+   // The *After variants continue after the last row of the previous page, the row comparison lets Postgres
+   // start the index scan there instead of filtering everything before it
+   @Query("""
+           select new com.urler.dto.UrlDto(u.id, u.url, u.shortenedUrl, u.clicks, u.dateCreated) from Url u
+           where u.user = :user order by u.dateCreated desc, u.id desc""")
+   List<UrlDto> findPageByUserOrderByCreated(@Param("user") User user, Limit limit);
+
+   @Query("""
+           select new com.urler.dto.UrlDto(u.id, u.url, u.shortenedUrl, u.clicks, u.dateCreated) from Url u
+           where u.user = :user and (u.dateCreated, u.id) < (:dateCreated, :id)
+           order by u.dateCreated desc, u.id desc""")
+   List<UrlDto> findPageByUserOrderByCreatedAfter(@Param("user") User user, @Param("dateCreated") LocalDateTime dateCreated,
+                                                  @Param("id") Long id, Limit limit);
+
+   @Query("""
+           select new com.urler.dto.UrlDto(u.id, u.url, u.shortenedUrl, u.clicks, u.dateCreated) from Url u
+           where u.user = :user order by u.clicks desc, u.id desc""")
+   List<UrlDto> findPageByUserOrderByClicks(@Param("user") User user, Limit limit);
+
+   @Query("""
+           select new com.urler.dto.UrlDto(u.id, u.url, u.shortenedUrl, u.clicks, u.dateCreated) from Url u
+           where u.user = :user and (u.clicks, u.id) < (:clicks, :id)
+           order by u.clicks desc, u.id desc""")
+   List<UrlDto> findPageByUserOrderByClicksAfter(@Param("user") User user, @Param("clicks") long clicks,
+                                                 @Param("id") Long id, Limit limit);
+
+   List<Url> findByUserAndUrlHash(User user, Long urlHash);
+
+   // first id of the next block of ShortCodeGenerator.BLOCK_SIZE short code ids
+   @Query(value = "select nextval('short_code_seq')", nativeQuery = true)
+   long nextShortCodeBlock();
+
+   // narrow projection for the redirect path, avoids hydrating the Url entity and its eager User join
+   @Query("select new com.urler.dto.RedirectTarget(u.id, u.url) from Url u where u.shortenedUrl = :shortenedUrl")
+   RedirectTarget findRedirectTargetByShortenedUrl(@Param("shortenedUrl") String shortenedUrl);
+
+   // atomic increment in the database instead of a read-modify-write through the entity
+   @Modifying
+   @Transactional
+   @Query("update Url u set u.clicks = u.clicks + :delta where u.id = :id")
+   int addClicks(@Param("id") Long id, @Param("delta") long delta);
+
+   @Query("select u.id as id, u.clicks as clicks, owner.username as username from Url u left join u.user owner where u.id in :ids")
+   List<UrlClicks> findClicksByIdIn(@Param("ids") Collection<Long> ids);
+
+   // keyset page of short codes, used to rebuild in-memory indexes without one long-running query
+   @Query("select u.id as id, u.shortenedUrl as shortenedUrl from Url u where u.id > :afterId order by u.id")
+   List<ShortCodeRow> findShortCodesAfter(@Param("afterId") Long afterId, Limit limit);
+
+   @Query("select u.id as id, u.shortenedUrl as shortenedUrl, u.url as url from Url u where u.id > :afterId order by u.id")
+   List<RedirectRow> findRedirectRowsAfter(@Param("afterId") Long afterId, Limit limit);
+
+   @Query("select u.id as id, u.shortenedUrl as shortenedUrl, u.url as url from Url u order by u.clicks desc")
+   List<RedirectRow> findMostClicked(Limit limit);
 }
@@ -1,5 +1,7 @@
 package com.urler.security.jwt;
 
+import com.urler.table.UserDetailsImpl;
+import io.jsonwebtoken.Claims;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -7,14 +9,17 @@ import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.security.core.userdetails.UserDetails;
-import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import java.io.IOException;
 
+/**
+ * Authenticates requests carrying a bearer token from its verified claims alone: subject, roles, uid and ver
+ * become a {@link UserDetailsImpl} without loading the user. Revocation is checked against the
+ * {@link TokenRevocationList}, which only queries users when a user's cached version expired.
+ */
 @Component
 public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
@@ -22,7 +27,7 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
     private JwtUtils jwtTokenProvider;
 
     @Autowired
-    private UserDetailsService userDetailsService;
+    private TokenRevocationList tokenRevocationList;
 
     @Override
     protected void doFilterInternal(HttpServletRequest request,
@@ -40,17 +45,19 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         try {
             String jwt = jwtTokenProvider.getJwtFromHeader(request);
 
-            if (jwt != null && jwtTokenProvider.validateToken(jwt)){
-                String username = jwtTokenProvider.getUsernameFromJwt(jwt);
-                UserDetails userDetails = userDetailsService.loadUserByUsername(username);
-                if (userDetails != null){
+            if (jwt != null){
+                Claims claims = jwtTokenProvider.parseClaims(jwt);
+                UserDetailsImpl userDetails = jwtTokenProvider.getPrincipalFromClaims(claims);
+                if (userDetails != null
+                        && tokenRevocationList.isValid(claims.getId(), userDetails.getId(), userDetails.getTokenVersion())){
                     UsernamePasswordAuthenticationToken authentication = new UsernamePasswordAuthenticationToken(userDetails, null, userDetails.getAuthorities());
                     authentication.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
                     SecurityContextHolder.getContext().setAuthentication(authentication);
                 }
             }
         } catch (Exception e) {
-            e.printStackTrace();
+            // expired and malformed tokens are routine, the request simply stays unauthenticated
+            logger.debug("Rejected bearer token", e);
         }
 
         filterChain.doFilter(request, response);
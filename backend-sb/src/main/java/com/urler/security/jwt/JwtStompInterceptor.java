@@ -0,0 +1,52 @@
+package com.urler.security.jwt;
+
+import com.urler.table.UserDetailsImpl;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
+import lombok.AllArgsConstructor;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.stereotype.Component;
+
+/**
+ * Authenticates STOMP sessions with the same bearer token as the REST API, sent as the Authorization
+ * header of the CONNECT frame (the SockJS handshake itself cannot carry one). The session's user is what
+ * /user/queue/** destinations resolve against. A CONNECT without a valid token is answered with an ERROR frame.
+ * The token is only checked on CONNECT, a session outlives a logout until it disconnects.
+ */
+@Component
+@AllArgsConstructor
+public class JwtStompInterceptor implements ChannelInterceptor {
+
+    private JwtUtils jwtUtils;
+    private TokenRevocationList tokenRevocationList;
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null || !StompCommand.CONNECT.equals(accessor.getCommand())) {
+            return message;
+        }
+        String header = accessor.getFirstNativeHeader("Authorization");
+        if (header == null || !header.startsWith("Bearer ")) {
+            throw new BadCredentialsException("Missing bearer token");
+        }
+        try {
+            Claims claims = jwtUtils.parseClaims(header.substring(7));
+            UserDetailsImpl user = jwtUtils.getPrincipalFromClaims(claims);
+            if (user == null || !tokenRevocationList.isValid(claims.getId(), user.getId(), user.getTokenVersion())) {
+                throw new BadCredentialsException("Revoked or outdated token");
+            }
+            accessor.setUser(new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities()));
+        } catch (JwtException e) {
+            throw new BadCredentialsException("Invalid token", e);
+        }
+        return message;
+    }
+}
@@ -1,27 +1,74 @@
 package com.urler.security.jwt;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 import com.urler.table.UserDetailsImpl;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.io.Decoders;
 import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.AuthorityUtils;
 import org.springframework.stereotype.Component;
 
 import javax.crypto.SecretKey;
-import java.security.Key;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.Date;
+import java.util.UUID;
 import java.util.stream.Collectors;
 
+/**
+ * Issues and verifies the HMAC-signed tokens.
+ * <p>
+ * The key and the parser are built once, both are immutable and thread-safe. Verified tokens are cached by
+ * their SHA-256 digest, so a dashboard polling with the same token skips the base64/JSON decoding and the HMAC
+ * after the first request. An entry never outlives the token's exp claim, and only tokens that passed the
+ * signature check are ever cached, so a tampered token always misses and is verified in full.
+ */
 @Component
 public class JwtUtils {
 
-    @Value("${jwt.secret}")
-    private String jwtSecret;
+    static final String ROLES_CLAIM = "roles";
+    static final String USER_ID_CLAIM = "uid";
+    static final String VERSION_CLAIM = "ver";
 
-    @Value("${jwt.expiration}")
-    private String jwtExpiration;
+    private final SecretKey key;
+    private final JwtParser parser;
+    private final long jwtExpiration;
+    private final Cache<TokenDigest, Claims> verified;
+
+    // SHA-256 of the compact token, as four longs so the cache key holds no copy of the token
+    private record TokenDigest(long a, long b, long c, long d) {
+    }
+
+    public JwtUtils(@Value("${jwt.secret}") String jwtSecret,
+                    @Value("${jwt.expiration}") long jwtExpiration,
+                    @Value("${urler.auth.token-cache.max-size:10000}") long cacheSize,
+                    @Value("${urler.auth.token-cache.ttl:PT5M}") Duration cacheTtl,
+                    MeterRegistry meterRegistry) {
+        this.key = Keys.hmacShaKeyFor(Decoders.BASE64.decode(jwtSecret));
+        this.parser = Jwts.parser().verifyWith(key).build();
+        this.jwtExpiration = jwtExpiration;
+        this.verified = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfter(Expiry.<TokenDigest, Claims>creating((digest, claims) -> {
+                    Duration untilExpiry = Duration.ofMillis(Math.max(0, claims.getExpiration().getTime() - System.currentTimeMillis()));
+                    return untilExpiry.compareTo(cacheTtl) < 0 ? untilExpiry : cacheTtl;
+                }))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, verified, "jwt-claims");
+    }
 
     // pass in token with authorization header -> Bearer <TOKEN> is the format
     public String getJwtFromHeader(HttpServletRequest request) {
@@ -32,20 +79,44 @@ public class JwtUtils {
         return null;
     }
 
-    private Key key() {
-        return Keys.hmacShaKeyFor(Decoders.BASE64.decode(jwtSecret));
+    /**
+     * Verifies the signature and expiry and returns the claims, from the cache if the same token was verified recently.
+     *
+     * @throws io.jsonwebtoken.JwtException if the token is malformed, not signed with our key or expired
+     */
+    public Claims parseClaims(String token) {
+        TokenDigest digest = digest(token);
+        Claims claims = verified.getIfPresent(digest);
+        if (claims != null && claims.getExpiration().getTime() > System.currentTimeMillis()) {
+            return claims;
+        }
+        // not a cache loader: failed verifications must not be cached, and they throw
+        claims = parser.parseSignedClaims(token).getPayload();
+        if (claims.getExpiration() != null) {
+            verified.put(digest, claims);
+        }
+        return claims;
     }
 
-    public String getUsernameFromJwt(String token) {
-        return Jwts.parser()
-                .verifyWith((SecretKey) key())
-                .build()
-                .parseSignedClaims(token)
-                .getPayload()
-                .getSubject();
+    /**
+     * Builds the principal from verified claims alone, without loading the user.
+     * Email and password are not in the token and stay null.
+     *
+     * @return the principal, or null for a token issued before the uid and ver claims existed
+     */
+    public UserDetailsImpl getPrincipalFromClaims(Claims claims) {
+        Long userId = claims.get(USER_ID_CLAIM, Long.class);
+        Long version = claims.get(VERSION_CLAIM, Long.class);
+        String roles = claims.get(ROLES_CLAIM, String.class);
+        if (userId == null || version == null || roles == null) {
+            return null;
+        }
+        UserDetailsImpl principal = new UserDetailsImpl(userId, claims.getSubject(), null, null,
+                AuthorityUtils.commaSeparatedStringToAuthorityList(roles));
+        principal.setTokenVersion(version);
+        return principal;
     }
 
-
     // generating token
     public String generateJwtToken(UserDetailsImpl userDetails) {
         String username = userDetails.getUsername();
@@ -53,21 +124,23 @@ public class JwtUtils {
                 .map(GrantedAuthority::getAuthority) // difference between this and .map(authority -> authority.getAuthority())?
                 .collect(Collectors.joining(","));
         return Jwts.builder()
+                .id(UUID.randomUUID().toString())
                 .subject(username)
-                .claim("roles", role)
+                .claim(ROLES_CLAIM, role)
+                .claim(USER_ID_CLAIM, userDetails.getId())
+                .claim(VERSION_CLAIM, userDetails.getTokenVersion())
                 .issuedAt(new Date())
-                .expiration(new Date(System.currentTimeMillis() + Long.parseLong(jwtExpiration)))
-                .signWith(key())
+                .expiration(new Date(System.currentTimeMillis() + jwtExpiration))
+                .signWith(key)
                 .compact();
     }
 
-    public boolean validateToken(String token) {
+    private static TokenDigest digest(String token) {
         try {
-            Jwts.parser().verifyWith((SecretKey) key())
-                    .build().parseSignedClaims(token);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+            ByteBuffer hash = ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.US_ASCII)));
+            return new TokenDigest(hash.getLong(), hash.getLong(), hash.getLong(), hash.getLong());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JRE has SHA-256
         }
-        return true;
     }
 }
@@ -0,0 +1,107 @@
+package com.urler.security.jwt;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.urler.repository.RevokedTokenRepository;
+import com.urler.repository.UserRepository;
+import com.urler.table.RevokedToken;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.Set;
+
+/**
+ * Decides whether a verified token has been revoked, without a users query per request.
+ * <p>
+ * Two mechanisms, both checked by {@link JwtAuthenticationFilter}:
+ * <ul>
+ *   <li>a deny-list of token ids (the jti claim) from logouts in revoked_tokens, each row purged once its token
+ *       would have expired anyway, so the list only ever holds logged-out tokens that are still within their
+ *       lifetime;</li>
+ *   <li>a version stamp per user. Tokens carry users.token_version as the ver claim, bumping the column
+ *       (role change, {@link #revokeAll(long)}) invalidates every token issued before.</li>
+ * </ul>
+ * A user's current version and denied token ids are loaded together and cached for urler.auth.user-cache.ttl.
+ * The node that bumps a version or serves a logout sees it immediately, every other node within the ttl.
+ */
+@Slf4j
+@Component
+public class TokenRevocationList {
+
+    // version of a user that no longer exists, lower than any token's
+    private static final long DELETED = -1;
+
+    private final UserRepository userRepository;
+    private final RevokedTokenRepository revokedTokenRepository;
+    private final LoadingCache<Long, UserTokens> userTokens;
+
+    // what a token of the user is checked against
+    private record UserTokens(long version, Set<String> denied) {
+    }
+
+    public TokenRevocationList(UserRepository userRepository,
+                               RevokedTokenRepository revokedTokenRepository,
+                               MeterRegistry meterRegistry,
+                               @Value("${urler.auth.user-cache.max-size:100000}") long maxSize,
+                               @Value("${urler.auth.user-cache.ttl:PT30S}") Duration ttl) {
+        this.userRepository = userRepository;
+        this.revokedTokenRepository = revokedTokenRepository;
+        this.userTokens = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build(this::load);
+        CaffeineCacheMetrics.monitor(meterRegistry, userTokens, "user-versions");
+    }
+
+    /**
+     * @return false if the token was logged out, or issued before the user's current version
+     */
+    public boolean isValid(String jti, long userId, long version) {
+        UserTokens tokens = userTokens.get(userId);
+        return version == tokens.version() && (jti == null || !tokens.denied().contains(jti));
+    }
+
+    // a token without an id cannot be denied on its own, its user's tokens are revoked as a whole instead
+    public void deny(String jti, long userId, Date expiresAt) {
+        if (jti == null) {
+            revokeAll(userId);
+        } else if (expiresAt.getTime() > System.currentTimeMillis()) {
+            revokedTokenRepository.save(new RevokedToken(jti, userId, expiresAt.toInstant()));
+            versionChanged(userId);
+        }
+    }
+
+    public void revokeAll(long userId) {
+        userRepository.incrementTokenVersion(userId);
+        versionChanged(userId);
+    }
+
+    // drops the cached version after users.token_version was bumped, so this node enforces it right away
+    public void versionChanged(long userId) {
+        userTokens.invalidate(userId);
+    }
+
+    @Scheduled(fixedDelayString = "${urler.auth.revoked-tokens.purge-interval:PT1H}")
+    public void purgeExpired() {
+        int purged = revokedTokenRepository.deleteExpired(Instant.now());
+        if (purged > 0) {
+            log.info("Purged {} expired revoked tokens", purged);
+        }
+    }
+
+    private UserTokens load(long userId) {
+        long version = userRepository.findTokenVersionById(userId).orElse(DELETED);
+        if (version == DELETED) {
+            return new UserTokens(DELETED, Set.of());
+        }
+        return new UserTokens(version, Set.copyOf(revokedTokenRepository.findLiveJtisByUserId(userId, Instant.now())));
+    }
+}
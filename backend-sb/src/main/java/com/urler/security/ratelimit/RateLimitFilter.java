@@ -0,0 +1,73 @@
+package com.urler.security.ratelimit;
+
+import com.urler.controller.RedirectFastPathFilter;
+import com.urler.table.UserDetailsImpl;
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Answers requests over a route's limit with an empty 429 and a Retry-After in whole seconds, before any
+ * handler, query or response body is involved. Requests that do not belong to the route pass untouched.
+ * <p>
+ * One instance per route, registered in {@link com.urler.config.WebConfig}: the redirect one ahead of the
+ * {@link RedirectFastPathFilter} and keyed by client IP, the shorten one behind Spring Security so the
+ * JWT principal is known and the bucket follows the user rather than the address.
+ * The client IP is the request's remote address, set server.forward-headers-strategy behind a proxy.
+ */
+public class RateLimitFilter implements Filter {
+
+    private final RateLimiter rateLimiter;
+    private final RateLimiter.Route route;
+
+    public RateLimitFilter(RateLimiter rateLimiter, RateLimiter.Route route) {
+        this.rateLimiter = rateLimiter;
+        this.route = route;
+    }
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain) throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) req;
+        if (!matches(request)) {
+            chain.doFilter(req, res);
+            return;
+        }
+        long wait = rateLimiter.tryAcquire(route, client(request));
+        if (wait == 0) {
+            chain.doFilter(req, res);
+            return;
+        }
+        HttpServletResponse response = (HttpServletResponse) res;
+        response.setStatus(429);
+        response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(wait + 999_999_999))));
+        response.setContentLength(0);
+    }
+
+    private boolean matches(HttpServletRequest request) {
+        String uri = request.getRequestURI();
+        return switch (route) {
+            case REDIRECT -> "GET".equals(request.getMethod()) && RedirectFastPathFilter.isShortCodePath(uri);
+            case SHORTEN -> "POST".equals(request.getMethod()) && (uri.equals("/api/urls/shorten") || uri.equals("/api/urls/bulk"));
+        };
+    }
+
+    private String client(HttpServletRequest request) {
+        if (route == RateLimiter.Route.SHORTEN) {
+            Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+            if (authentication != null && authentication.getPrincipal() instanceof UserDetailsImpl user) {
+                return "user:" + user.getId();
+            }
+        }
+        return request.getRemoteAddr();
+    }
+}
@@ -0,0 +1,69 @@
+package com.urler.security.ratelimit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Per-client token buckets for the routes that can exhaust the connection pool.
+ * <p>
+ * Redirects are limited per client IP, shortening (single and bulk) per user. Each route has its own rate and
+ * burst (urler.rate-limit.&lt;route&gt;.rate/burst) and its own {@link TokenBucketStore}. Outcomes are counted
+ * as urler.ratelimit.requests{route, outcome=accepted|rejected}. Full buckets are dropped every
+ * urler.rate-limit.evict-interval, so memory follows the number of clients active within one refill time.
+ * Limits are per node: with n nodes behind a balancer a client gets up to n times the configured rate.
+ */
+@Slf4j
+@Component
+public class RateLimiter {
+
+    public enum Route { REDIRECT, SHORTEN }
+
+    private final Map<Route, TokenBucketStore> stores = new EnumMap<>(Route.class);
+    private final Map<Route, Counter> accepted = new EnumMap<>(Route.class);
+    private final Map<Route, Counter> rejected = new EnumMap<>(Route.class);
+
+    public RateLimiter(MeterRegistry meterRegistry,
+                       @Value("${urler.rate-limit.redirect.rate:100}") double redirectRate,
+                       @Value("${urler.rate-limit.redirect.burst:200}") int redirectBurst,
+                       @Value("${urler.rate-limit.shorten.rate:2}") double shortenRate,
+                       @Value("${urler.rate-limit.shorten.burst:30}") int shortenBurst) {
+        stores.put(Route.REDIRECT, new TokenBucketStore(redirectRate, redirectBurst));
+        stores.put(Route.SHORTEN, new TokenBucketStore(shortenRate, shortenBurst));
+        for (Route route : Route.values()) {
+            String tag = route.name().toLowerCase(Locale.ROOT);
+            accepted.put(route, meterRegistry.counter("urler.ratelimit.requests", "route", tag, "outcome", "accepted"));
+            rejected.put(route, meterRegistry.counter("urler.ratelimit.requests", "route", tag, "outcome", "rejected"));
+            meterRegistry.gauge("urler.ratelimit.buckets", Tags.of("route", tag),
+                    stores.get(route), TokenBucketStore::size);
+        }
+    }
+
+    /**
+     * @param client client IP or user key the bucket belongs to
+     * @return 0 if the request may proceed, otherwise the nanoseconds until the client may retry
+     */
+    public long tryAcquire(Route route, String client) {
+        long wait = stores.get(route).tryAcquire(client, System.nanoTime());
+        (wait == 0 ? accepted : rejected).get(route).increment();
+        return wait;
+    }
+
+    @Scheduled(initialDelayString = "${urler.rate-limit.evict-interval:PT1M}",
+            fixedDelayString = "${urler.rate-limit.evict-interval:PT1M}")
+    public void evictIdle() {
+        long now = System.nanoTime();
+        stores.forEach((route, store) -> {
+            int remaining = store.evictIdle(now);
+            log.debug("{} rate limit buckets of {} still active", remaining, route);
+        });
+    }
+}
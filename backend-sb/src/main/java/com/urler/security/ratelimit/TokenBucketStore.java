@@ -0,0 +1,73 @@
+package com.urler.security.ratelimit;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token buckets of one route, keyed by client, updated with a single compare-and-set and no locks.
+ * <p>
+ * Each bucket is one long: the time at which it will be full again (the "theoretical arrival time" of GCRA,
+ * the one-word form of a token bucket). Taking a token pushes that time one interval further. The request is
+ * refused when it would land more than burst intervals in the future, and the overshoot is exactly how long
+ * the client has to wait. A bucket whose time has passed is full and holds no state worth keeping, so
+ * {@link #evictIdle(long)} can drop it. The buckets live in a ConcurrentHashMap, whose bins are the stripes:
+ * clients in different bins never contend.
+ */
+final class TokenBucketStore {
+
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * @param ratePerSecond tokens added per second
+     * @param burst         bucket capacity, the number of requests a full bucket lets through at once
+     */
+    TokenBucketStore(double ratePerSecond, int burst) {
+        if (ratePerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Rate limits need a positive rate and a burst of at least 1");
+        }
+        this.intervalNanos = Math.max(1, (long) (1_000_000_000L / ratePerSecond));
+        this.burstNanos = intervalNanos * burst;
+    }
+
+    /**
+     * Takes one token from the client's bucket.
+     *
+     * @param now System.nanoTime()
+     * @return 0 if a token was taken, otherwise the nanoseconds until one is available
+     */
+    long tryAcquire(String client, long now) {
+        AtomicLong full = buckets.get(client);
+        if (full == null) {
+            full = buckets.computeIfAbsent(client, c -> new AtomicLong(now));
+        }
+        while (true) {
+            long current = full.get();
+            // nanoTime values are only compared by difference, they may wrap
+            long next = (current - now > 0 ? current : now) + intervalNanos;
+            long wait = next - now - burstNanos;
+            if (wait > 0) {
+                return wait;
+            }
+            if (full.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Drops the buckets that have refilled completely. A request racing with the removal may take its token
+     * from the dropped bucket, which at worst lets that one client through once more.
+     *
+     * @return the number of buckets left
+     */
+    int evictIdle(long now) {
+        buckets.values().removeIf(full -> full.get() - now <= 0);
+        return buckets.size();
+    }
+
+    int size() {
+        return buckets.size();
+    }
+}
@@ -0,0 +1,264 @@
+package com.urler.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.urler.cache.ShortCodeBloomFilter;
+import com.urler.dto.BulkShortenResultDto;
+import com.urler.dto.UrlDto;
+import com.urler.exception.AliasAlreadyExistsException;
+import com.urler.table.Url;
+import com.urler.table.User;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shortens a streamed upload of links, one per line, as NDJSON ({"url":..., "customAlias":...})
+ * or CSV (url[,customAlias], optional header row).
+ * <p>
+ * Lines are read and inserted in chunks of urler.bulk.chunk-size through {@link UrlBatchWriter},
+ * and the results of each chunk are written to the response before the next one is read, so memory
+ * stays bounded by the chunk size whatever the size of the upload. If a chunk is rejected (a taken
+ * custom alias, a value too long for its column) its rows are retried one by one through
+ * {@link UrlService#createShortUrl} so only the offending rows are reported as errors.
+ * <p>
+ * In dedup mode (urler.dedup.enabled) rows whose destination the user already linked, earlier in the
+ * upload or before, are answered with the existing short code.
+ * <p>
+ * Bulk-created links are added to the bloom filter but not to the redirect cache, an import of
+ * tens of thousands of links would otherwise evict the links that are actually being clicked.
+ */
+@Slf4j
+@Service
+public class BulkShortenService {
+
+    public enum Format { NDJSON, CSV }
+
+    private final UrlService urlService;
+    private final UrlBatchWriter urlBatchWriter;
+    private final ShortCodeGenerator shortCodeGenerator;
+    private final ShortCodeBloomFilter shortCodeBloomFilter;
+    private final UrlDeduplicator urlDeduplicator;
+    private final ObjectMapper objectMapper;
+    private final int chunkSize;
+
+    public BulkShortenService(UrlService urlService,
+                              UrlBatchWriter urlBatchWriter,
+                              ShortCodeGenerator shortCodeGenerator,
+                              ShortCodeBloomFilter shortCodeBloomFilter,
+                              UrlDeduplicator urlDeduplicator,
+                              ObjectMapper objectMapper,
+                              @Value("${urler.bulk.chunk-size:500}") int chunkSize) {
+        this.urlService = urlService;
+        this.urlBatchWriter = urlBatchWriter;
+        this.shortCodeGenerator = shortCodeGenerator;
+        this.shortCodeBloomFilter = shortCodeBloomFilter;
+        this.urlDeduplicator = urlDeduplicator;
+        this.objectMapper = objectMapper;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Reads the upload to the end, writing one NDJSON result line per input line.
+     *
+     * @param in     the upload, UTF-8
+     * @param format the upload format
+     * @param user   the owner of every created link
+     * @param out    receives the results, flushed after every chunk
+     * @return the number of links created
+     */
+    public long shorten(InputStream in, Format format, User user, OutputStream out) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        List<Row> chunk = new ArrayList<>(chunkSize);
+        long created = 0;
+        long lineNumber = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank() || (format == Format.CSV && lineNumber == 1 && isCsvHeader(line))) {
+                continue;
+            }
+            chunk.add(parse(lineNumber, line, format));
+            if (chunk.size() == chunkSize) {
+                created += writeChunk(chunk, user, out);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            created += writeChunk(chunk, user, out);
+        }
+        return created;
+    }
+
+    private Row parse(long lineNumber, String line, Format format) {
+        UrlDto dto;
+        try {
+            dto = format == Format.NDJSON ? objectMapper.readValue(line, UrlDto.class) : parseCsv(line);
+        } catch (JsonProcessingException | IllegalArgumentException e) {
+            return new Row(lineNumber, null, "Malformed line");
+        }
+        if (dto.getUrl() == null || dto.getUrl().isBlank()) {
+            return new Row(lineNumber, dto, "url is required");
+        }
+        return new Row(lineNumber, dto, null);
+    }
+
+    private long writeChunk(List<Row> chunk, User user, OutputStream out) throws IOException {
+        List<Url> urls = new ArrayList<>(chunk.size());
+        // destinations already linked in this chunk, only filled in dedup mode
+        Map<Long, Url> chunkUrls = new HashMap<>();
+        for (Row row : chunk) {
+            if (row.error == null && isDuplicate(row, user, chunkUrls)) {
+                row.deduplicated = true;
+                continue;
+            }
+            if (row.error == null) {
+                Url url = newUrl(row.dto, user);
+                if (urlDeduplicator.isEnabled() && !hasAlias(row.dto)) {
+                    chunkUrls.put(url.getUrlHash(), url);
+                }
+                row.shortenedUrl = url.getShortenedUrl();
+                urls.add(url);
+            }
+        }
+
+        long created;
+        try {
+            urlBatchWriter.write(urls);
+            for (Url url : urls) {
+                shortCodeBloomFilter.put(url.getShortenedUrl());
+            }
+            created = urls.size();
+        } catch (DataAccessException e) {
+            log.debug("Bulk chunk rejected, retrying its rows one at a time", e);
+            created = 0;
+            for (Row row : chunk) {
+                // deduplicated rows go through createShortUrl too, their earlier row in this chunk may just have failed
+                if (row.error == null && createOne(row, user) && !row.deduplicated) {
+                    created++;
+                }
+            }
+        }
+
+        for (Row row : chunk) {
+            String url = row.dto == null ? null : row.dto.getUrl();
+            out.write(objectMapper.writeValueAsBytes(new BulkShortenResultDto(row.line, url, row.shortenedUrl, row.error)));
+            out.write('\n');
+        }
+        out.flush();
+        return created;
+    }
+
+    private boolean createOne(Row row, User user) {
+        try {
+            row.shortenedUrl = urlService.createShortUrl(row.dto, user).getShortenedUrl();
+            return true;
+        } catch (AliasAlreadyExistsException e) {
+            row.error = e.getMessage();
+        } catch (DataAccessException e) {
+            row.error = "Could not be saved";
+        }
+        row.shortenedUrl = null;
+        return false;
+    }
+
+    private boolean isDuplicate(Row row, User user, Map<Long, Url> chunkUrls) {
+        if (!urlDeduplicator.isEnabled() || hasAlias(row.dto)) {
+            return false;
+        }
+        Url existing = chunkUrls.get(UrlDeduplicator.hash(row.dto.getUrl()));
+        if (existing == null) {
+            existing = urlDeduplicator.findExisting(row.dto.getUrl(), user);
+        }
+        if (existing == null) {
+            return false;
+        }
+        row.shortenedUrl = existing.getShortenedUrl();
+        return true;
+    }
+
+    private static boolean hasAlias(UrlDto dto) {
+        return dto.getCustomAlias() != null && !dto.getCustomAlias().trim().isEmpty();
+    }
+
+    private Url newUrl(UrlDto dto, User user) {
+        Url url = new Url();
+        url.setUrl(dto.getUrl());
+        url.setUrlHash(UrlDeduplicator.hash(dto.getUrl()));
+        url.setShortenedUrl(hasAlias(dto) ? dto.getCustomAlias() : shortCodeGenerator.next());
+        url.setUser(user);
+        url.setDateCreated(LocalDateTime.now());
+        return url;
+    }
+
+    private static boolean isCsvHeader(String line) {
+        return parseCsv(line).getUrl().trim().equalsIgnoreCase("url");
+    }
+
+    // url[,customAlias], fields may be double-quoted with "" as an escaped quote
+    static UrlDto parseCsv(String line) {
+        List<String> fields = new ArrayList<>(2);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"' && field.isEmpty()) {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quoted field");
+        }
+        fields.add(field.toString());
+        if (fields.size() > 2) {
+            throw new IllegalArgumentException("Expected url[,customAlias]");
+        }
+
+        UrlDto dto = new UrlDto();
+        dto.setUrl(fields.get(0).trim());
+        dto.setCustomAlias(fields.size() > 1 && !fields.get(1).isBlank() ? fields.get(1).trim() : null);
+        return dto;
+    }
+
+    private static final class Row {
+        private final long line;
+        private final UrlDto dto;
+        private String shortenedUrl;
+        private String error;
+        // answered with an existing short code, nothing to insert
+        private boolean deduplicated;
+
+        private Row(long line, UrlDto dto, String error) {
+            this.line = line;
+            this.dto = dto;
+            this.error = error;
+        }
+    }
+}
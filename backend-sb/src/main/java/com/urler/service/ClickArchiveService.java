@@ -0,0 +1,303 @@
+package com.urler.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.Period;
+import java.time.YearMonth;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Moves whole months of raw clicks out of Postgres into compressed {@link ClickSegment} files and serves them back.
+ * <p>
+ * Every urler.clicks.archive.interval, each month partition that ended more than urler.clicks.archive.after
+ * ago is streamed into urler.clicks.archive.path/clicks_yyyy_MM.seg, oldest first, and the partition is dropped
+ * in the same transaction. The hourly and daily rollups are left alone, so only minute analytics, raw exports
+ * and rollup backfills read the segments. Archived months always precede the live ones: archiving stops at the
+ * first month that fails, so readers can visit the segments before querying the table and stay in time order.
+ * <p>
+ * A segment only counts once its partition is gone. A crash between writing the file and committing the drop
+ * leaves a file that is ignored and rewritten by the next run, so clicks are never counted twice or lost.
+ * Every node reads the segments in its own directory, with more than one node the path has to be shared storage.
+ * A node rescans it whenever a reader asks for a month that has a segment file but none loaded, so months archived
+ * by another node are seen as soon as their partition is gone. Readers that must not race the archiving of a month
+ * use {@link #lockSource(YearMonth)}.
+ */
+@Slf4j
+@Service
+public class ClickArchiveService {
+
+    // where the raw clicks of a month are
+    public enum ClickSource {
+        TABLE, ARCHIVE, NONE
+    }
+
+    @FunctionalInterface
+    public interface ClickVisitor {
+        void visit(long urlId, long id, LocalDateTime clickDate) throws IOException;
+    }
+
+    private static final String SUFFIX = ".seg";
+    private static final int FETCH_SIZE = 10_000;
+    // one archiving node at a time, the others skip the run
+    private static final long ADVISORY_LOCK = 0x61726368697665L; // "archive"
+    // rows without a url are never counted by the analytics and are not archived
+    private static final String QUERY = "select url_id, id, click_date from %s where url_id is not null order by url_id, click_date, id";
+
+    private final ClickPartitionManager partitionManager;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final Path directory;
+    private final boolean enabled;
+    private final Period after;
+    private final Period retention;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // replaced as a whole, readers never see a partially updated map
+    private volatile NavigableMap<YearMonth, ClickSegment> segments = Collections.emptyNavigableMap();
+
+    public ClickArchiveService(ClickPartitionManager partitionManager,
+                               DataSource dataSource,
+                               PlatformTransactionManager transactionManager,
+                               @Value("${urler.clicks.archive.path:data/click-segments}") Path directory,
+                               @Value("${urler.clicks.archive.enabled:false}") boolean enabled,
+                               @Value("${urler.clicks.archive.after:P2M}") Period after,
+                               @Value("${urler.clicks.retention:P0D}") Period retention) {
+        this.partitionManager = partitionManager;
+        // own template, the partition is read through a cursor that only works with a fetch size inside a transaction
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(FETCH_SIZE);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.directory = directory;
+        this.enabled = enabled;
+        this.after = after;
+        this.retention = retention;
+    }
+
+    @PostConstruct
+    void open() {
+        try {
+            loadSegments();
+        } catch (Exception e) {
+            log.warn("Could not load click segments from {}", directory, e);
+        }
+    }
+
+    /**
+     * Visits the archived clicks of one url with click_date in [from, to), in time order.
+     */
+    public void forEachClick(long urlId, LocalDateTime from, LocalDateTime to, ClickVisitor visitor) throws IOException {
+        if (!from.isBefore(to)) {
+            return;
+        }
+        refreshIfArchivedElsewhere(YearMonth.from(from), YearMonth.from(to));
+        for (ClickSegment segment : segments.subMap(YearMonth.from(from), true, YearMonth.from(to), true).values()) {
+            segment.forEach(urlId, (url, id, clickDate) -> {
+                if (!clickDate.isBefore(from) && clickDate.isBefore(to)) {
+                    visitor.visit(url, id, clickDate);
+                }
+            });
+        }
+    }
+
+    /**
+     * Visits every archived click of the month, ordered by url id and then time.
+     */
+    public void forEachClick(YearMonth month, ClickVisitor visitor) throws IOException {
+        refreshIfArchivedElsewhere(month, month);
+        ClickSegment segment = segments.get(month);
+        if (segment != null) {
+            segment.forEach(visitor);
+        }
+    }
+
+    public boolean isArchived(YearMonth month) {
+        return segments.containsKey(month);
+    }
+
+    /**
+     * Finds the raw clicks of a month for a reader in a transaction. Until the transaction ends the month cannot
+     * be archived, so clicks found in the table stay there.
+     *
+     * @return NONE if the month has neither a partition nor a segment, e.g. its partition was dropped past the
+     *         retention, so whatever was derived from its clicks cannot be rebuilt
+     */
+    public ClickSource lockSource(YearMonth month) throws IOException {
+        // shared between readers, archiving takes it exclusively and skips the run while a reader holds it
+        jdbcTemplate.query("select pg_advisory_xact_lock_shared(?)", rs -> {
+        }, ADVISORY_LOCK);
+        if (partitionManager.holdsMonth(month)) {
+            return ClickSource.TABLE;
+        }
+        refreshIfArchivedElsewhere(month, month);
+        return segments.containsKey(month) ? ClickSource.ARCHIVE : ClickSource.NONE;
+    }
+
+    /**
+     * @return the oldest archived month, or null if nothing is archived
+     */
+    public YearMonth oldestMonth() throws IOException {
+        loadSegments();
+        NavigableMap<YearMonth, ClickSegment> current = segments;
+        return current.isEmpty() ? null : current.firstKey();
+    }
+
+    @Scheduled(initialDelayString = "${urler.clicks.archive.interval:PT6H}",
+            fixedDelayString = "${urler.clicks.archive.interval:PT6H}")
+    public void compact() {
+        if (!enabled || !lock.tryLock()) {
+            return;
+        }
+        try {
+            Files.createDirectories(directory);
+            loadSegments();
+            deleteExpired();
+            // the previous month can still receive a batch written just after midnight on the 1st
+            YearMonth current = YearMonth.now();
+            LocalDate cutoff = current.atDay(1).minus(after);
+            if (cutoff.isAfter(current.minusMonths(1).atDay(1))) {
+                cutoff = current.minusMonths(1).atDay(1);
+            }
+            for (YearMonth month : partitionManager.partitionMonths()) {
+                if (month.plusMonths(1).atDay(1).isAfter(cutoff) || !archive(month)) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Click archiving failed", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean archive(YearMonth month) throws IOException {
+        String partition = ClickPartitionManager.partitionName(month);
+        Path target = segmentPath(month);
+        Path temp = Files.createTempFile(directory, partition, ".tmp");
+        try {
+            Long archived = transactionTemplate.execute(status -> {
+                if (!Boolean.TRUE.equals(jdbcTemplate.queryForObject("select pg_try_advisory_xact_lock(?)", Boolean.class, ADVISORY_LOCK))) {
+                    return null;
+                }
+                long clicks;
+                try (ClickSegment.Writer writer = new ClickSegment.Writer(temp)) {
+                    jdbcTemplate.query(QUERY.formatted(partition), rs -> {
+                        try {
+                            writer.add(rs.getLong(1), rs.getLong(2), rs.getTimestamp(3).toLocalDateTime());
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                    writer.finish();
+                    clicks = writer.getClickCount();
+                    Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                // dropping a partition locks the parent table, give up rather than stall click inserts behind a long reader
+                jdbcTemplate.execute("SET LOCAL lock_timeout = '5s'");
+                jdbcTemplate.execute("DROP TABLE " + partition);
+                return clicks;
+            });
+            if (archived == null) {
+                return false;
+            }
+            register(ClickSegment.open(target, month));
+            log.info("Archived {} clicks of {} to {}", archived, month, target);
+            return true;
+        } catch (DataAccessException | UncheckedIOException e) {
+            log.warn("Could not archive clicks of {}, will retry on the next run", month, e);
+            return false;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // another node may have archived a month since the last scan, its segment then shows up in the shared directory
+    private void refreshIfArchivedElsewhere(YearMonth first, YearMonth last) throws IOException {
+        NavigableMap<YearMonth, ClickSegment> current = segments;
+        YearMonth lastArchivable = YearMonth.now().minusMonths(1);
+        for (YearMonth month = first; !month.isAfter(last) && !month.isAfter(lastArchivable); month = month.plusMonths(1)) {
+            if (!current.containsKey(month) && Files.exists(segmentPath(month))) {
+                loadSegments();
+                return;
+            }
+        }
+    }
+
+    // synchronized with register and deleteExpired, readers may rescan while compact runs
+    private synchronized void loadSegments() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        NavigableMap<YearMonth, ClickSegment> loaded = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                YearMonth month = ClickPartitionManager.parsePartitionName(name.substring(0, name.length() - SUFFIX.length()));
+                if (month == null) {
+                    continue;
+                }
+                ClickSegment existing = segments.get(month);
+                if (existing != null) {
+                    loaded.put(month, existing);
+                } else if (!partitionExists(month)) {
+                    loaded.put(month, ClickSegment.open(file, month));
+                }
+            }
+        }
+        segments = Collections.unmodifiableNavigableMap(loaded);
+    }
+
+    private synchronized void deleteExpired() throws IOException {
+        if (retention.isZero()) {
+            return;
+        }
+        LocalDate cutoff = YearMonth.now().atDay(1).minus(retention);
+        List<ClickSegment> expired = segments.values().stream()
+                .filter(segment -> !segment.getMonth().plusMonths(1).atDay(1).isAfter(cutoff))
+                .toList();
+        for (ClickSegment segment : expired) {
+            NavigableMap<YearMonth, ClickSegment> remaining = new TreeMap<>(segments);
+            remaining.remove(segment.getMonth());
+            segments = Collections.unmodifiableNavigableMap(remaining);
+            Files.deleteIfExists(segment.getPath());
+            log.info("Deleted click segment {} past the {} retention", segment.getPath(), retention);
+        }
+    }
+
+    private synchronized void register(ClickSegment segment) {
+        NavigableMap<YearMonth, ClickSegment> updated = new TreeMap<>(segments);
+        updated.put(segment.getMonth(), segment);
+        segments = Collections.unmodifiableNavigableMap(updated);
+    }
+
+    private boolean partitionExists(YearMonth month) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                "select to_regclass(?) is not null", Boolean.class, ClickPartitionManager.partitionName(month)));
+    }
+
+    private Path segmentPath(YearMonth month) {
+        return directory.resolve(ClickPartitionManager.partitionName(month) + SUFFIX);
+    }
+}
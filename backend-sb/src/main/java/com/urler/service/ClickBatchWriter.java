@@ -0,0 +1,43 @@
+package com.urler.service;
+
+import com.urler.dto.ClickEvent;
+import com.urler.repository.ClicksRepository;
+import com.urler.repository.UrlRepository;
+import com.urler.table.Clicks;
+import lombok.AllArgsConstructor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// writes one drained batch of click events in a single transaction, called from the ClickIngestionService writer thread
+@Service
+@AllArgsConstructor
+public class ClickBatchWriter {
+
+    private UrlRepository urlRepository;
+    private ClicksRepository clicksRepository;
+    private ClickRollupService clickRollupService;
+
+    /**
+     * Inserts a Clicks row per event, batched by Hibernate through hibernate.jdbc.batch_size.
+     * The hourly and daily rollups are updated in the same transaction.
+     * The Url.clicks counters are maintained separately by {@link ClickCounterService}.
+     *
+     * @param events the events to persist
+     */
+    @Transactional
+    public void write(List<ClickEvent> events) {
+        List<Clicks> rows = new ArrayList<>(events.size());
+        for (ClickEvent event : events) {
+            Clicks clicks = new Clicks();
+            clicks.setClickDate(event.getClickDate());
+            // only the foreign key is needed so no select is issued for the Url
+            clicks.setUrl(urlRepository.getReferenceById(event.getUrlId()));
+            rows.add(clicks);
+        }
+        clicksRepository.saveAll(rows);
+        clickRollupService.add(events);
+    }
+}
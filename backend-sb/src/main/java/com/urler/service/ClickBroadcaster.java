@@ -0,0 +1,158 @@
+package com.urler.service;
+
+import com.urler.dto.ClickEventMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces click notifications into one STOMP message per user and urler.clicks.broadcast-interval.
+ * <p>
+ * Redirects only bump a {@link LongAdder}. Every tick a dedicated thread builds one {@link ClickEventMessage}
+ * per URL clicked since the previous tick, carrying the new total and the delta, and sends each owner a single
+ * array of the updates for their links on /user/queue/clicks. Owners without a connected session are skipped
+ * before anything is serialized, unless a {@link ClusterRelay} forwards the batches to the other nodes,
+ * where those owners may be connected. Request threads never serialize or send anything, and a user with thousands of
+ * links holds one subscription per session instead of one per link, so the broker's work grows with the number
+ * of sessions rather than subscriptions. {@link ClickSessionOutbox} conflates the batches of sessions that fall behind.
+ * <p>
+ * Totals are anchored by {@link ClickCounterService}: after every counter flush it passes the persisted total
+ * plus the clicks still pending, and clicks counted here since then are added on top. A URL is first published
+ * once it has an anchor, at most one counter flush after its first click. Totals sent never go down.
+ */
+@Slf4j
+@Service
+public class ClickBroadcaster {
+
+    // ticks without a click after which a URL's state is dropped, it is re-anchored by the next flush
+    private static final int IDLE_TICKS = 240;
+
+    private final ClickSessionOutbox outbox;
+    private final ClusterRelay clusterRelay;
+    private final Duration interval;
+    private final ConcurrentHashMap<Long, Stream> streams = new ConcurrentHashMap<>();
+    private final Counter sent;
+    private ScheduledExecutorService scheduler;
+
+    private static final class Stream {
+        // clicks since the previous message
+        final LongAdder delta = new LongAdder();
+        // clicks since the anchor was set
+        final LongAdder sinceAnchor = new LongAdder();
+        volatile long anchor = -1;
+        volatile String owner;
+        // tick thread only
+        long lastTotal;
+        int idleTicks;
+    }
+
+    public ClickBroadcaster(ClickSessionOutbox outbox,
+                            MeterRegistry meterRegistry,
+                            Optional<ClusterRelay> clusterRelay,
+                            @Value("${urler.clicks.broadcast-interval:PT0.25S}") Duration interval) {
+        this.outbox = outbox;
+        this.clusterRelay = clusterRelay.orElse(null);
+        this.interval = interval;
+        this.sent = meterRegistry.counter("urler.clicks.broadcasts");
+        meterRegistry.gauge("urler.clicks.broadcast.streams", streams, Map::size);
+    }
+
+    @PostConstruct
+    void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "click-broadcast");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long nanos = interval.toNanos();
+        scheduler.scheduleWithFixedDelay(this::tickSafely, nanos, nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        scheduler.shutdownNow();
+    }
+
+    public void clicked(Long urlId) {
+        Stream stream = streams.get(urlId);
+        if (stream == null) {
+            stream = streams.computeIfAbsent(urlId, id -> new Stream());
+        }
+        stream.sinceAnchor.increment();
+        stream.delta.increment();
+    }
+
+    /**
+     * Sets the URL's owner and total as of now, called after its counter was flushed.
+     * Clicks racing with the call may be missed until the next anchor, never counted twice.
+     */
+    public void anchor(Long urlId, String owner, long total) {
+        Stream stream = streams.get(urlId);
+        if (stream != null) {
+            stream.owner = owner;
+            stream.sinceAnchor.reset();
+            stream.anchor = total;
+        }
+    }
+
+    private void tickSafely() {
+        try {
+            tick();
+        } catch (Exception e) {
+            log.warn("Failed to broadcast click totals", e);
+        }
+    }
+
+    void tick() {
+        outbox.flush();
+        LocalDateTime now = LocalDateTime.now();
+        Map<String, List<ClickEventMessage>> byOwner = new HashMap<>();
+        for (Map.Entry<Long, Stream> entry : streams.entrySet()) {
+            Long urlId = entry.getKey();
+            Stream stream = entry.getValue();
+            long anchor = stream.anchor;
+            long delta = anchor < 0 ? 0 : stream.delta.sumThenReset();
+            if (delta == 0) {
+                // also drops URLs that never got an anchor, e.g. deleted ones
+                if (++stream.idleTicks >= IDLE_TICKS) {
+                    // a click racing the removal can be left out of the next delta, the total is corrected by the next anchor
+                    streams.remove(urlId, stream);
+                }
+                continue;
+            }
+            stream.idleTicks = 0;
+            long total = Math.max(anchor + stream.sinceAnchor.sum(), stream.lastTotal);
+            stream.lastTotal = total;
+            String owner = stream.owner;
+            if (owner != null && (clusterRelay != null || outbox.isConnected(owner))) {
+                byOwner.computeIfAbsent(owner, o -> new ArrayList<>()).add(new ClickEventMessage(urlId, total, delta, now));
+            }
+        }
+        byOwner.forEach((owner, updates) -> {
+            if (outbox.isConnected(owner)) {
+                outbox.send(owner, updates);
+                sent.increment();
+            }
+        });
+        if (clusterRelay != null && !byOwner.isEmpty()) {
+            clusterRelay.publish(now, byOwner);
+        }
+    }
+}
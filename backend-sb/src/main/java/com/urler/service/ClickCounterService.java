@@ -0,0 +1,142 @@
+package com.urler.service;
+
+import com.urler.repository.UrlClicks;
+import com.urler.repository.UrlRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-memory Url.clicks counters.
+ * Redirects bump a per-URL {@link LongAdder}, which stripes contended increments across cells
+ * instead of serialising them on one row lock. A scheduled flush turns every non-zero counter into a single
+ * {@code UPDATE url SET clicks = clicks + :delta} and then hands the new totals to the {@link ClickBroadcaster},
+ * which publishes them.
+ * <p>
+ * A counter still at zero one flush after it was last drained is evicted. A redirect may already hold it and add
+ * to it after the flush drained it for the last time, so an evicted counter is marked retired first: whoever adds to
+ * a retired counter moves what it still holds to the URL's live counter.
+ */
+@Slf4j
+@Service
+public class ClickCounterService {
+
+    private final UrlRepository urlRepository;
+    private final ClickBroadcaster clickBroadcaster;
+    private final ConcurrentHashMap<Long, Counter> pending = new ConcurrentHashMap<>();
+    // counters that were zero on the previous flush, evicted if still zero on the next one
+    private final Map<Long, Counter> idle = new ConcurrentHashMap<>();
+    // the scheduled flush and the final flush on shutdown may overlap
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    private static final class Counter extends LongAdder {
+        // set before the counter leaves pending, never reset
+        private volatile boolean retired;
+    }
+
+    public ClickCounterService(UrlRepository urlRepository,
+                               ClickBroadcaster clickBroadcaster,
+                               MeterRegistry meterRegistry) {
+        this.urlRepository = urlRepository;
+        this.clickBroadcaster = clickBroadcaster;
+        meterRegistry.gauge("urler.clicks.counters", pending, Map::size);
+    }
+
+    public void increment(Long urlId) {
+        clickBroadcaster.clicked(urlId);
+        add(urlId, 1);
+    }
+
+    private void add(Long urlId, long clicks) {
+        while (clicks != 0) {
+            Counter counter = pending.get(urlId);
+            if (counter == null) {
+                counter = pending.computeIfAbsent(urlId, id -> new Counter());
+            }
+            counter.add(clicks);
+            // the eviction may have drained it before this landed, every unit is taken by exactly one sumThenReset
+            clicks = counter.retired ? counter.sumThenReset() : 0;
+        }
+    }
+
+    /**
+     * @return clicks recorded for the URL since its last flush
+     */
+    public long getPending(Long urlId) {
+        Counter counter = pending.get(urlId);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    @Scheduled(fixedDelayString = "${urler.clicks.counter-flush-interval:PT1S}")
+    public void flush() {
+        List<Long> flushed = new ArrayList<>();
+        flushLock.lock();
+        try {
+            flushCounters(flushed);
+        } finally {
+            flushLock.unlock();
+        }
+        anchor(flushed);
+    }
+
+    private void flushCounters(List<Long> flushed) {
+        for (Map.Entry<Long, Counter> entry : pending.entrySet()) {
+            Long urlId = entry.getKey();
+            Counter counter = entry.getValue();
+            long delta = counter.sumThenReset();
+            if (delta == 0) {
+                evictIfIdle(urlId, counter);
+                continue;
+            }
+            idle.remove(urlId);
+            try {
+                urlRepository.addClicks(urlId, delta);
+                flushed.add(urlId);
+            } catch (Exception e) {
+                // keep the delta for the next flush rather than losing it
+                counter.add(delta);
+                log.warn("Failed to flush {} clicks for url {}", delta, urlId, e);
+            }
+        }
+    }
+
+    // a counter is only dropped after a full interval without clicks
+    private void evictIfIdle(Long urlId, Counter counter) {
+        if (!idle.remove(urlId, counter)) {
+            idle.put(urlId, counter);
+            return;
+        }
+        // retired before the drain below: an add that lands after it sees the flag and moves its clicks itself
+        counter.retired = true;
+        pending.remove(urlId, counter);
+        add(urlId, counter.sumThenReset());
+    }
+
+    // persisted totals plus what was clicked since the flush took its deltas
+    private void anchor(List<Long> urlIds) {
+        if (urlIds.isEmpty()) {
+            return;
+        }
+        try {
+            for (UrlClicks total : urlRepository.findClicksByIdIn(urlIds)) {
+                clickBroadcaster.anchor(total.getId(), total.getUsername(), total.getClicks() + getPending(total.getId()));
+            }
+        } catch (Exception e) {
+            log.warn("Failed to read back click totals", e);
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        flush();
+    }
+}
@@ -0,0 +1,124 @@
+package com.urler.service;
+
+import com.urler.exception.ResourceNotFoundException;
+import com.urler.repository.UrlRepository;
+import com.urler.table.Url;
+import com.urler.table.User;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+
+/**
+ * Streams the raw clicks of one link as NDJSON or CSV.
+ * <p>
+ * Rows are read through a forward-only cursor: the Postgres driver only honours the fetch size inside a
+ * transaction, so the query runs in a read-only one with urler.export.fetch-size rows per round trip, and
+ * each row is written to the response as it is read. Heap use is constant however many rows are exported.
+ * The connection is held for the duration of the export. Clicks of months moved to segment files by
+ * {@link ClickArchiveService} are written first, archived months always precede the live ones.
+ */
+@Service
+public class ClickExportService {
+
+    public enum Format { NDJSON, CSV }
+
+    private static final String QUERY =
+            "select id, click_date from clicks where url_id = ? and click_date >= ? and click_date < ? order by click_date, id";
+
+    private final UrlRepository urlRepository;
+    private final ClickArchiveService clickArchiveService;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    public ClickExportService(UrlRepository urlRepository,
+                              ClickArchiveService clickArchiveService,
+                              DataSource dataSource,
+                              PlatformTransactionManager transactionManager,
+                              @Value("${urler.export.fetch-size:1000}") int fetchSize) {
+        this.urlRepository = urlRepository;
+        this.clickArchiveService = clickArchiveService;
+        // own template, the fetch size must not apply to every other query
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(fetchSize);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    /**
+     * Checks that the link exists and belongs to the user. Called before the response is committed
+     * so a failure can still produce an error response.
+     */
+    public Url findOwnedUrl(String shortenedUrl, User user) {
+        Url url = urlRepository.findByShortenedUrl(shortenedUrl);
+        if (url == null) {
+            throw new ResourceNotFoundException("URL '" + shortenedUrl + "' not found.");
+        }
+        if (!url.getUser().getId().equals(user.getId())) {
+            throw new AccessDeniedException("URL '" + shortenedUrl + "' belongs to another user.");
+        }
+        return url;
+    }
+
+    /**
+     * Writes the link's clicks with click_date in [start, end) in time order.
+     *
+     * @return the number of rows written
+     */
+    public long export(Url url, LocalDateTime start, LocalDateTime end, Format format, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+        if (format == Format.CSV) {
+            writer.write("id,clickDate\n");
+        }
+        long[] rows = {0};
+        clickArchiveService.forEachClick(url.getId(), start, end, (urlId, id, clickDate) -> {
+            writeRow(writer, format, id, clickDate);
+            rows[0]++;
+        });
+        try {
+            transactionTemplate.executeWithoutResult(status -> jdbcTemplate.query(QUERY, rs -> {
+                try {
+                    writeRow(writer, format, rs.getLong(1), rs.getTimestamp(2).toLocalDateTime());
+                } catch (IOException e) {
+                    // client went away, abandon the cursor
+                    throw new UncheckedIOException(e);
+                }
+                rows[0]++;
+            }, url.getId(), Timestamp.valueOf(start), Timestamp.valueOf(end)));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        writer.flush();
+        return rows[0];
+    }
+
+    static void writeRow(Writer writer, Format format, long id, LocalDateTime clickDate) throws IOException {
+        // ids and ISO timestamps need no quoting or escaping in either format
+        String time = clickDate.toString();
+        if (format == Format.CSV) {
+            writer.write(Long.toString(id));
+            writer.write(',');
+            writer.write(time);
+            writer.write('\n');
+        } else {
+            writer.write("{\"id\":");
+            writer.write(Long.toString(id));
+            writer.write(",\"clickDate\":\"");
+            writer.write(time);
+            writer.write("\"}\n");
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.urler.service;
+
+import com.urler.dto.ClickEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind pipeline for raw click events (Clicks rows).
+ * The redirect path only enqueues into a bounded queue; a single writer thread drains it
+ * and hands batches to {@link ClickBatchWriter}. A batch is flushed once it reaches
+ * urler.clicks.batch-size events or urler.clicks.flush-interval has passed since its first event.
+ * A batch that fails to write (e.g. Postgres is down) is retried with exponential backoff while
+ * the queue keeps buffering new clicks; only once the queue is full are clicks dropped.
+ * On shutdown the writer stops taking new work and drains whatever is still queued.
+ */
+@Slf4j
+@Service
+public class ClickIngestionService {
+
+    private static final long MIN_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 10_000;
+
+    private final ClickBatchWriter clickBatchWriter;
+    private final BlockingQueue<ClickEvent> queue;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final Counter droppedCounter;
+    private final Counter writtenCounter;
+
+    private volatile boolean running = true;
+    private Thread writer;
+
+    public ClickIngestionService(ClickBatchWriter clickBatchWriter,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${urler.clicks.queue-capacity:100000}") int queueCapacity,
+                                 @Value("${urler.clicks.batch-size:500}") int batchSize,
+                                 @Value("${urler.clicks.flush-interval:PT1S}") Duration flushInterval) {
+        this.clickBatchWriter = clickBatchWriter;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.droppedCounter = meterRegistry.counter("urler.clicks.dropped");
+        this.writtenCounter = meterRegistry.counter("urler.clicks.written");
+        meterRegistry.gauge("urler.clicks.queue.depth", queue, BlockingQueue::size);
+    }
+
+    @PostConstruct
+    void start() {
+        writer = new Thread(this::runWriter, "click-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Enqueues a click without blocking the caller.
+     * If the queue is full the event is dropped and counted in urler.clicks.dropped.
+     *
+     * @return true if the event was queued
+     */
+    public boolean record(Long urlId, LocalDateTime clickDate) {
+        boolean queued = running && queue.offer(new ClickEvent(urlId, clickDate));
+        if (!queued) {
+            droppedCounter.increment();
+        }
+        return queued;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    private void runWriter() {
+        List<ClickEvent> batch = new ArrayList<>(batchSize);
+        long backoffMillis = MIN_BACKOFF_MILLIS;
+        while (running || !queue.isEmpty()) {
+            try {
+                if (batch.isEmpty()) {
+                    fillBatch(batch);
+                }
+                if (batch.isEmpty() || flush(batch)) {
+                    batch.clear();
+                    backoffMillis = MIN_BACKOFF_MILLIS;
+                } else if (running) {
+                    // database unavailable: keep the batch and let the queue buffer new clicks until it recovers
+                    Thread.sleep(backoffMillis);
+                    backoffMillis = Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
+                } else {
+                    // shutting down with the database still unavailable, this batch had its last attempt
+                    droppedCounter.increment(batch.size());
+                    batch.clear();
+                    break;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        drainRemaining(batch);
+    }
+
+    // blocks until the first event arrives, then collects more until the batch is full or the interval ran out
+    private void fillBatch(List<ClickEvent> batch) throws InterruptedException {
+        ClickEvent first = queue.poll(flushIntervalNanos, TimeUnit.NANOSECONDS);
+        if (first == null) {
+            return;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + flushIntervalNanos;
+        while (batch.size() < batchSize) {
+            if (queue.drainTo(batch, batchSize - batch.size()) > 0) {
+                continue;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+            ClickEvent next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    // shutting down: one attempt per batch, whatever cannot be written now is dropped
+    private void drainRemaining(List<ClickEvent> batch) {
+        while (true) {
+            queue.drainTo(batch, batchSize - batch.size());
+            if (batch.isEmpty()) {
+                return;
+            }
+            if (!flush(batch)) {
+                droppedCounter.increment(batch.size());
+            }
+            batch.clear();
+        }
+    }
+
+    private boolean flush(List<ClickEvent> batch) {
+        try {
+            clickBatchWriter.write(batch);
+            writtenCounter.increment(batch.size());
+            return true;
+        } catch (Exception e) {
+            log.error("Failed to write batch of {} click events, {} more queued", batch.size(), queue.size(), e);
+            return false;
+        }
+    }
+
+    // not interrupting the writer: it notices the flag within one flush interval and an
+    // interrupt could abort a JDBC call halfway through a batch
+    @PreDestroy
+    void stop() throws InterruptedException {
+        running = false;
+        if (writer != null) {
+            writer.join(TimeUnit.NANOSECONDS.toMillis(flushIntervalNanos) + TimeUnit.SECONDS.toMillis(30));
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.urler.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.Period;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Keeps the clicks table range-partitioned by month on click_date.
+ * <p>
+ * Hibernate's ddl-auto=update can only create a plain table, so the first startup after this change
+ * converts it in one transaction: the plain table is renamed, a partitioned clicks table with the same
+ * columns is created, and the existing rows are copied into monthly partitions. Every partition gets
+ * the (url_id, click_date) index through the parent, and range queries only scan the months they cover.
+ * The foreign key to url is owned here as well, {@link com.urler.table.Clicks} tells Hibernate not to create it
+ * because it does not read constraints of a partitioned table and would try to add it again on every startup.
+ * <p>
+ * Every urler.clicks.partitions.maintenance-interval the next urler.clicks.partitions.ahead months are
+ * created, and with a non-zero urler.clicks.retention whole months older than the retention are dropped
+ * instead of deleting their rows.
+ * <p>
+ * Partitions are named clicks_yyyy_MM and cover [first of the month, first of the next month).
+ * There is no default partition, rows are only ever written for the current month.
+ */
+@Slf4j
+@Component
+public class ClickPartitionManager {
+
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("yyyy_MM");
+    private static final String PARTITION_PREFIX = "clicks_";
+    // serializes conversion and maintenance across nodes starting at the same time
+    private static final long ADVISORY_LOCK = 0x636c69636b73L; // "clicks"
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int monthsAhead;
+    private final Period retention;
+
+    // the EntityManagerFactory dependency makes this run after Hibernate's schema update has created the table
+    public ClickPartitionManager(JdbcTemplate jdbcTemplate,
+                                 TransactionTemplate transactionTemplate,
+                                 EntityManagerFactory entityManagerFactory,
+                                 @Value("${urler.clicks.partitions.enabled:true}") boolean enabled,
+                                 @Value("${urler.clicks.partitions.ahead:3}") int monthsAhead,
+                                 @Value("${urler.clicks.retention:P0D}") Period retention) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.enabled = enabled;
+        this.monthsAhead = monthsAhead;
+        this.retention = retention;
+    }
+
+    @PostConstruct
+    void init() {
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.queryForObject("select pg_advisory_xact_lock(?)", Object.class, ADVISORY_LOCK);
+            if (enabled && !isPartitioned()) {
+                convert();
+            }
+            addUrlForeignKey();
+            if (enabled) {
+                jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS clicks_url_id_click_date_idx ON clicks (url_id, click_date)");
+            }
+        });
+        maintain();
+    }
+
+    @Scheduled(initialDelayString = "${urler.clicks.partitions.maintenance-interval:PT6H}",
+            fixedDelayString = "${urler.clicks.partitions.maintenance-interval:PT6H}")
+    public void maintain() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                jdbcTemplate.queryForObject("select pg_advisory_xact_lock(?)", Object.class, ADVISORY_LOCK);
+                YearMonth now = YearMonth.now();
+                for (int i = 0; i <= monthsAhead; i++) {
+                    createPartition(now.plusMonths(i));
+                }
+                dropExpired(now);
+            });
+        } catch (Exception e) {
+            log.warn("Clicks partition maintenance failed", e);
+        }
+    }
+
+    private boolean isPartitioned() {
+        String kind = jdbcTemplate.queryForObject(
+                "select c.relkind::text from pg_class c where c.oid = to_regclass('clicks')", String.class);
+        return "p".equals(kind);
+    }
+
+    private void convert() {
+        String primaryKey = jdbcTemplate.queryForObject(
+                "select conname from pg_constraint where conrelid = 'clicks'::regclass and contype = 'p'", String.class);
+        // existing foreign keys (databases created before Hibernate stopped adding one) are carried over as they are
+        List<Map<String, Object>> foreignKeys = jdbcTemplate.queryForList(
+                "select conname, pg_get_constraintdef(oid) as def from pg_constraint where conrelid = 'clicks'::regclass and contype = 'f'");
+        jdbcTemplate.execute("ALTER TABLE clicks RENAME TO clicks_unpartitioned");
+        // frees the clicks_pkey index name for the new table
+        jdbcTemplate.execute("ALTER TABLE clicks_unpartitioned DROP CONSTRAINT " + primaryKey);
+        // the partition key has to be part of the primary key
+        jdbcTemplate.execute("""
+                CREATE TABLE clicks (
+                    id bigint NOT NULL,
+                    click_date timestamp(6) NOT NULL,
+                    url_id bigint,
+                    PRIMARY KEY (id, click_date)
+                ) PARTITION BY RANGE (click_date)""");
+
+        Timestamp oldest = jdbcTemplate.queryForObject("select min(click_date) from clicks_unpartitioned", Timestamp.class);
+        if (oldest != null) {
+            YearMonth current = YearMonth.now();
+            for (YearMonth month = YearMonth.from(oldest.toLocalDateTime()); !month.isAfter(current); month = month.plusMonths(1)) {
+                createPartition(month);
+            }
+        }
+        // rows without a click_date cannot be placed in a partition and were never counted by the analytics
+        int copied = jdbcTemplate.update("""
+                INSERT INTO clicks (id, click_date, url_id)
+                SELECT id, click_date, url_id FROM clicks_unpartitioned WHERE click_date IS NOT NULL""");
+        jdbcTemplate.execute("DROP TABLE clicks_unpartitioned");
+        // added after the copy so existing rows are validated in one pass
+        for (Map<String, Object> foreignKey : foreignKeys) {
+            jdbcTemplate.execute("ALTER TABLE clicks ADD CONSTRAINT " + foreignKey.get("conname") + " " + foreignKey.get("def"));
+        }
+        log.info("Converted clicks to monthly partitions, {} rows copied", copied);
+    }
+
+    // unless clicks already has one, e.g. the key Hibernate created before Clicks.url opted out of it
+    private void addUrlForeignKey() {
+        Integer foreignKeys = jdbcTemplate.queryForObject(
+                "select count(*) from pg_constraint where conrelid = 'clicks'::regclass and contype = 'f'", Integer.class);
+        if (foreignKeys != null && foreignKeys == 0) {
+            jdbcTemplate.execute("ALTER TABLE clicks ADD CONSTRAINT clicks_url_id_fkey FOREIGN KEY (url_id) REFERENCES url (id)");
+        }
+    }
+
+    private void createPartition(YearMonth month) {
+        LocalDate from = month.atDay(1);
+        LocalDate to = month.plusMonths(1).atDay(1);
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + partitionName(month)
+                + " PARTITION OF clicks FOR VALUES FROM ('" + from + "') TO ('" + to + "')");
+    }
+
+    private void dropExpired(YearMonth now) {
+        if (retention.isZero()) {
+            return;
+        }
+        LocalDate cutoff = now.atDay(1).minus(retention);
+        for (YearMonth month : partitionMonths()) {
+            // only whole months that ended before the cutoff
+            if (!month.plusMonths(1).atDay(1).isAfter(cutoff)) {
+                String partition = partitionName(month);
+                jdbcTemplate.execute("DROP TABLE " + partition);
+                log.info("Dropped clicks partition {} past the {} retention", partition, retention);
+            }
+        }
+    }
+
+    /**
+     * @return whether the clicks table holds the month: it is not partitioned, or the month has a partition
+     */
+    boolean holdsMonth(YearMonth month) {
+        return !isPartitioned() || Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                "select to_regclass(?) is not null", Boolean.class, partitionName(month)));
+    }
+
+    /**
+     * @return the months that currently have a partition, oldest first
+     */
+    List<YearMonth> partitionMonths() {
+        List<String> partitions = jdbcTemplate.queryForList("""
+                select c.relname from pg_inherits i join pg_class c on c.oid = i.inhrelid
+                where i.inhparent = 'clicks'::regclass""", String.class);
+        return partitions.stream()
+                .map(ClickPartitionManager::parsePartitionName)
+                .filter(Objects::nonNull)
+                .sorted()
+                .toList();
+    }
+
+    static String partitionName(YearMonth month) {
+        return PARTITION_PREFIX + month.format(PARTITION_SUFFIX);
+    }
+
+    static YearMonth parsePartitionName(String name) {
+        if (!name.startsWith(PARTITION_PREFIX)) {
+            return null;
+        }
+        try {
+            return YearMonth.parse(name.substring(PARTITION_PREFIX.length()), PARTITION_SUFFIX);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,401 @@
+package com.urler.service;
+
+import com.urler.dto.ClickEvent;
+import com.urler.repository.BucketClicks;
+import com.urler.repository.ClickRollupRepository;
+import com.urler.repository.ClicksRepository;
+import com.urler.repository.DailyClicks;
+import com.urler.table.ClickRollupDaily;
+import com.urler.table.ClickRollupHourly;
+import com.urler.table.User;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Maintains per-url hourly and daily click rollups and answers the analytics queries from them,
+ * aggregated in SQL, so their cost depends on the number of buckets in the range rather than the number of clicks.
+ * <p>
+ * {@link ClickBatchWriter} calls {@link #add(List)} in the same transaction that inserts the Clicks rows,
+ * so the rollups never disagree with the raw table. {@link #backfill()} rebuilds both rollups from the raw
+ * clicks, one month per task on urler.rollups.backfill-parallelism threads. Months moved out of Postgres by
+ * {@link ClickArchiveService} are read back from their segment files wherever raw clicks are needed.
+ * <p>
+ * A backfill only rebuilds hours before a watermark an hour or more in the past and leaves later ones to the
+ * click batches. Batches never wait for it unless they carry clicks older than {@link #STRAGGLER_AGE}, which
+ * take {@link #REBUILD_LOCK} and so wait for the months being rebuilt.
+ */
+@Slf4j
+@Service
+public class ClickRollupService {
+
+    public enum Granularity {
+        MINUTE("minute", ChronoUnit.MINUTES, false),
+        HOUR("hour", ChronoUnit.HOURS, false),
+        DAY("day", ChronoUnit.DAYS, true),
+        WEEK("week", ChronoUnit.WEEKS, true);
+
+        // date_trunc field name
+        private final String unit;
+        private final ChronoUnit chronoUnit;
+        private final boolean days;
+
+        Granularity(String unit, ChronoUnit chronoUnit, boolean days) {
+            this.unit = unit;
+            this.chronoUnit = chronoUnit;
+            this.days = days;
+        }
+
+        public static Granularity parse(String value) {
+            for (Granularity granularity : values()) {
+                if (granularity.unit.equalsIgnoreCase(value)) {
+                    return granularity;
+                }
+            }
+            throw new IllegalArgumentException("Unknown granularity '" + value + "', expected minute, hour, day or week");
+        }
+
+        // same boundaries as Postgres date_trunc, weeks start on Monday
+        LocalDateTime truncate(LocalDateTime time) {
+            if (this == WEEK) {
+                return time.toLocalDate().with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY)).atStartOfDay();
+            }
+            return time.truncatedTo(chronoUnit);
+        }
+
+        LocalDateTime next(LocalDateTime bucket) {
+            return bucket.plus(1, chronoUnit);
+        }
+
+        long between(LocalDateTime first, LocalDateTime end) {
+            return chronoUnit.between(first, end);
+        }
+    }
+
+    // clicks older than this when their batch is written may fall before a backfill's watermark
+    static final Duration STRAGGLER_AGE = Duration.ofHours(1);
+    // held shared by every click batch and briefly exclusive by a backfill to settle its watermark
+    private static final long BATCH_LOCK = 0x636c69636b626174L; // "clickbat"
+    // held shared by each month being rebuilt and exclusive by a batch with clicks older than STRAGGLER_AGE
+    private static final long REBUILD_LOCK = 0x72656275696c64L; // "rebuild"
+
+    private static final String UPSERT_HOURLY = """
+            INSERT INTO click_rollup_hourly (url_id, bucket, clicks) VALUES (?, ?, ?)
+            ON CONFLICT (url_id, bucket) DO UPDATE SET clicks = click_rollup_hourly.clicks + EXCLUDED.clicks""";
+    private static final String UPSERT_DAILY = """
+            INSERT INTO click_rollup_daily (url_id, day, clicks) VALUES (?, ?, ?)
+            ON CONFLICT (url_id, day) DO UPDATE SET clicks = click_rollup_daily.clicks + EXCLUDED.clicks""";
+
+    private final ClickRollupRepository clickRollupRepository;
+    private final ClicksRepository clicksRepository;
+    private final ClickArchiveService clickArchiveService;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int backfillParallelism;
+    private final int maxBuckets;
+    private final AtomicBoolean backfillRunning = new AtomicBoolean();
+
+    public ClickRollupService(ClickRollupRepository clickRollupRepository,
+                              ClicksRepository clicksRepository,
+                              ClickArchiveService clickArchiveService,
+                              JdbcTemplate jdbcTemplate,
+                              TransactionTemplate transactionTemplate,
+                              @Value("${urler.rollups.backfill-parallelism:4}") int backfillParallelism,
+                              @Value("${urler.analytics.max-buckets:10000}") int maxBuckets) {
+        this.clickRollupRepository = clickRollupRepository;
+        this.clicksRepository = clicksRepository;
+        this.clickArchiveService = clickArchiveService;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.backfillParallelism = backfillParallelism;
+        this.maxBuckets = maxBuckets;
+    }
+
+    /**
+     * Adds a batch of click events to the rollups, one upsert per distinct url and bucket.
+     * Must be called inside the transaction that inserts the events.
+     */
+    public void add(List<ClickEvent> events) {
+        jdbcTemplate.query("select pg_advisory_xact_lock_shared(?)", rs -> {
+        }, BATCH_LOCK);
+        LocalDateTime stragglerBefore = LocalDateTime.now().minus(STRAGGLER_AGE);
+        if (events.stream().anyMatch(event -> event.getClickDate().isBefore(stragglerBefore))) {
+            // may fall before the watermark of a running backfill, wait for the months it is rebuilding
+            jdbcTemplate.query("select pg_advisory_xact_lock(?)", rs -> {
+            }, REBUILD_LOCK);
+        }
+        Map<ClickRollupHourly.Key, Long> hourly = new HashMap<>();
+        for (ClickEvent event : events) {
+            hourly.merge(new ClickRollupHourly.Key(event.getUrlId(), event.getClickDate().truncatedTo(ChronoUnit.HOURS)), 1L, Long::sum);
+        }
+        // in (url, day) order like the daily adjustments of a backfill, so concurrent upserts cannot deadlock
+        Map<ClickRollupDaily.Key, Long> daily = new TreeMap<>(Comparator.comparing(ClickRollupDaily.Key::getUrlId)
+                .thenComparing(ClickRollupDaily.Key::getDay));
+        hourly.forEach((key, clicks) -> daily.merge(new ClickRollupDaily.Key(key.getUrlId(), key.getBucket().toLocalDate()), clicks, Long::sum));
+
+        jdbcTemplate.batchUpdate(UPSERT_HOURLY, hourly.entrySet().stream()
+                .map(e -> new Object[]{e.getKey().getUrlId(), Timestamp.valueOf(e.getKey().getBucket()), e.getValue()})
+                .toList());
+        jdbcTemplate.batchUpdate(UPSERT_DAILY, daily.entrySet().stream()
+                .map(e -> new Object[]{e.getKey().getUrlId(), Date.valueOf(e.getKey().getDay()), e.getValue()})
+                .toList());
+    }
+
+    /**
+     * Dense series of clicks per bucket between start and end, both given as local times in zone.
+     * The series starts at the bucket containing start and ends with the bucket containing end,
+     * buckets without clicks are included with 0.
+     * <p>
+     * Minute buckets are aggregated from the raw clicks. Everything coarser comes from the rollups,
+     * so it has hour precision at the ends of the range: the hours containing start and end are counted whole.
+     * Day and week buckets in the server zone read whole days from the daily rollup.
+     *
+     * @return the buckets in time order, as local start times in zone
+     */
+    public Map<LocalDateTime, Long> series(Long urlId, Granularity granularity, ZoneId zone, LocalDateTime start, LocalDateTime end) {
+        Map<LocalDateTime, Long> buckets = new TreeMap<>();
+        if (end.isBefore(start)) {
+            return buckets;
+        }
+        LocalDateTime first = granularity.truncate(start);
+        long count = granularity.between(first, end) + 1;
+        if (count > maxBuckets) {
+            throw new IllegalArgumentException("Range spans " + count + " " + granularity.name().toLowerCase(Locale.ROOT)
+                    + " buckets, at most " + maxBuckets + " are allowed");
+        }
+        for (LocalDateTime bucket = first; !bucket.isAfter(end); bucket = granularity.next(bucket)) {
+            // local times skipped by a daylight saving transition do not exist in zone
+            if (!zone.getRules().getValidOffsets(bucket).isEmpty()) {
+                buckets.put(bucket, 0L);
+            }
+        }
+
+        ZoneId serverZone = ZoneId.systemDefault();
+        LocalDateTime from = toServerTime(start, zone, serverZone);
+        LocalDateTime to = toServerTime(end, zone, serverZone);
+        String unit = granularity.unit;
+        List<BucketClicks> rows = new ArrayList<>();
+        if (granularity == Granularity.MINUTE) {
+            rows.addAll(clicksRepository.countByBucket(urlId, unit, serverZone.getId(), zone.getId(), from.truncatedTo(ChronoUnit.MINUTES), to));
+            countArchived(buckets, urlId, serverZone, zone, from.truncatedTo(ChronoUnit.MINUTES), to);
+        } else if (granularity.days && zone.getRules().equals(serverZone.getRules())) {
+            // whole days from the daily rollup, the partial days at either end from the hourly rollup
+            LocalDateTime hourFrom = from.truncatedTo(ChronoUnit.HOURS);
+            LocalDate firstFullDay = hourFrom.equals(from.toLocalDate().atStartOfDay()) ? from.toLocalDate() : from.toLocalDate().plusDays(1);
+            LocalDate endDay = to.toLocalDate();
+            if (firstFullDay.isBefore(endDay)) {
+                rows.addAll(clickRollupRepository.sumDailyByBucket(urlId, unit, firstFullDay, endDay));
+                rows.addAll(sumHourly(urlId, unit, serverZone, zone, hourFrom, firstFullDay.atStartOfDay().minusNanos(1)));
+                rows.addAll(sumHourly(urlId, unit, serverZone, zone, endDay.atStartOfDay(), to));
+            } else {
+                rows.addAll(sumHourly(urlId, unit, serverZone, zone, hourFrom, to));
+            }
+        } else {
+            rows.addAll(sumHourly(urlId, unit, serverZone, zone, from.truncatedTo(ChronoUnit.HOURS), to));
+        }
+        for (BucketClicks row : rows) {
+            buckets.merge(row.getBucket(), row.getClicks(), Long::sum);
+        }
+        return buckets;
+    }
+
+    private void countArchived(Map<LocalDateTime, Long> buckets, Long urlId, ZoneId serverZone, ZoneId zone,
+                               LocalDateTime from, LocalDateTime to) {
+        try {
+            // the range is inclusive like the query above, click_date has microsecond precision
+            clickArchiveService.forEachClick(urlId, from, to.plusNanos(1_000), (url, id, clickDate) -> buckets.merge(
+                    Granularity.MINUTE.truncate(toServerTime(clickDate, serverZone, zone)), 1L, Long::sum));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private List<BucketClicks> sumHourly(Long urlId, String unit, ZoneId serverZone, ZoneId zone, LocalDateTime from, LocalDateTime to) {
+        if (to.isBefore(from)) {
+            return List.of();
+        }
+        return clickRollupRepository.sumHourlyByBucket(urlId, unit, serverZone.getId(), zone.getId(), from, to);
+    }
+
+    private static LocalDateTime toServerTime(LocalDateTime time, ZoneId zone, ZoneId serverZone) {
+        return time.atZone(zone).withZoneSameInstant(serverZone).toLocalDateTime();
+    }
+
+    /**
+     * Clicks per day over all of the user's links, both dates inclusive.
+     */
+    public Map<LocalDate, Long> totalClicksByDay(User user, LocalDate start, LocalDate end) {
+        Map<LocalDate, Long> days = new TreeMap<>();
+        for (DailyClicks day : clickRollupRepository.sumDailyByUser(user, start, end)) {
+            days.put(day.getDay(), day.getClicks());
+        }
+        return days;
+    }
+
+    /**
+     * Rebuilds both rollups from the raw clicks, every month from the oldest click, live or archived, up to the watermark,
+     * the start of the hour {@link #STRAGGLER_AGE} before the backfill started. Months are rebuilt in parallel.
+     * Later hours are left to the click batches, which keep writing while the months are rebuilt, only batches
+     * with clicks older than {@link #STRAGGLER_AGE} wait for them, so no click is counted twice or lost.
+     * A month whose raw clicks are gone, dropped past the retention without being archived, keeps its rollups.
+     *
+     * @return the number of months rebuilt, or -1 if a backfill is already running
+     */
+    public int backfill() throws InterruptedException {
+        if (!backfillRunning.compareAndSet(false, true)) {
+            return -1;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(backfillParallelism);
+        try {
+            Timestamp oldestLive = jdbcTemplate.queryForObject("select min(click_date) from clicks", Timestamp.class);
+            // rescans the archive, another node may have archived months since this one last looked
+            YearMonth oldest = clickArchiveService.oldestMonth();
+            if (oldestLive != null && (oldest == null || YearMonth.from(oldestLive.toLocalDateTime()).isBefore(oldest))) {
+                oldest = YearMonth.from(oldestLive.toLocalDateTime());
+            }
+            if (oldest == null) {
+                return 0;
+            }
+            // taken before the barrier, so every batch that starts after it treats clicks before the watermark as stragglers
+            LocalDateTime watermark = LocalDateTime.now().minus(STRAGGLER_AGE).truncatedTo(ChronoUnit.HOURS);
+            // waits for the batches that may have judged their clicks against an earlier time
+            transactionTemplate.executeWithoutResult(status -> jdbcTemplate.query("select pg_advisory_xact_lock(?)", rs -> {
+            }, BATCH_LOCK));
+            List<Future<?>> tasks = new ArrayList<>();
+            for (YearMonth month = oldest; month.atDay(1).atStartOfDay().isBefore(watermark); month = month.plusMonths(1)) {
+                YearMonth target = month;
+                tasks.add(executor.submit(() -> rebuild(target, watermark)));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+            log.info("Backfilled click rollups for {} months", tasks.size());
+            return tasks.size();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Click rollup backfill failed", e.getCause());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            executor.shutdownNow();
+            backfillRunning.set(false);
+        }
+    }
+
+    private void rebuild(YearMonth month, LocalDateTime watermark) {
+        LocalDateTime start = month.atDay(1).atStartOfDay();
+        LocalDateTime end = month.plusMonths(1).atDay(1).atStartOfDay();
+        if (end.isAfter(watermark)) {
+            end = watermark;
+        }
+        Timestamp from = Timestamp.valueOf(start);
+        Timestamp to = Timestamp.valueOf(end);
+        // the day containing the watermark also holds hours the click batches are still adding to
+        LocalDate partialDay = end.toLocalDate();
+        Timestamp partialFrom = Timestamp.valueOf(partialDay.atStartOfDay());
+        boolean partial = partialFrom.before(to);
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.query("select pg_advisory_xact_lock_shared(?)", rs -> {
+            }, REBUILD_LOCK);
+            ClickArchiveService.ClickSource source = lockSource(month);
+            if (source == ClickArchiveService.ClickSource.NONE) {
+                // the rollups are all that is left of this month
+                log.warn("Keeping the click rollups of {}, its raw clicks are neither in Postgres nor archived", month);
+                return;
+            }
+            jdbcTemplate.update("DELETE FROM click_rollup_hourly WHERE bucket >= ? AND bucket < ?", from, to);
+            jdbcTemplate.update("DELETE FROM click_rollup_daily WHERE day >= ? AND day < ?",
+                    Date.valueOf(start.toLocalDate()), Date.valueOf(partialDay));
+            if (source == ClickArchiveService.ClickSource.ARCHIVE) {
+                rebuildHourlyFromArchive(month);
+            } else {
+                jdbcTemplate.update("""
+                        INSERT INTO click_rollup_hourly (url_id, bucket, clicks)
+                        SELECT url_id, date_trunc('hour', click_date), count(*) FROM clicks
+                        WHERE click_date >= ? AND click_date < ? AND url_id IS NOT NULL
+                        GROUP BY 1, 2""", from, to);
+            }
+            jdbcTemplate.update("""
+                    INSERT INTO click_rollup_daily (url_id, day, clicks)
+                    SELECT url_id, bucket::date, sum(clicks) FROM click_rollup_hourly
+                    WHERE bucket >= ? AND bucket < ?
+                    GROUP BY 1, 2""", from, partialFrom);
+            if (partial) {
+                // a batch adds the same clicks to the day's hours and to its daily row, so adding the difference
+                // between them fixes the row without overwriting what batches add meanwhile
+                jdbcTemplate.update("""
+                        INSERT INTO click_rollup_daily (url_id, day, clicks)
+                        SELECT url_id, ?, sum(clicks) FROM (
+                            SELECT url_id, clicks FROM click_rollup_hourly WHERE bucket >= ? AND bucket < ?
+                            UNION ALL
+                            SELECT url_id, -clicks FROM click_rollup_daily WHERE day = ?) d
+                        GROUP BY url_id HAVING sum(clicks) <> 0 ORDER BY url_id
+                        ON CONFLICT (url_id, day) DO UPDATE SET clicks = click_rollup_daily.clicks + EXCLUDED.clicks""",
+                        Date.valueOf(partialDay), partialFrom, Timestamp.valueOf(partialDay.plusDays(1).atStartOfDay()),
+                        Date.valueOf(partialDay));
+            }
+        });
+    }
+
+    private ClickArchiveService.ClickSource lockSource(YearMonth month) {
+        try {
+            return clickArchiveService.lockSource(month);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // the segment is ordered by url, so at most a url's worth of hours is held before it is written
+    private void rebuildHourlyFromArchive(YearMonth month) {
+        Map<LocalDateTime, Long> hours = new TreeMap<>();
+        long[] currentUrl = {-1};
+        try {
+            clickArchiveService.forEachClick(month, (urlId, id, clickDate) -> {
+                if (urlId != currentUrl[0]) {
+                    insertHourly(currentUrl[0], hours);
+                    currentUrl[0] = urlId;
+                }
+                hours.merge(clickDate.truncatedTo(ChronoUnit.HOURS), 1L, Long::sum);
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        insertHourly(currentUrl[0], hours);
+    }
+
+    private void insertHourly(long urlId, Map<LocalDateTime, Long> hours) {
+        if (hours.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(UPSERT_HOURLY, hours.entrySet().stream()
+                .map(e -> new Object[]{urlId, Timestamp.valueOf(e.getKey()), e.getValue()})
+                .toList());
+        hours.clear();
+    }
+}
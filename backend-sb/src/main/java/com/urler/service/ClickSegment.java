@@ -0,0 +1,292 @@
+package com.urler.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Immutable file holding one month of archived clicks, grouped by url id and sorted by click_date within each url.
+ * <p>
+ * File layout, big-endian:
+ * <pre>
+ * header  magic(int) version(int)
+ * blocks  one deflate stream per url, per click: zigzag varint id delta, varint click_date delta in microseconds
+ * index   urlCount x (urlId(long) offset(long) length(int) clicks(int)), sorted by urlId
+ * footer  indexOffset(long) urlCount(int) clickCount(long) magic(int)
+ * </pre>
+ * click_date is kept as microseconds since 1970-01-01T00:00 of the local time, the exact precision of the column.
+ * Only the index is mapped, blocks are read and inflated on demand, so an open segment costs 24 bytes of
+ * address space per url.
+ */
+final class ClickSegment {
+
+    private static final int MAGIC = 0x55524C43; // "URLC"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int INDEX_ENTRY_SIZE = 24;
+    private static final int FOOTER_SIZE = 24;
+
+    private final Path path;
+    private final YearMonth month;
+    private final ByteBuffer index;
+    private final int urlCount;
+    private final long clickCount;
+
+    private ClickSegment(Path path, YearMonth month, ByteBuffer index, int urlCount, long clickCount) {
+        this.path = path;
+        this.month = month;
+        this.index = index;
+        this.urlCount = urlCount;
+        this.clickCount = clickCount;
+    }
+
+    static ClickSegment open(Path path, YearMonth month) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+            if (size < HEADER_SIZE + FOOTER_SIZE || channel.read(header, 0) != HEADER_SIZE
+                    || channel.read(footer, size - FOOTER_SIZE) != FOOTER_SIZE
+                    || header.getInt(0) != MAGIC || header.getInt(4) != VERSION || footer.getInt(20) != MAGIC) {
+                throw new IOException("Not a complete version " + VERSION + " click segment: " + path);
+            }
+            long indexOffset = footer.getLong(0);
+            int urlCount = footer.getInt(8);
+            long clickCount = footer.getLong(12);
+            ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, (long) urlCount * INDEX_ENTRY_SIZE);
+            return new ClickSegment(path, month, index, urlCount, clickCount);
+        }
+    }
+
+    YearMonth getMonth() {
+        return month;
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    long getClickCount() {
+        return clickCount;
+    }
+
+    /**
+     * Visits the clicks of one url in time order.
+     */
+    void forEach(long urlId, ClickArchiveService.ClickVisitor visitor) throws IOException {
+        int low = 0;
+        int high = urlCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midId = index.getLong(mid * INDEX_ENTRY_SIZE);
+            if (midId < urlId) {
+                low = mid + 1;
+            } else if (midId > urlId) {
+                high = mid - 1;
+            } else {
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    readBlock(channel, mid, visitor);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Visits every click, ordered by url id and then time.
+     */
+    void forEach(ClickArchiveService.ClickVisitor visitor) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            for (int entry = 0; entry < urlCount; entry++) {
+                readBlock(channel, entry, visitor);
+            }
+        }
+    }
+
+    private void readBlock(FileChannel channel, int entry, ClickArchiveService.ClickVisitor visitor) throws IOException {
+        int position = entry * INDEX_ENTRY_SIZE;
+        long urlId = index.getLong(position);
+        long offset = index.getLong(position + 8);
+        int clicks = index.getInt(position + 20);
+        Inflater inflater = new Inflater();
+        // the inflater stops at the end of the block's deflate stream, reading ahead past it is harmless.
+        // The stream is not closed, that would close the channel shared by the following blocks
+        InputStream in = new BufferedInputStream(
+                new InflaterInputStream(Channels.newInputStream(channel.position(offset)), inflater, 1 << 14), 1 << 16);
+        try {
+            long id = 0;
+            long micros = 0;
+            for (int i = 0; i < clicks; i++) {
+                id += unzigzag(readVarLong(in));
+                micros += readVarLong(in);
+                visitor.visit(urlId, id, fromMicros(micros));
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Writes a segment from clicks that arrive ordered by url id, then click_date.
+     * The file is only complete once {@link #finish()} returned.
+     */
+    static final class Writer implements Closeable {
+        private final DataOutputStream out;
+        private final DataOutputStream index;
+        private final Path indexPath;
+        private final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        private final byte[] chunk = new byte[1 << 16];
+        // varint-encoded clicks of the current url, deflated in one go when the url changes
+        private byte[] block = new byte[1 << 16];
+        private int blockLength;
+        private long position = HEADER_SIZE;
+        private boolean started;
+        private long urlId;
+        private int urlClicks;
+        private long lastId;
+        private long lastMicros;
+        private int urlCount;
+        private long clickCount;
+
+        Writer(Path path) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16));
+            // index entries are spilled to a side file so the heap does not grow with the number of urls
+            this.indexPath = Files.createTempFile(path.toAbsolutePath().getParent(), "click-segment-index", ".tmp");
+            this.index = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexPath), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        }
+
+        void add(long urlId, long id, LocalDateTime clickDate) throws IOException {
+            if (!started || urlId != this.urlId) {
+                if (started && urlId < this.urlId) {
+                    throw new IllegalArgumentException("Clicks must be ordered by url id");
+                }
+                flushBlock();
+                started = true;
+                this.urlId = urlId;
+                lastId = 0;
+                lastMicros = 0;
+            }
+            long micros = toMicros(clickDate);
+            if (micros < lastMicros) {
+                throw new IllegalArgumentException("Clicks of url " + urlId + " must be ordered by click date");
+            }
+            writeVarLong(zigzag(id - lastId));
+            writeVarLong(micros - lastMicros);
+            lastId = id;
+            lastMicros = micros;
+            urlClicks++;
+            clickCount++;
+        }
+
+        long getClickCount() {
+            return clickCount;
+        }
+
+        void finish() throws IOException {
+            flushBlock();
+            index.close();
+            long indexOffset = position;
+            Files.copy(indexPath, out);
+            out.writeLong(indexOffset);
+            out.writeInt(urlCount);
+            out.writeLong(clickCount);
+            out.writeInt(MAGIC);
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            deflater.end();
+            try {
+                index.close();
+                out.close();
+            } finally {
+                Files.deleteIfExists(indexPath);
+            }
+        }
+
+        private void flushBlock() throws IOException {
+            if (urlClicks == 0) {
+                return;
+            }
+            deflater.setInput(block, 0, blockLength);
+            deflater.finish();
+            int length = 0;
+            while (!deflater.finished()) {
+                int n = deflater.deflate(chunk);
+                out.write(chunk, 0, n);
+                length += n;
+            }
+            deflater.reset();
+            index.writeLong(urlId);
+            index.writeLong(position);
+            index.writeInt(length);
+            index.writeInt(urlClicks);
+            position += length;
+            urlCount++;
+            urlClicks = 0;
+            blockLength = 0;
+        }
+
+        private void writeVarLong(long value) {
+            if (blockLength + 10 > block.length) {
+                block = Arrays.copyOf(block, block.length * 2);
+            }
+            while ((value & ~0x7FL) != 0) {
+                block[blockLength++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            block[blockLength++] = (byte) value;
+        }
+    }
+
+    static long toMicros(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) * 1_000_000 + time.getNano() / 1_000;
+    }
+
+    static LocalDateTime fromMicros(long micros) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1_000_000), (int) Math.floorMod(micros, 1_000_000) * 1_000, ZoneOffset.UTC);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Truncated click segment block");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in click segment block");
+    }
+}
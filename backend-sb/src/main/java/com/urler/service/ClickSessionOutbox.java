@@ -0,0 +1,138 @@
+package com.urler.service;
+
+import com.urler.config.WebSocketSessionMonitor;
+import com.urler.dto.ClickEventMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.user.SimpSession;
+import org.springframework.messaging.simp.user.SimpUser;
+import org.springframework.messaging.simp.user.SimpUserRegistry;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Delivers batches of click updates to a user's sessions on /user/queue/clicks, conflating them for sessions that
+ * fall behind.
+ * <p>
+ * While all of a user's sessions keep up, a batch is sent once to the user. A session that
+ * {@link WebSocketSessionMonitor} reports as behind gets nothing new queued: its updates are merged into one
+ * pending update per URL, keeping the latest total and summing the deltas, and sent as a single batch on the first
+ * {@link #send} or {@link #flush} after it caught up. Its backlog therefore never exceeds urler.ws.outbound.max-queued
+ * frames plus one update per link, however many clicks arrive. Merged frames are counted in
+ * urler.ws.outbound.frames{outcome=conflated}, frames sent in urler.ws.outbound.frames{outcome=sent}.
+ */
+@Service
+public class ClickSessionOutbox {
+
+    static final String DESTINATION = "/queue/clicks";
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final SimpUserRegistry userRegistry;
+    private final WebSocketSessionMonitor sessionMonitor;
+    // session id -> updates held back while the session is behind
+    private final ConcurrentHashMap<String, Pending> pending = new ConcurrentHashMap<>();
+    private final Counter sent;
+    private final Counter conflated;
+
+    private record Pending(String owner, Map<Long, ClickEventMessage> updates) {
+    }
+
+    public ClickSessionOutbox(SimpMessagingTemplate messagingTemplate,
+                              SimpUserRegistry userRegistry,
+                              WebSocketSessionMonitor sessionMonitor,
+                              MeterRegistry meterRegistry) {
+        this.messagingTemplate = messagingTemplate;
+        this.userRegistry = userRegistry;
+        this.sessionMonitor = sessionMonitor;
+        this.sent = meterRegistry.counter("urler.ws.outbound.frames", "outcome", "sent");
+        this.conflated = meterRegistry.counter("urler.ws.outbound.frames", "outcome", "conflated");
+        meterRegistry.gauge("urler.ws.sessions.conflating", pending, Map::size);
+    }
+
+    public boolean isConnected(String owner) {
+        return userRegistry.getUser(owner) != null;
+    }
+
+    public void send(String owner, List<ClickEventMessage> updates) {
+        SimpUser user = userRegistry.getUser(owner);
+        if (user == null) {
+            return;
+        }
+        if (allKeepingUp(user)) {
+            messagingTemplate.convertAndSendToUser(owner, DESTINATION, updates);
+            sent.increment(user.getSessions().size());
+            return;
+        }
+        for (SimpSession session : user.getSessions()) {
+            pending.compute(session.getId(), (sessionId, held) -> {
+                if (held == null && !sessionMonitor.isBehind(sessionId)) {
+                    sendToSession(owner, sessionId, updates);
+                    return null;
+                }
+                if (held == null) {
+                    held = new Pending(owner, new LinkedHashMap<>());
+                }
+                merge(held.updates(), updates);
+                if (sessionMonitor.isBehind(sessionId)) {
+                    conflated.increment();
+                    return held;
+                }
+                sendToSession(owner, sessionId, new ArrayList<>(held.updates().values()));
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Sends the held back updates of sessions that caught up and forgets closed sessions.
+     * Called by {@link ClickBroadcaster} on every tick.
+     */
+    public void flush() {
+        for (String sessionId : pending.keySet()) {
+            pending.computeIfPresent(sessionId, (id, held) -> {
+                if (!sessionMonitor.isOpen(id)) {
+                    return null;
+                }
+                if (sessionMonitor.isBehind(id)) {
+                    return held;
+                }
+                sendToSession(held.owner(), id, new ArrayList<>(held.updates().values()));
+                return null;
+            });
+        }
+    }
+
+    private boolean allKeepingUp(SimpUser user) {
+        for (SimpSession session : user.getSessions()) {
+            if (pending.containsKey(session.getId()) || sessionMonitor.isBehind(session.getId())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void sendToSession(String owner, String sessionId, List<ClickEventMessage> updates) {
+        // a session id header makes the user destination resolve to that session only
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setSessionId(sessionId);
+        headers.setLeaveMutable(true);
+        messagingTemplate.convertAndSendToUser(owner, DESTINATION, updates, headers.getMessageHeaders());
+        sent.increment();
+    }
+
+    private static void merge(Map<Long, ClickEventMessage> held, List<ClickEventMessage> updates) {
+        for (ClickEventMessage update : updates) {
+            held.merge(update.getUrlId(), update, (older, newer) -> new ClickEventMessage(newer.getUrlId(),
+                    Math.max(older.getClicks(), newer.getClicks()), older.getDelta() + newer.getDelta(),
+                    newer.getClickDate()));
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package com.urler.service;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.urler.cache.ShortCodeBloomFilter;
+import com.urler.dto.ClickEventMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Carries live click updates and new short codes between nodes over Postgres LISTEN/NOTIFY, so a dashboard
+ * connected to one node sees clicks redirected by any other and every node's {@link ShortCodeBloomFilter} knows
+ * the links created on the others. No broker besides the database is needed.
+ * <p>
+ * Every {@link ClickBroadcaster} tick hands its per-owner batches to {@link #publish}, which sends them as compact
+ * JSON notifications on urler.cluster.channel, split to stay under the 8000 byte NOTIFY limit. A listener thread
+ * on every node relays the batches of other nodes to the owners connected there. Each notification carries the
+ * sending node's random id and a node drops its own, which it already delivered locally. Relayed batches go
+ * straight to the local sessions and are never published again, so a notification crosses the cluster once.
+ * <p>
+ * Publishing and listening each hold one connection of their own, outside the Hikari pool: a LISTEN session has
+ * to stay open and must not be handed to other requests. Both reconnect after a failure. Notifications sent
+ * while a node is disconnected are lost, the next tick carries newer totals anyway.
+ * <p>
+ * New short codes are announced by a statement-level trigger on url, installed by the listener, so the
+ * notification is part of the inserting transaction: it is delivered exactly when the codes are committed, before
+ * their creator gets them back, whichever path or node inserted them. A missed code would make another node answer
+ * 404 for an existing link, so the bloom filter only trusts its negative answers while this node is listening:
+ * they are suspended until LISTEN is in place and the filter has been rebuilt behind it, and again as soon as the
+ * listener fails.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty("urler.cluster.enabled")
+public class ClusterRelay {
+
+    // Postgres rejects NOTIFY payloads of 8000 bytes or more
+    static final int MAX_PAYLOAD_BYTES = 7900;
+    // upper bound of one encoded update, three longs plus brackets and commas
+    private static final int UPDATE_BYTES = 3 * 20 + 4;
+    private static final Pattern CHANNEL = Pattern.compile("[a-z_][a-z0-9_]{0,62}");
+    private static final long RETRY_MILLIS = 5000;
+    private static final int POLL_MILLIS = 1000;
+    // serializes the trigger installation of nodes starting at the same time
+    private static final long TRIGGER_LOCK = 0x75726c5f6e6f74L; // "url_not"
+    // byte budget of the codes in one trigger notification, a code adds at most 255 * 6 + 2 bytes of JSON
+    private static final int CODES_BYTES = 6000;
+
+    private final DataSourceProperties dataSourceProperties;
+    private final ClickSessionOutbox outbox;
+    private final ShortCodeBloomFilter shortCodeBloomFilter;
+    private final ObjectMapper objectMapper;
+    // resolves the deserializer up front, the first code must not wait for it while another node already
+    // handed it out
+    private final ObjectReader batchReader;
+    private final String channel;
+    private final String nodeId = UUID.randomUUID().toString().substring(0, 8);
+    private final Counter published;
+    private final Counter received;
+    private final Counter failed;
+
+    // click-broadcast thread only
+    private Connection publisher;
+    private long publishRetryAt;
+
+    private volatile boolean running = true;
+    private volatile Connection listener;
+    private Thread listenerThread;
+
+    // one notification: sending node, tick time in epoch millis, [urlId, clicks, delta] per owner,
+    // or only the codes inserted by one statement when sent by the url trigger
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    record Batch(@JsonProperty("n") String node,
+                 @JsonProperty("t") long time,
+                 @JsonProperty("u") Map<String, List<long[]>> updates,
+                 @JsonProperty("c") List<String> codes) {
+    }
+
+    public ClusterRelay(DataSourceProperties dataSourceProperties,
+                        ClickSessionOutbox outbox,
+                        ShortCodeBloomFilter shortCodeBloomFilter,
+                        ObjectMapper objectMapper,
+                        MeterRegistry meterRegistry,
+                        @Value("${urler.cluster.channel:urler_cluster}") String channel) {
+        if (!CHANNEL.matcher(channel).matches()) {
+            throw new IllegalArgumentException("urler.cluster.channel must be a lowercase identifier: " + channel);
+        }
+        this.dataSourceProperties = dataSourceProperties;
+        this.outbox = outbox;
+        this.shortCodeBloomFilter = shortCodeBloomFilter;
+        this.objectMapper = objectMapper;
+        this.batchReader = objectMapper.readerFor(Batch.class);
+        this.channel = channel;
+        this.published = meterRegistry.counter("urler.cluster.notifications", "outcome", "published");
+        this.received = meterRegistry.counter("urler.cluster.notifications", "outcome", "received");
+        this.failed = meterRegistry.counter("urler.cluster.notifications", "outcome", "failed");
+    }
+
+    @PostConstruct
+    void start() {
+        shortCodeBloomFilter.distrustNegatives();
+        listenerThread = new Thread(this::runListener, "cluster-listener");
+        listenerThread.setDaemon(true);
+        listenerThread.start();
+        log.info("Relaying live clicks and short codes over channel {} as node {}", channel, nodeId);
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        running = false;
+        if (listenerThread != null) {
+            listenerThread.join(POLL_MILLIS * 2);
+        }
+        close(listener);
+        close(publisher);
+    }
+
+    /**
+     * Sends one tick's updates to the other nodes. Called from the click-broadcast thread only.
+     * While the database is unreachable updates are dropped and a reconnect is tried every few seconds.
+     */
+    public void publish(LocalDateTime time, Map<String, List<ClickEventMessage>> byOwner) {
+        List<String> payloads = encode(time, byOwner);
+        if (publisher == null) {
+            if (System.currentTimeMillis() < publishRetryAt) {
+                failed.increment(payloads.size());
+                return;
+            }
+            try {
+                publisher = connect();
+            } catch (SQLException e) {
+                log.warn("Cannot connect to publish click notifications: {}", e.getMessage());
+                publishRetryAt = System.currentTimeMillis() + RETRY_MILLIS;
+                failed.increment(payloads.size());
+                return;
+            }
+        }
+        try (PreparedStatement notify = publisher.prepareStatement("select pg_notify(?, ?)")) {
+            for (String payload : payloads) {
+                notify.setString(1, channel);
+                notify.setString(2, payload);
+                notify.execute();
+                published.increment();
+            }
+        } catch (SQLException e) {
+            log.warn("Failed to publish click notifications: {}", e.getMessage());
+            failed.increment();
+            close(publisher);
+            publisher = null;
+        }
+    }
+
+    /**
+     * Encodes the updates as notifications of at most {@link #MAX_PAYLOAD_BYTES}, an owner's updates may be
+     * spread over several of them.
+     */
+    List<String> encode(LocalDateTime time, Map<String, List<ClickEventMessage>> byOwner) {
+        long millis = time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        List<String> payloads = new ArrayList<>();
+        Map<String, List<long[]>> chunk = new LinkedHashMap<>();
+        int header = 64 + nodeId.length();
+        int size = header;
+        for (Map.Entry<String, List<ClickEventMessage>> entry : byOwner.entrySet()) {
+            String owner = entry.getKey();
+            int ownerBytes = jsonBytes(owner) + 4;
+            for (ClickEventMessage update : entry.getValue()) {
+                if (!chunk.isEmpty() && size + UPDATE_BYTES + (chunk.containsKey(owner) ? 0 : ownerBytes) > MAX_PAYLOAD_BYTES) {
+                    payloads.add(write(new Batch(nodeId, millis, chunk, null)));
+                    chunk = new LinkedHashMap<>();
+                    size = header;
+                }
+                if (!chunk.containsKey(owner)) {
+                    size += ownerBytes;
+                }
+                chunk.computeIfAbsent(owner, o -> new ArrayList<>())
+                        .add(new long[] {update.getUrlId(), update.getClicks(), update.getDelta()});
+                size += UPDATE_BYTES;
+            }
+        }
+        if (!chunk.isEmpty()) {
+            payloads.add(write(new Batch(nodeId, millis, chunk, null)));
+        }
+        return payloads;
+    }
+
+    /**
+     * Adds announced short codes to the bloom filter and relays the click updates of another node to the owners
+     * connected here, ignoring the node's own.
+     */
+    void receive(String payload) {
+        Batch batch;
+        try {
+            batch = batchReader.readValue(payload);
+        } catch (IOException e) {
+            log.warn("Ignoring malformed cluster notification: {}", e.getMessage());
+            return;
+        }
+        if (nodeId.equals(batch.node())) {
+            return;
+        }
+        received.increment();
+        if (batch.codes() != null) {
+            batch.codes().forEach(shortCodeBloomFilter::put);
+        }
+        if (batch.updates() == null) {
+            return;
+        }
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(batch.time()), ZoneId.systemDefault());
+        batch.updates().forEach((owner, updates) -> {
+            if (!outbox.isConnected(owner)) {
+                return;
+            }
+            List<ClickEventMessage> messages = new ArrayList<>(updates.size());
+            for (long[] update : updates) {
+                messages.add(new ClickEventMessage(update[0], update[1], update[2], time));
+            }
+            outbox.send(owner, messages);
+        });
+    }
+
+    private void runListener() {
+        long backoffMillis = POLL_MILLIS;
+        while (running) {
+            try {
+                if (listener == null) {
+                    listener = subscribe();
+                    backoffMillis = POLL_MILLIS;
+                }
+                dispatch(listener.unwrap(PGConnection.class).getNotifications(POLL_MILLIS));
+            } catch (SQLException e) {
+                shortCodeBloomFilter.distrustNegatives();
+                if (!running) {
+                    return;
+                }
+                log.warn("Cluster notification listener failed, reconnecting in {}ms: {}", backoffMillis, e.getMessage());
+                close(listener);
+                listener = null;
+                try {
+                    TimeUnit.MILLISECONDS.sleep(backoffMillis);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+                backoffMillis = Math.min(backoffMillis * 2, RETRY_MILLIS * 2);
+            } catch (RuntimeException e) {
+                log.warn("Failed to relay cluster notifications", e);
+            }
+        }
+    }
+
+    // LISTEN, then rebuild the bloom filter behind it so codes created while this node was not listening are in it
+    private Connection subscribe() throws SQLException {
+        Connection connection = connect();
+        try {
+            installShortCodeTrigger(connection);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("LISTEN " + channel);
+            }
+            if (!shortCodeBloomFilter.rebuildNow()) {
+                throw new SQLException("Rebuilding the short code bloom filter failed");
+            }
+            // a round trip delivers the codes committed during the rebuild, which it may have missed
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("select 1");
+            }
+            dispatch(connection.unwrap(PGConnection.class).getNotifications());
+            shortCodeBloomFilter.trustNegatives();
+            return connection;
+        } catch (SQLException | RuntimeException e) {
+            close(connection);
+            throw e;
+        }
+    }
+
+    private void installShortCodeTrigger(Connection connection) throws SQLException {
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("select pg_advisory_xact_lock(" + TRIGGER_LOCK + ")");
+            // one notification per CODES_BYTES of codes, in JSON as the "c" of a Batch
+            statement.execute("""
+                    CREATE OR REPLACE FUNCTION urler_notify_short_codes() RETURNS trigger LANGUAGE plpgsql AS $$
+                    DECLARE
+                        codes json;
+                    BEGIN
+                        FOR codes IN
+                            SELECT json_agg(shortened_url) FROM (
+                                SELECT shortened_url, sum(octet_length(to_json(shortened_url)::text) + 2)
+                                        OVER (ORDER BY shortened_url) / %d AS chunk
+                                FROM inserted WHERE shortened_url IS NOT NULL) t
+                            GROUP BY chunk
+                        LOOP
+                            PERFORM pg_notify('%s', json_build_object('c', codes)::text);
+                        END LOOP;
+                        RETURN NULL;
+                    END $$""".formatted(CODES_BYTES, channel));
+            // created once, dropping and recreating it would lock url on every reconnect
+            try (ResultSet exists = statement.executeQuery(
+                    "select 1 from pg_trigger where tgname = 'url_short_codes_notify' and tgrelid = 'url'::regclass")) {
+                if (!exists.next()) {
+                    statement.execute("""
+                            CREATE TRIGGER url_short_codes_notify AFTER INSERT ON url
+                            REFERENCING NEW TABLE AS inserted
+                            FOR EACH STATEMENT EXECUTE FUNCTION urler_notify_short_codes()""");
+                }
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private void dispatch(PGNotification[] notifications) {
+        if (notifications != null) {
+            for (PGNotification notification : notifications) {
+                receive(notification.getParameter());
+            }
+        }
+    }
+
+    private Connection connect() throws SQLException {
+        Properties properties = new Properties();
+        properties.setProperty("user", dataSourceProperties.determineUsername());
+        properties.setProperty("password", dataSourceProperties.determinePassword());
+        properties.setProperty("ApplicationName", "urler-cluster-" + nodeId);
+        properties.setProperty("connectTimeout", "2");
+        properties.setProperty("socketTimeout", "10");
+        Connection connection = DriverManager.getConnection(dataSourceProperties.determineUrl(), properties);
+        connection.setAutoCommit(true);
+        return connection;
+    }
+
+    private String write(Batch batch) {
+        try {
+            return objectMapper.writeValueAsString(batch);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot encode click notification", e);
+        }
+    }
+
+    private int jsonBytes(String value) {
+        try {
+            return objectMapper.writeValueAsBytes(value).length;
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot encode click notification", e);
+        }
+    }
+
+    private static void close(Connection connection) {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException ignored) {
+                // already broken
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.urler.service;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.function.Supplier;
+
+/**
+ * Sends read-only dashboard queries to the read replica when one is configured (urler.datasource.replica.url).
+ * <p>
+ * Only work wrapped in {@link #read(Supplier)} is routed, everything else, including the redirect lookups and
+ * every write, stays on the primary. The wrapped work runs in its own read-only transaction, the connection
+ * is taken from the replica when the transaction starts, see {@link com.urler.config.ReplicaRoutingDataSource}.
+ * Results may be up to urler.datasource.replica.max-lag behind the primary.
+ */
+@Component
+public class ReplicaRouting {
+
+    private static final ThreadLocal<Boolean> REPLICA = new ThreadLocal<>();
+
+    private final TransactionTemplate readOnlyTransaction;
+
+    public ReplicaRouting(PlatformTransactionManager transactionManager) {
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+    }
+
+    public static boolean isReplicaRequested() {
+        return REPLICA.get() != null;
+    }
+
+    public <T> T read(Supplier<T> query) {
+        if (isReplicaRequested() || TransactionSynchronizationManager.isActualTransactionActive()) {
+            // joins the enclosing transaction and whatever connection it already has
+            return query.get();
+        }
+        REPLICA.set(Boolean.TRUE);
+        try {
+            return readOnlyTransaction.execute(status -> query.get());
+        } finally {
+            REPLICA.remove();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.urler.service;
+
+import com.urler.repository.UrlRepository;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Generates 8 character base62 short codes from ids reserved in blocks of {@link #BLOCK_SIZE}
+ * from the short_code_seq sequence (hi/lo). Every node draws its own block, so codes are unique
+ * across nodes without an existence check. Only a custom alias that happens to look like a generated
+ * code can collide, and the unique index on url.shortened_url catches that.
+ * <p>
+ * Ids are scrambled by multiplying with a constant coprime to 62^8 before encoding, a bijection,
+ * so consecutive links do not get visibly consecutive codes.
+ */
+@Component
+public class ShortCodeGenerator {
+
+    // must match INCREMENT BY of short_code_seq in schema.sql
+    static final int BLOCK_SIZE = 1000;
+
+    private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789".toCharArray();
+    private static final int LENGTH = 8;
+    private static final long SPACE = 218_340_105_584_896L; // 62^8
+    // odd and not a multiple of 31, so coprime to 62^8, and small enough that id * MULTIPLIER fits in a long
+    private static final long MULTIPLIER = 28_657L;
+
+    private final UrlRepository urlRepository;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private long next;
+    private long limit;
+
+    public ShortCodeGenerator(UrlRepository urlRepository) {
+        this.urlRepository = urlRepository;
+    }
+
+    public String next() {
+        return encode(nextId());
+    }
+
+    private long nextId() {
+        lock.lock();
+        try {
+            if (next == limit) {
+                // pooled sequence: each nextval returns the first id of a fresh block of BLOCK_SIZE
+                next = urlRepository.nextShortCodeBlock();
+                limit = next + BLOCK_SIZE;
+            }
+            return next++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    static String encode(long id) {
+        long value = (id % SPACE) * MULTIPLIER % SPACE;
+        char[] code = new char[LENGTH];
+        for (int i = LENGTH - 1; i >= 0; i--) {
+            code[i] = ALPHABET[(int) (value % ALPHABET.length)];
+            value /= ALPHABET.length;
+        }
+        return new String(code);
+    }
+}
@@ -0,0 +1,33 @@
+package com.urler.service;
+
+import com.urler.repository.UrlRepository;
+import com.urler.table.Url;
+import jakarta.persistence.EntityManager;
+import lombok.AllArgsConstructor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+// inserts one chunk of a bulk upload in a single transaction, called from BulkShortenService
+@Service
+@AllArgsConstructor
+public class UrlBatchWriter {
+
+    private UrlRepository urlRepository;
+    private EntityManager entityManager;
+
+    /**
+     * Inserts the rows, batched by Hibernate through hibernate.jdbc.batch_size.
+     * The persistence context is cleared afterwards so the request-scoped EntityManager
+     * does not accumulate every row of a large upload.
+     *
+     * @param urls the rows to insert, ids are assigned in place
+     */
+    @Transactional
+    public void write(List<Url> urls) {
+        // flushed through the repository so a constraint violation surfaces here, translated to a DataAccessException
+        urlRepository.saveAllAndFlush(urls);
+        entityManager.clear();
+    }
+}
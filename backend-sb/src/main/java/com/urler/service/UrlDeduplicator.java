@@ -0,0 +1,161 @@
+package com.urler.service;
+
+import com.urler.repository.UrlRepository;
+import com.urler.table.Url;
+import com.urler.table.User;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Finds a user's existing link to the same destination when urler.dedup.enabled is set, so shortening
+ * a URL again returns its existing short code instead of inserting another row.
+ * <p>
+ * Every Url row stores {@link #hash(String)}, the first 64 bits of the SHA-256 of the normalized URL,
+ * and the lookup goes through the (user_id, url_hash) index, so it costs the same however many links
+ * the user has. Candidates are compared on the normalized URL to rule out hash collisions.
+ * Rows written before the hash existed have none, {@link #backfillHashes()} fills them in on startup.
+ * <p>
+ * {@link #findExistingOrInsert} holds a transaction-scoped advisory lock on (user, hash) from the lookup to the commit
+ * of the insert, so concurrent requests shortening the same destination for the same user create one link.
+ */
+@Slf4j
+@Component
+public class UrlDeduplicator {
+
+    private static final int BACKFILL_BATCH_SIZE = 1000;
+
+    private final UrlRepository urlRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+
+    public UrlDeduplicator(UrlRepository urlRepository,
+                           JdbcTemplate jdbcTemplate,
+                           TransactionTemplate transactionTemplate,
+                           @Value("${urler.dedup.enabled:false}") boolean enabled) {
+        this.urlRepository = urlRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the user's existing link to the same normalized URL, or null if there is none or dedup is disabled
+     */
+    public Url findExisting(String url, User user) {
+        if (!enabled) {
+            return null;
+        }
+        String normalized = normalize(url);
+        for (Url candidate : urlRepository.findByUserAndUrlHash(user, hashNormalized(normalized))) {
+            if (normalize(candidate.getUrl()).equals(normalized)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the user's existing link to the same normalized URL, or runs insert when there is none.
+     * Both happen in one transaction holding the (user, hash) lock, so insert must save the link in it.
+     *
+     * @return the existing link, or null once insert has run
+     */
+    public Url findExistingOrInsert(String url, User user, Runnable insert) {
+        long hash = hash(url);
+        return transactionTemplate.execute(status -> {
+            // the two int form keeps these keys apart from the bigint advisory locks used elsewhere
+            jdbcTemplate.query("select pg_advisory_xact_lock(?, ?)", rs -> {
+            }, user.getId().intValue(), (int) (hash ^ (hash >>> 32)));
+            Url existing = findExisting(url, user);
+            if (existing == null) {
+                insert.run();
+            }
+            return existing;
+        });
+    }
+
+    /**
+     * Fills in the url_hash of rows that have none, in id order and batches of {@value #BACKFILL_BATCH_SIZE}.
+     * Only rows still without a hash are touched, so running it again, or on several nodes at once, is harmless.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillHashes() {
+        if (!enabled) {
+            return;
+        }
+        long filled = 0;
+        long afterId = 0;
+        List<Object[]> batch;
+        do {
+            batch = jdbcTemplate.query("""
+                            SELECT id, url FROM url WHERE url_hash IS NULL AND url IS NOT NULL AND id > ?
+                            ORDER BY id LIMIT ?""",
+                    (rs, rowNum) -> new Object[]{hash(rs.getString(2)), rs.getLong(1)}, afterId, BACKFILL_BATCH_SIZE);
+            if (!batch.isEmpty()) {
+                jdbcTemplate.batchUpdate("UPDATE url SET url_hash = ? WHERE id = ? AND url_hash IS NULL", batch);
+                afterId = (Long) batch.get(batch.size() - 1)[1];
+                filled += batch.size();
+            }
+        } while (batch.size() == BACKFILL_BATCH_SIZE);
+        if (filled > 0) {
+            log.info("Filled in the url_hash of {} links", filled);
+        }
+    }
+
+    public static long hash(String url) {
+        return hashNormalized(normalize(url));
+    }
+
+    private static long hashNormalized(String normalized) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(normalized.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Lower-cases scheme and host, drops the default port and the fragment, resolves dot segments
+     * and turns an empty path into "/". The query is kept as is, its order can be significant.
+     * Strings that are not valid URIs are only trimmed.
+     */
+    static String normalize(String url) {
+        String trimmed = url.trim();
+        try {
+            URI uri = new URI(trimmed).normalize();
+            if (uri.getScheme() == null || uri.getRawAuthority() == null) {
+                return trimmed;
+            }
+            String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+            String authority = uri.getRawAuthority().toLowerCase(Locale.ROOT);
+            if ((scheme.equals("http") && authority.endsWith(":80")) || (scheme.equals("https") && authority.endsWith(":443"))) {
+                authority = authority.substring(0, authority.lastIndexOf(':'));
+            }
+            String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+            String query = uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery();
+            return scheme + "://" + authority + path + query;
+        } catch (URISyntaxException e) {
+            return trimmed;
+        }
+    }
+}
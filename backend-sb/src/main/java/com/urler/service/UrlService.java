@@ -1,23 +1,31 @@
 package com.urler.service;
 
-import com.urler.dto.ClickEventMessage;
+import com.urler.cache.HotLinkTracker;
+import com.urler.cache.RedirectCache;
+import com.urler.cache.ShortCodeBloomFilter;
 import com.urler.dto.ClicksDto;
+import com.urler.dto.RedirectTarget;
 import com.urler.dto.UrlDto;
+import com.urler.dto.UrlPageDto;
 import com.urler.exception.AliasAlreadyExistsException;
-import com.urler.table.Clicks;
 import com.urler.table.Url;
 import com.urler.table.User;
-import com.urler.repository.ClicksRepository;
 import com.urler.repository.UrlRepository;
 import lombok.AllArgsConstructor;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.hibernate.exception.ConstraintViolationException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.Random;
 import java.util.stream.Collectors;
 
 @Service
@@ -25,27 +33,116 @@ import java.util.stream.Collectors;
 public class UrlService {
 
     private UrlRepository urlRepository;
-    private ClicksRepository clicksRepository;
-    private SimpMessagingTemplate messagingTemplate;
+    private ClickRollupService clickRollupService;
+    private RedirectCache redirectCache;
+    private ShortCodeBloomFilter shortCodeBloomFilter;
+    private ClickIngestionService clickIngestionService;
+    private ClickCounterService clickCounterService;
+    private HotLinkTracker hotLinkTracker;
+    private ShortCodeGenerator shortCodeGenerator;
+    private UrlDeduplicator urlDeduplicator;
+    private ReplicaRouting replicaRouting;
+
+    public enum UrlSort {
+        CREATED, CLICKS;
+
+        public static UrlSort parse(String value) {
+            for (UrlSort sort : values()) {
+                if (sort.name().equalsIgnoreCase(value)) {
+                    return sort;
+                }
+            }
+            throw new IllegalArgumentException("Unknown sort '" + value + "', expected created or clicks");
+        }
+    }
+
+    // position after the last row of a page, opaque to clients: base64url of "sort,key,id"
+    record PageCursor(LocalDateTime dateCreated, long clicks, long id) {
+
+        static String encode(UrlSort sort, UrlDto last) {
+            String key = sort == UrlSort.CREATED ? last.getDateCreated().toString() : Long.toString(last.getClicks());
+            String value = sort.name() + "," + key + "," + last.getId();
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static PageCursor decode(String cursor, UrlSort sort) {
+            try {
+                String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(",");
+                if (parts.length == 3 && parts[0].equals(sort.name())) {
+                    long id = Long.parseLong(parts[2]);
+                    return sort == UrlSort.CREATED
+                            ? new PageCursor(LocalDateTime.parse(parts[1]), 0, id)
+                            : new PageCursor(null, Long.parseLong(parts[1]), id);
+                }
+            } catch (IllegalArgumentException | DateTimeParseException e) {
+                // reported below
+            }
+            throw new IllegalArgumentException("Invalid cursor for sort " + sort.name().toLowerCase(Locale.ROOT));
+        }
+    }
+
+    private static final int MAX_PAGE_SIZE = 500;
+    private static final String SHORT_CODE_CONSTRAINT = "url_shortened_url_key";
+    private static final int MAX_GENERATED_ATTEMPTS = 3;
 
     public UrlDto createShortUrl(UrlDto urlDto, User user) {
-        String shortUrl;
-        if (urlDto.getCustomAlias() != null && !urlDto.getCustomAlias().trim().isEmpty()) {
-            if (urlRepository.findByShortenedUrl(urlDto.getCustomAlias()) != null) {
-                throw new AliasAlreadyExistsException("Custom alias '" + urlDto.getCustomAlias() + "' is already taken.");
+        String customAlias = urlDto.getCustomAlias();
+        boolean custom = customAlias != null && !customAlias.trim().isEmpty();
+
+        // no existence check, the unique index on shortened_url decides who gets a code
+        Url savedUrl;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                Url url = newUrl(urlDto.getUrl(), user);
+                if (custom || !urlDeduplicator.isEnabled()) {
+                    url.setShortenedUrl(custom ? customAlias : shortCodeGenerator.next());
+                    savedUrl = urlRepository.save(url);
+                } else {
+                    // a code is only taken when the user has no link to this destination yet
+                    Url existing = urlDeduplicator.findExistingOrInsert(urlDto.getUrl(), user, () -> {
+                        url.setShortenedUrl(shortCodeGenerator.next());
+                        urlRepository.save(url);
+                    });
+                    if (existing != null) {
+                        return convertToDto(existing);
+                    }
+                    savedUrl = url;
+                }
+                break;
+            } catch (DataIntegrityViolationException e) {
+                if (!isShortCodeConflict(e)) {
+                    throw e;
+                }
+                if (custom) {
+                    throw new AliasAlreadyExistsException("Custom alias '" + customAlias + "' is already taken.");
+                }
+                // a custom alias already claimed this generated code, take the next id
+                if (attempt == MAX_GENERATED_ATTEMPTS) {
+                    throw e;
+                }
             }
-            shortUrl = urlDto.getCustomAlias();
-        } else {
-            shortUrl = generateShortUrl();
         }
+        shortCodeBloomFilter.put(savedUrl.getShortenedUrl());
+        redirectCache.put(savedUrl.getShortenedUrl(), new RedirectTarget(savedUrl.getId(), savedUrl.getUrl()));
+        return convertToDto(savedUrl);
+    }
 
+    private static Url newUrl(String destination, User user) {
         Url url = new Url();
-        url.setUrl(urlDto.getUrl());
-        url.setShortenedUrl(shortUrl);
+        url.setUrl(destination);
+        url.setUrlHash(UrlDeduplicator.hash(destination));
         url.setUser(user);
         url.setDateCreated(LocalDateTime.now());
-        Url savedUrl = urlRepository.save(url);
-        return convertToDto(savedUrl);
+        return url;
+    }
+
+    private static boolean isShortCodeConflict(DataIntegrityViolationException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConstraintViolationException violation) {
+                return SHORT_CODE_CONSTRAINT.equalsIgnoreCase(violation.getConstraintName());
+            }
+        }
+        return false;
     }
 
     private UrlDto convertToDto(Url url){
@@ -59,67 +156,68 @@ public class UrlService {
         return urlDto;
     }
 
-    private String generateShortUrl() {
-        String characters = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
-
-        Random random = new Random();
-        StringBuilder shortUrl = new StringBuilder(8);
-
-        for (int i = 0; i < 8; i++) {
-            shortUrl.append(characters.charAt(random.nextInt(characters.length())));
+    /**
+     * One page of the user's links, read as a projection without loading the Url entities.
+     * cursor is the nextCursor of the previous page, null for the first one. In click order a link whose
+     * count changes while the user is paging can move across the page boundary and be skipped or repeated.
+     */
+    public UrlPageDto getUrlsByUser(User user, UrlSort sort, String cursor, int limit) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_PAGE_SIZE);
         }
-        return shortUrl.toString();
+        PageCursor after = cursor == null ? null : PageCursor.decode(cursor, sort);
+        // one extra row tells whether there is a next page
+        Limit fetch = Limit.of(limit + 1);
+        List<UrlDto> rows = replicaRouting.read(() -> switch (sort) {
+            case CREATED -> after == null
+                    ? urlRepository.findPageByUserOrderByCreated(user, fetch)
+                    : urlRepository.findPageByUserOrderByCreatedAfter(user, after.dateCreated(), after.id(), fetch);
+            case CLICKS -> after == null
+                    ? urlRepository.findPageByUserOrderByClicks(user, fetch)
+                    : urlRepository.findPageByUserOrderByClicksAfter(user, after.clicks(), after.id(), fetch);
+        });
+        boolean more = rows.size() > limit;
+        List<UrlDto> page = more ? rows.subList(0, limit) : rows;
+        page.forEach(dto -> dto.setUsername(user.getUsername()));
+        return new UrlPageDto(page, more ? PageCursor.encode(sort, page.get(page.size() - 1)) : null);
     }
 
-    public List<UrlDto> getUrlsByUser(User user) {
-        return urlRepository.findByUser(user).stream()
-                .map(this::convertToDto)
-                .toList();
-    }
-
-    public List<ClicksDto> getClickEventsByDate(String shortenedUrl, LocalDateTime start, LocalDateTime end) {
-        Url url = urlRepository.findByShortenedUrl(shortenedUrl);
-        if (url == null) {
-            throw new com.urler.exception.ResourceNotFoundException("URL '" + shortenedUrl + "' not found.");
-        }
-        return clicksRepository.findByUrlAndClickDateBetween(url, start, end).stream()
-                .collect(Collectors.groupingBy(click -> click.getClickDate().toLocalDate(), Collectors.counting()))
-                .entrySet().stream()
-                .map(entry -> {
-                    ClicksDto clicksDto = new ClicksDto();
-                    clicksDto.setClickDate(entry.getKey());
-                    clicksDto.setCount(entry.getValue());
-                    return clicksDto;
-                })
-                .collect(Collectors.toList());
+    public List<ClicksDto> getClickEventsByDate(String shortenedUrl, LocalDateTime start, LocalDateTime end,
+                                                ClickRollupService.Granularity granularity, ZoneId zone) {
+        return replicaRouting.read(() -> {
+            Url url = urlRepository.findByShortenedUrl(shortenedUrl);
+            if (url == null) {
+                throw new com.urler.exception.ResourceNotFoundException("URL '" + shortenedUrl + "' not found.");
+            }
+            return clickRollupService.series(url.getId(), granularity, zone, start, end).entrySet().stream()
+                    .map(entry -> {
+                        ClicksDto clicksDto = new ClicksDto();
+                        clicksDto.setClickDate(entry.getKey().toLocalDate());
+                        clicksDto.setBucket(entry.getKey().atZone(zone).toOffsetDateTime());
+                        clicksDto.setCount(entry.getValue());
+                        return clicksDto;
+                    })
+                    .collect(Collectors.toList());
+        });
     }
 
     public Map<LocalDate, Long> getTotalClicksByUserAndDate(User user, LocalDate start, LocalDate end) {
-        List<Url> urls = urlRepository.findByUser(user);
-        List<Clicks> clicks = clicksRepository.findByUrlInAndClickDateBetween(urls, start.atStartOfDay(), end.plusDays(1).atStartOfDay());
-        return clicks.stream()
-                .collect(Collectors.groupingBy(click -> click.getClickDate().toLocalDate(), Collectors.counting()));
-
+        return replicaRouting.read(() -> clickRollupService.totalClicksByDay(user, start, end));
     }
 
-    public Url getOriginalUrl(String shortenedUrl) {
-        Url url = urlRepository.findByShortenedUrl(shortenedUrl);
-        if (url != null) {
-            url.setClicks(url.getClicks() + 1);
-            urlRepository.save(url);
-
-            // Record Click Event
-            LocalDateTime now = LocalDateTime.now();
-            Clicks clicks = new Clicks();
-            clicks.setClickDate(now);
-            clicks.setUrl(url);
-            clicksRepository.save(clicks);
-
-            // Publish WebSocket message
-            ClickEventMessage message = new ClickEventMessage(url.getId(), url.getClicks(), now);
-            messagingTemplate.convertAndSend("/topic/clicks/" + url.getId(), message);
+    public RedirectTarget getOriginalUrl(String shortenedUrl) {
+        // definitely unknown codes (scanners, typos) are answered without a lookup
+        if (!shortCodeBloomFilter.mightContain(shortenedUrl)) {
+            return null;
+        }
+        RedirectTarget target = redirectCache.get(shortenedUrl);
+        if (target != null) {
+            // Record Click Event, the counter and the Clicks row are both persisted asynchronously
+            clickCounterService.increment(target.getId());
+            clickIngestionService.record(target.getId(), LocalDateTime.now());
+            hotLinkTracker.offer(shortenedUrl);
         }
 
-        return url;
+        return target;
     }
 }
@@ -1,11 +1,15 @@
 package com.urler.service;
 
 import com.urler.dto.LoginRequest;
+import com.urler.exception.ResourceNotFoundException;
 import com.urler.repository.UserRepository;
 import com.urler.security.jwt.JwtAuthenticationResponse;
 import com.urler.security.jwt.JwtUtils;
+import com.urler.security.jwt.TokenRevocationList;
 import com.urler.table.User;
 import com.urler.table.UserDetailsImpl;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
 import lombok.AllArgsConstructor;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
@@ -15,6 +19,8 @@ import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 
+import java.security.Principal;
+
 @Service
 @AllArgsConstructor
 public class UserService {
@@ -22,6 +28,7 @@ public class UserService {
     private UserRepository userRepository;
     private AuthenticationManager authenticationManager;
     private JwtUtils jwtUtils;
+    private TokenRevocationList tokenRevocationList;
 
     public User registerUser(User user){
         user.setPassword(passwordEncoder.encode(user.getPassword()));
@@ -38,6 +45,45 @@ public class UserService {
         return new JwtAuthenticationResponse(jwt);
     }
 
+    // logs out one token, an invalid or expired token has nothing left to revoke
+    public void logout(String jwt) {
+        try {
+            Claims claims = jwtUtils.parseClaims(jwt);
+            UserDetailsImpl principal = jwtUtils.getPrincipalFromClaims(claims);
+            if (principal != null) {
+                tokenRevocationList.deny(claims.getId(), principal.getId(), claims.getExpiration());
+            }
+        } catch (JwtException e) {
+            // nothing to do
+        }
+    }
+
+    // the new role only shows in tokens issued after the change, so every existing token is revoked with it
+    public void changeRole(String username, String role) {
+        User user = userRepository.findByUsername(username).orElseThrow(
+                () -> new ResourceNotFoundException("User '" + username + "' not found."));
+        userRepository.updateRole(user.getId(), role);
+        tokenRevocationList.versionChanged(user.getId());
+    }
+
+    /**
+     * The authenticated user, built from the token's claims when the principal came from a JWT so the
+     * request does not query users. Only id, username and role are set, which is all the services
+     * need to scope queries and to reference the user from new rows.
+     */
+    public User currentUser(Principal principal) {
+        if (principal instanceof Authentication authentication
+                && authentication.getPrincipal() instanceof UserDetailsImpl details) {
+            User user = new User();
+            user.setId(details.getId());
+            user.setUsername(details.getUsername());
+            user.setTokenVersion(details.getTokenVersion());
+            details.getAuthorities().stream().findFirst().ifPresent(authority -> user.setRole(authority.getAuthority()));
+            return user;
+        }
+        return findByUsername(principal.getName());
+    }
+
     public User findByUsername(String name) {
         return userRepository.findByUsername(name).orElseThrow(
                 () -> new UsernameNotFoundException("User not found with username: " + name)
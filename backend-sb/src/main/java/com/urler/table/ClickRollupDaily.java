@@ -0,0 +1,29 @@
+package com.urler.table;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+
+// clicks per url and day, maintained by ClickRollupService as click batches are written
+@Entity
+@Data
+@IdClass(ClickRollupDaily.Key.class)
+public class ClickRollupDaily {
+    @Id
+    private Long urlId;
+    @Id
+    private LocalDate day;
+    private long clicks;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private Long urlId;
+        private LocalDate day;
+    }
+}
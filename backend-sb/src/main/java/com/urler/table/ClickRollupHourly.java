@@ -0,0 +1,30 @@
+package com.urler.table;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+// clicks per url and hour, maintained by ClickRollupService as click batches are written
+@Entity
+@Data
+@IdClass(ClickRollupHourly.Key.class)
+public class ClickRollupHourly {
+    @Id
+    private Long urlId;
+    @Id
+    // start of the hour, in the same local time as Clicks.clickDate
+    private LocalDateTime bucket;
+    private long clicks;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private Long urlId;
+        private LocalDateTime bucket;
+    }
+}
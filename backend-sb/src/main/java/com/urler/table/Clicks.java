@@ -9,12 +9,16 @@ import java.time.LocalDateTime;
 @Data
 public class Clicks {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    // pooled sequence instead of IDENTITY so Hibernate can batch the inserts from ClickBatchWriter
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "clicks_seq")
+    @SequenceGenerator(name = "clicks_seq", sequenceName = "clicks_seq", allocationSize = 50)
     private Long id;
     private LocalDateTime clickDate;
 
+    // the foreign key is created by ClickPartitionManager: Hibernate cannot see constraints on the
+    // partitioned table and would try to add its own on every startup
     @ManyToOne
-    @JoinColumn(name = "url_id")
+    @JoinColumn(name = "url_id", foreignKey = @ForeignKey(ConstraintMode.NO_CONSTRAINT))
     private Url url;
     
 }
@@ -0,0 +1,23 @@
+package com.urler.table;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+// a logged-out token by its jti claim, kept until the token would have expired anyway, see TokenRevocationList
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "revoked_tokens")
+public class RevokedToken {
+    @Id
+    private String jti;
+    @Column(nullable = false)
+    private Long userId;
+    @Column(nullable = false)
+    private Instant expiresAt;
+}
@@ -10,11 +10,15 @@ import java.util.List;
 @Data
 public class Url {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    // pooled sequence instead of IDENTITY so the bulk import can batch its inserts
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "url_seq")
+    @SequenceGenerator(name = "url_seq", sequenceName = "url_seq", allocationSize = 50)
     private Long id;
     private String url;
     private String shortenedUrl;
-    private int clicks = 0;
+    // UrlDeduplicator.hash of the normalized url, indexed together with user_id
+    private Long urlHash;
+    private long clicks = 0;
     private LocalDateTime dateCreated; // many-to-one relationship with users table
 
     @ManyToOne
@@ -2,6 +2,7 @@ package com.urler.table;
 
 import jakarta.persistence.*;
 import lombok.Data;
+import org.hibernate.annotations.ColumnDefault;
 
 @Entity
 @Data
@@ -19,4 +20,9 @@ public class User {
 
     private String password;
     private String role = "ROLE_USER";
+
+    // stamped into every token as the ver claim, bumping it revokes all tokens issued before
+    @ColumnDefault("0")
+    @Column(nullable = false)
+    private long tokenVersion = 0;
 }
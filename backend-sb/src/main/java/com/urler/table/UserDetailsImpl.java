@@ -22,6 +22,8 @@ public class UserDetailsImpl implements UserDetails { // UserDetails interface f
     private String email;
     private String password;
     private Collection<? extends GrantedAuthority> authorities;
+    // users.token_version when the user logged in, see User.tokenVersion
+    private long tokenVersion;
 
     public UserDetailsImpl(Long id, String username, String email, String password, Collection<? extends GrantedAuthority> authorities) {
         this.id = id;
@@ -34,13 +36,15 @@ public class UserDetailsImpl implements UserDetails { // UserDetails interface f
     // build user from our database to UserDetailsImpl for Spring Security
     public static UserDetailsImpl build(User user) {
         GrantedAuthority authority = new SimpleGrantedAuthority(user.getRole());
-        return new UserDetailsImpl(
+        UserDetailsImpl details = new UserDetailsImpl(
                 user.getId(),
                 user.getUsername(),
                 user.getEmail(),
                 user.getPassword(),
                 Collections.singletonList(authority)
         );
+        details.setTokenVersion(user.getTokenVersion());
+        return details;
     }
 
     @Override
@@ -0,0 +1,28 @@
+-- Idempotent schema fix-ups applied on every startup after Hibernate's ddl-auto=update.
+
+-- clicks.id moved from IDENTITY to the pooled clicks_seq, start the sequence past ids already issued by the identity column
+SELECT setval('clicks_seq', GREATEST((SELECT COALESCE(MAX(id), 0) FROM clicks), (SELECT last_value FROM clicks_seq)));
+
+-- url.id moved from IDENTITY to the pooled url_seq in the same way
+SELECT setval('url_seq', GREATEST((SELECT COALESCE(MAX(id), 0) FROM url), (SELECT last_value FROM url_seq)));
+
+-- url.clicks widened from int to bigint, a no-op once the column already is bigint
+ALTER TABLE url ALTER COLUMN clicks TYPE bigint;
+
+-- id blocks for generated short codes, INCREMENT BY must match ShortCodeGenerator.BLOCK_SIZE
+CREATE SEQUENCE IF NOT EXISTS short_code_seq START WITH 1 INCREMENT BY 1000;
+
+-- short codes are unique, generated codes and custom aliases are claimed by inserting against this index
+CREATE UNIQUE INDEX IF NOT EXISTS url_shortened_url_key ON url (shortened_url);
+
+-- per-user lookup of an existing link to the same destination, see UrlDeduplicator
+CREATE INDEX IF NOT EXISTS url_user_hash_idx ON url (user_id, url_hash);
+-- rows still without a url_hash, empty once UrlDeduplicator.backfillHashes has run
+CREATE INDEX IF NOT EXISTS url_hash_missing_idx ON url (id) WHERE url_hash IS NULL;
+
+-- keyset pages of GET /api/urls/myurls, one index per sort order
+CREATE INDEX IF NOT EXISTS url_user_created_idx ON url (user_id, date_created DESC, id DESC);
+CREATE INDEX IF NOT EXISTS url_user_clicks_idx ON url (user_id, clicks DESC, id DESC);
+
+-- logged-out tokens of a user, loaded with the user's token version, see TokenRevocationList
+CREATE INDEX IF NOT EXISTS revoked_tokens_user_idx ON revoked_tokens (user_id, expires_at);
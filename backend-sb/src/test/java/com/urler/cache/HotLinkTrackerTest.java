@@ -0,0 +1,68 @@
+package com.urler.cache;
+
+import com.urler.dto.HotLinkDto;
+import com.urler.repository.UrlRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for HotLinkTracker.
+ * Tests heavy-hitter detection over a skewed stream, decay between windows and pinning.
+ */
+@DisplayName("HotLinkTracker Tests")
+class HotLinkTrackerTest {
+
+    private RedirectCache redirectCache;
+    private HotLinkTracker tracker;
+
+    @BeforeEach
+    void setUp() {
+        redirectCache = mock(RedirectCache.class);
+        // 10 counters, pin the top 2 at >= 1 click/second over a 1 second window
+        tracker = new HotLinkTracker(redirectCache, mock(UrlRepository.class), 10, 2, 1.0, Duration.ofSeconds(1));
+    }
+
+    @Test
+    @DisplayName("Should find heavy hitters among a long tail of cold codes")
+    void testFindsHeavyHitters() {
+        for (int i = 0; i < 1000; i++) {
+            tracker.offer("viral");
+            if (i % 2 == 0) {
+                tracker.offer("warm");
+            }
+            tracker.offer("cold" + i);
+        }
+
+        tracker.rotate();
+
+        List<HotLinkDto> hottest = tracker.getHottest();
+        assertEquals(2, hottest.size());
+        assertEquals("viral", hottest.get(0).getShortenedUrl());
+        assertEquals("warm", hottest.get(1).getShortenedUrl());
+        assertEquals(1000.0, hottest.get(0).getClicksPerSecond());
+        verify(redirectCache).pin(argThat((Collection<String> codes) -> codes.containsAll(List.of("viral", "warm")) && codes.size() == 2));
+    }
+
+    @Test
+    @DisplayName("Should unpin codes that stop receiving clicks")
+    void testUnpinsCooledCodes() {
+        for (int i = 0; i < 100; i++) {
+            tracker.offer("viral");
+        }
+        tracker.rotate();
+        tracker.rotate();
+
+        assertEquals(0.0, tracker.getHottest().get(0).getClicksPerSecond());
+        assertEquals(25, tracker.getHottest().get(0).getCount());
+        verify(redirectCache).pin(List.of());
+    }
+}
@@ -0,0 +1,131 @@
+package com.urler.cache;
+
+import com.urler.dto.RedirectTarget;
+import com.urler.repository.UrlRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for RedirectCache.
+ * Tests loading, write-through and merging of concurrent misses.
+ */
+@DisplayName("RedirectCache Tests")
+class RedirectCacheTest {
+
+    private UrlRepository urlRepository;
+    private RedirectSnapshotStore snapshotStore;
+    private ExecutorService loadExecutor;
+    private RedirectCache redirectCache;
+
+    @BeforeEach
+    void setUp() {
+        urlRepository = mock(UrlRepository.class);
+        // same load executor as the virtual-thread mode
+        loadExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        snapshotStore = mock(RedirectSnapshotStore.class);
+        redirectCache = new RedirectCache(urlRepository, snapshotStore, new SimpleMeterRegistry(), 100, Duration.ofMinutes(1), true, loadExecutor);
+    }
+
+    @AfterEach
+    void tearDown() {
+        loadExecutor.shutdownNow();
+    }
+
+    @Test
+    @DisplayName("Should load from repository once and serve repeated lookups from cache")
+    void testLoadsOnceThenHits() {
+        RedirectTarget target = new RedirectTarget(1L, "https://example.com");
+        when(urlRepository.findRedirectTargetByShortenedUrl("abc123")).thenReturn(target);
+
+        assertEquals(target, redirectCache.get("abc123"));
+        assertEquals(target, redirectCache.get("abc123"));
+
+        verify(urlRepository, times(1)).findRedirectTargetByShortenedUrl("abc123");
+        assertEquals(1, redirectCache.stats().hitCount());
+        assertEquals(1, redirectCache.stats().missCount());
+    }
+
+    @Test
+    @DisplayName("Should not cache unknown codes")
+    void testUnknownCodeNotCached() {
+        when(urlRepository.findRedirectTargetByShortenedUrl("missing")).thenReturn(null);
+
+        assertNull(redirectCache.get("missing"));
+        assertNull(redirectCache.get("missing"));
+
+        verify(urlRepository, times(2)).findRedirectTargetByShortenedUrl("missing");
+    }
+
+    @Test
+    @DisplayName("Should serve written-through entries without touching the repository")
+    void testPutWritesThrough() {
+        RedirectTarget target = new RedirectTarget(2L, "https://google.com");
+        redirectCache.put("xyz789", target);
+
+        assertEquals(target, redirectCache.get("xyz789"));
+        verify(urlRepository, never()).findRedirectTargetByShortenedUrl(anyString());
+    }
+
+    @Test
+    @DisplayName("Should serve codes from the snapshot without querying the database")
+    void testSnapshotServedFirst() {
+        RedirectTarget target = new RedirectTarget(4L, "https://snapshot.example");
+        when(snapshotStore.lookup("warm")).thenReturn(target);
+
+        assertEquals(target, redirectCache.get("warm"));
+        verify(urlRepository, never()).findRedirectTargetByShortenedUrl(anyString());
+    }
+
+    @Test
+    @DisplayName("Should propagate database failures for codes the snapshot does not know")
+    void testDatabaseFailureWithoutSnapshotEntry() {
+        when(urlRepository.findRedirectTargetByShortenedUrl("new"))
+                .thenThrow(new DataAccessResourceFailureException("database down"));
+
+        assertThrows(CompletionException.class, () -> redirectCache.get("new"));
+    }
+
+    @Test
+    @DisplayName("Should merge concurrent misses for the same code into a single load")
+    void testConcurrentMissesSingleLoad() throws Exception {
+        RedirectTarget target = new RedirectTarget(3L, "https://example.org");
+        CountDownLatch loading = new CountDownLatch(1);
+        when(urlRepository.findRedirectTargetByShortenedUrl("viral")).thenAnswer(invocation -> {
+            loading.await();
+            return target;
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<RedirectTarget>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> redirectCache.get("viral")));
+            }
+            Thread.sleep(100);
+            loading.countDown();
+            for (Future<RedirectTarget> result : results) {
+                assertEquals(target, result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        verify(urlRepository, times(1)).findRedirectTargetByShortenedUrl("viral");
+    }
+}
@@ -0,0 +1,95 @@
+package com.urler.cache;
+
+import com.urler.dto.RedirectTarget;
+import com.urler.repository.RedirectRow;
+import com.urler.repository.UrlRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.domain.Limit;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for RedirectSnapshotStore.
+ * Tests writing a snapshot, mapping it again on startup and looking codes up.
+ */
+@DisplayName("RedirectSnapshotStore Tests")
+class RedirectSnapshotStoreTest {
+
+    @TempDir
+    Path tempDir;
+
+    private UrlRepository urlRepository;
+    private Path snapshotPath;
+
+    @BeforeEach
+    void setUp() {
+        urlRepository = mock(UrlRepository.class);
+        snapshotPath = tempDir.resolve("snapshot.bin");
+    }
+
+    private static RedirectRow row(long id, String code, String url) {
+        return new RedirectRow() {
+            public Long getId() { return id; }
+            public String getShortenedUrl() { return code; }
+            public String getUrl() { return url; }
+        };
+    }
+
+    @Test
+    @DisplayName("Should serve nothing when no snapshot exists")
+    void testNoSnapshot() {
+        RedirectSnapshotStore store = new RedirectSnapshotStore(urlRepository, snapshotPath, true);
+        store.open();
+
+        assertNull(store.lookup("abc123"));
+        assertEquals(0, store.getEntryCount());
+    }
+
+    @Test
+    @DisplayName("Should write a snapshot and serve it again after a restart")
+    void testWriteAndReopen() {
+        List<RedirectRow> rows = new ArrayList<>();
+        for (int i = 1; i <= 2000; i++) {
+            rows.add(row(i, "code" + i, "https://example.com/" + i));
+        }
+        rows.add(row(2001, "ünïcødé", "https://example.com/ünïcødé"));
+        when(urlRepository.findRedirectRowsAfter(eq(0L), any(Limit.class))).thenReturn(rows);
+
+        RedirectSnapshotStore writer = new RedirectSnapshotStore(urlRepository, snapshotPath, true);
+        writer.refresh();
+        assertTrue(Files.exists(snapshotPath));
+
+        // a new instance maps the existing file without touching the repository
+        UrlRepository unused = mock(UrlRepository.class);
+        RedirectSnapshotStore restarted = new RedirectSnapshotStore(unused, snapshotPath, true);
+        restarted.open();
+
+        assertEquals(2001, restarted.getEntryCount());
+        assertEquals(new RedirectTarget(1L, "https://example.com/1"), restarted.lookup("code1"));
+        assertEquals(new RedirectTarget(2000L, "https://example.com/2000"), restarted.lookup("code2000"));
+        assertEquals(new RedirectTarget(2001L, "https://example.com/ünïcødé"), restarted.lookup("ünïcødé"));
+        assertNull(restarted.lookup("missing"));
+        verifyNoInteractions(unused);
+    }
+
+    @Test
+    @DisplayName("Should ignore a corrupt snapshot file")
+    void testCorruptSnapshotIgnored() throws Exception {
+        Files.write(snapshotPath, new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20, 21, 22, 23, 24, 25, 26, 27, 28, 29, 30, 31, 32});
+
+        RedirectSnapshotStore store = new RedirectSnapshotStore(urlRepository, snapshotPath, true);
+        store.open();
+
+        assertNull(store.lookup("abc123"));
+    }
+}
@@ -0,0 +1,101 @@
+package com.urler.cache;
+
+import com.urler.repository.ShortCodeRow;
+import com.urler.repository.UrlRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Limit;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for ShortCodeBloomFilter.
+ * Tests rebuilding from the repository, false negatives and the false positive rate.
+ */
+@DisplayName("ShortCodeBloomFilter Tests")
+class ShortCodeBloomFilterTest {
+
+    private UrlRepository urlRepository;
+    private ShortCodeBloomFilter bloomFilter;
+
+    @BeforeEach
+    void setUp() {
+        urlRepository = mock(UrlRepository.class);
+        bloomFilter = new ShortCodeBloomFilter(urlRepository, new SimpleMeterRegistry(), 10_000, 0.01);
+    }
+
+    private static ShortCodeRow row(long id, String code) {
+        return new ShortCodeRow() {
+            public Long getId() { return id; }
+            public String getShortenedUrl() { return code; }
+        };
+    }
+
+    @Test
+    @DisplayName("Should report every code as possibly present before the first build")
+    void testNotReadyAcceptsEverything() {
+        assertFalse(bloomFilter.isReady());
+        assertTrue(bloomFilter.mightContain("anything"));
+    }
+
+    @Test
+    @DisplayName("Should contain every existing and newly added code after a rebuild")
+    void testNoFalseNegatives() {
+        List<ShortCodeRow> rows = new ArrayList<>();
+        for (int i = 1; i <= 5000; i++) {
+            rows.add(row(i, "code" + i));
+        }
+        when(urlRepository.count()).thenReturn(5000L);
+        when(urlRepository.findShortCodesAfter(eq(0L), any(Limit.class))).thenReturn(rows);
+
+        bloomFilter.rebuild();
+        bloomFilter.put("brandnew");
+
+        assertTrue(bloomFilter.isReady());
+        for (int i = 1; i <= 5000; i++) {
+            assertTrue(bloomFilter.mightContain("code" + i));
+        }
+        assertTrue(bloomFilter.mightContain("brandnew"));
+    }
+
+    @Test
+    @DisplayName("Should report every code as possibly present while negatives are distrusted")
+    void testDistrustedNegatives() {
+        when(urlRepository.count()).thenReturn(1L);
+        when(urlRepository.findShortCodesAfter(eq(0L), any(Limit.class))).thenReturn(List.of(row(1, "code1")));
+        assertTrue(bloomFilter.rebuildNow());
+
+        bloomFilter.distrustNegatives();
+        assertTrue(bloomFilter.mightContain("missing"));
+
+        bloomFilter.trustNegatives();
+        assertFalse(bloomFilter.mightContain("missing"));
+    }
+
+    @Test
+    @DisplayName("Should keep the false positive rate near the configured target")
+    void testFalsePositiveRate() {
+        List<ShortCodeRow> rows = new ArrayList<>();
+        for (int i = 1; i <= 10_000; i++) {
+            rows.add(row(i, "code" + i));
+        }
+        when(urlRepository.count()).thenReturn(10_000L);
+        when(urlRepository.findShortCodesAfter(eq(0L), any(Limit.class))).thenReturn(rows);
+        bloomFilter.rebuild();
+
+        int falsePositives = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (bloomFilter.mightContain("probe" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 2_000, "false positive rate too high: " + falsePositives);
+    }
+}
@@ -0,0 +1,111 @@
+package com.urler.config;
+
+import com.urler.service.ReplicaRouting;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for ReplicaRoutingDataSource.
+ * Tests which pool reads and writes are served from, the lag check against the primary's WAL position and the
+ * fallback to the primary.
+ */
+@DisplayName("ReplicaRoutingDataSource Tests")
+class ReplicaRoutingDataSourceTest {
+
+    private DataSource primary;
+    private DataSource replica;
+    private Connection primaryConnection;
+    private Connection replicaConnection;
+    private PreparedStatement lagStatement;
+    private ResultSet lag;
+    private ReplicaRoutingDataSource dataSource;
+    private ReplicaRouting replicaRouting;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        primary = mock(DataSource.class);
+        replica = mock(DataSource.class);
+        primaryConnection = mock(Connection.class);
+        replicaConnection = mock(Connection.class);
+        when(primary.getConnection()).thenReturn(primaryConnection);
+        when(replica.getConnection()).thenReturn(replicaConnection);
+        Statement statement = mock(Statement.class);
+        ResultSet lsn = mock(ResultSet.class);
+        when(primaryConnection.createStatement()).thenReturn(statement);
+        when(statement.executeQuery(anyString())).thenReturn(lsn);
+        when(lsn.next()).thenReturn(true);
+        when(lsn.getString(1)).thenReturn("0/3000148");
+        lagStatement = mock(PreparedStatement.class);
+        lag = mock(ResultSet.class);
+        when(replicaConnection.prepareStatement(anyString())).thenReturn(lagStatement);
+        when(lagStatement.executeQuery()).thenReturn(lag);
+        when(lag.next()).thenReturn(true);
+
+        dataSource = new ReplicaRoutingDataSource(primary, replica, Duration.ofSeconds(5));
+        replicaRouting = new ReplicaRouting(mock(PlatformTransactionManager.class));
+    }
+
+    @Test
+    @DisplayName("Should serve reads from a current replica and everything else from the primary")
+    void testRouting() throws SQLException {
+        when(lag.getDouble(1)).thenReturn(0.5);
+        dataSource.checkReplica();
+
+        assertTrue(dataSource.isReplicaUsable());
+        assertSame(primaryConnection, dataSource.getConnection());
+        assertSame(replicaConnection, replicaRouting.read(this::connection));
+        assertFalse(ReplicaRouting.isReplicaRequested());
+    }
+
+    @Test
+    @DisplayName("Should read from the primary while the replica lags or is down")
+    void testFallback() throws SQLException {
+        when(lag.getDouble(1)).thenReturn(30.0);
+        dataSource.checkReplica();
+        assertFalse(dataSource.isReplicaUsable());
+        assertSame(primaryConnection, replicaRouting.read(this::connection));
+
+        when(lag.getDouble(1)).thenReturn(0.0);
+        dataSource.checkReplica();
+        when(replica.getConnection()).thenThrow(new SQLException("Connection refused"));
+        assertSame(primaryConnection, replicaRouting.read(this::connection));
+        assertFalse(dataSource.isReplicaUsable());
+
+        dataSource.checkReplica();
+        assertTrue(Double.isNaN(dataSource.getLagSeconds()));
+    }
+
+    @Test
+    @DisplayName("Should measure the lag against the primary's position and not read from a replica of unknown lag")
+    void testUnknownLag() throws SQLException {
+        when(lag.getDouble(1)).thenReturn(0.0);
+        when(lag.wasNull()).thenReturn(true);
+        dataSource.checkReplica();
+
+        verify(lagStatement).setString(1, "0/3000148");
+        assertFalse(dataSource.isReplicaUsable());
+        assertTrue(Double.isNaN(dataSource.getLagSeconds()));
+    }
+
+    private Connection connection() {
+        try {
+            return dataSource.getConnection();
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.urler.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for WebSocketSessionMonitor.
+ * Tests that sessions count as behind while too many frames are unwritten and that hopeless sessions are closed.
+ */
+@DisplayName("WebSocketSessionMonitor Tests")
+class WebSocketSessionMonitorTest {
+
+    private WebSocketSession socket;
+    private WebSocketHandler handler;
+
+    @BeforeEach
+    void setUp() {
+        socket = mock(WebSocketSession.class);
+        when(socket.getId()).thenReturn("s1");
+        handler = mock(WebSocketHandler.class);
+    }
+
+    @Test
+    @DisplayName("Should report a session behind until its frames are written")
+    void testBehindUntilWritten() throws Exception {
+        WebSocketSessionMonitor monitor = new WebSocketSessionMonitor(new SimpleMeterRegistry(), 2, Duration.ofMinutes(1));
+        WebSocketSession counting = connect(monitor);
+
+        monitor.preSend(frame("s1"), null);
+        assertFalse(monitor.isBehind("s1"));
+        monitor.preSend(frame("s1"), null);
+        assertTrue(monitor.isBehind("s1"));
+
+        // heartbeats and other frames are not counted
+        counting.sendMessage(new TextMessage("\n"));
+        assertTrue(monitor.isBehind("s1"));
+        counting.sendMessage(new TextMessage("MESSAGE\ndestination:/user/queue/clicks\n\n[]\0"));
+        assertFalse(monitor.isBehind("s1"));
+        verify(socket, times(2)).sendMessage(any());
+    }
+
+    @Test
+    @DisplayName("Should close a session that stays behind longer than allowed")
+    void testClosesHopelessSession() throws Exception {
+        WebSocketSessionMonitor monitor = new WebSocketSessionMonitor(new SimpleMeterRegistry(), 1, Duration.ZERO);
+        connect(monitor);
+
+        monitor.closeHopeless();
+        verify(socket, never()).close(any());
+
+        monitor.preSend(frame("s1"), null);
+        Thread.sleep(1);
+        monitor.closeHopeless();
+
+        verify(socket).close(CloseStatus.SESSION_NOT_RELIABLE);
+        assertFalse(monitor.isOpen("s1"));
+    }
+
+    private WebSocketSession connect(WebSocketSessionMonitor monitor) throws Exception {
+        monitor.decorate(handler).afterConnectionEstablished(socket);
+        ArgumentCaptor<WebSocketSession> decorated = ArgumentCaptor.forClass(WebSocketSession.class);
+        verify(handler).afterConnectionEstablished(decorated.capture());
+        return decorated.getValue();
+    }
+
+    private static Message<byte[]> frame(String sessionId) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setSessionId(sessionId);
+        return MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders());
+    }
+}
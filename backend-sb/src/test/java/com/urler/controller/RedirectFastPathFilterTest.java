@@ -0,0 +1,72 @@
+package com.urler.controller;
+
+import com.urler.dto.RedirectTarget;
+import com.urler.service.UrlService;
+import jakarta.servlet.FilterChain;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for RedirectFastPathFilter.
+ * Tests which requests are served directly and which continue down the full filter chain.
+ */
+@DisplayName("RedirectFastPathFilter Tests")
+class RedirectFastPathFilterTest {
+
+    private UrlService urlService;
+    private FilterChain chain;
+    private RedirectFastPathFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        urlService = mock(UrlService.class);
+        chain = mock(FilterChain.class);
+        filter = new RedirectFastPathFilter(urlService);
+    }
+
+    @Test
+    @DisplayName("Should redirect known short codes without invoking the rest of the chain")
+    void testRedirectsKnownCode() throws Exception {
+        when(urlService.getOriginalUrl("abc123")).thenReturn(new RedirectTarget(1L, "https://example.com"));
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/abc123");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        filter.doFilter(request, response, chain);
+
+        assertEquals(302, response.getStatus());
+        assertEquals("https://example.com", response.getHeader("Location"));
+        verifyNoInteractions(chain);
+    }
+
+    @Test
+    @DisplayName("Should answer unknown short codes with an empty 404")
+    void testUnknownCode() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/nope");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        filter.doFilter(request, response, chain);
+
+        assertEquals(404, response.getStatus());
+        assertEquals(0, response.getContentLength());
+        verifyNoInteractions(chain);
+    }
+
+    @Test
+    @DisplayName("Should pass API, websocket and non-GET requests to the full chain")
+    void testPassesThroughOtherRoutes() throws Exception {
+        for (String uri : new String[]{"/api/urls/myurls", "/ws/info", "/api", "/actuator", "/", "/favicon.ico", "/a%20b"}) {
+            filter.doFilter(new MockHttpServletRequest("GET", uri), new MockHttpServletResponse(), chain);
+        }
+        filter.doFilter(new MockHttpServletRequest("POST", "/abc123"), new MockHttpServletResponse(), chain);
+
+        verify(chain, times(8)).doFilter(any(), any());
+        verify(urlService, never()).getOriginalUrl(anyString());
+    }
+}
@@ -2,6 +2,7 @@ package com.urler.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.urler.dto.UrlDto;
+import com.urler.dto.UrlPageDto;
 import com.urler.exception.AliasAlreadyExistsException;
 import com.urler.service.UrlService;
 import com.urler.service.UserService;
@@ -20,6 +21,7 @@ import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import java.time.LocalDateTime;
 import java.util.List;
 
+import static org.hamcrest.Matchers.nullValue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.when;
@@ -77,7 +79,7 @@ class UrlControllerIntegrationTest {
         responseDto.setDateCreated(LocalDateTime.now());
         responseDto.setUsername("testuser");
 
-        when(userService.findByUsername("testuser")).thenReturn(testUser);
+        when(userService.currentUser(any())).thenReturn(testUser);
         when(urlService.createShortUrl(any(UrlDto.class), eq(testUser))).thenReturn(responseDto);
 
         // send post request and verify response
@@ -108,7 +110,7 @@ class UrlControllerIntegrationTest {
         responseDto.setDateCreated(LocalDateTime.now());
         responseDto.setUsername("testuser");
 
-        when(userService.findByUsername("testuser")).thenReturn(testUser);
+        when(userService.currentUser(any())).thenReturn(testUser);
         when(urlService.createShortUrl(any(UrlDto.class), eq(testUser))).thenReturn(responseDto);
 
         // send post request and verify custom alias used
@@ -128,7 +130,7 @@ class UrlControllerIntegrationTest {
         requestDto.setUrl("https://example.com");
         requestDto.setCustomAlias("duplicate");
 
-        when(userService.findByUsername("testuser")).thenReturn(testUser);
+        when(userService.currentUser(any())).thenReturn(testUser);
         when(urlService.createShortUrl(any(UrlDto.class), eq(testUser)))
                 .thenThrow(new AliasAlreadyExistsException("Custom alias 'duplicate' is already taken."));
 
@@ -163,29 +165,34 @@ class UrlControllerIntegrationTest {
         url2.setUsername("testuser");
         url2.setDateCreated(LocalDateTime.now());
 
-        when(userService.findByUsername("testuser")).thenReturn(testUser);
-        when(urlService.getUrlsByUser(testUser)).thenReturn(List.of(url1, url2));
+        when(userService.currentUser(any())).thenReturn(testUser);
+        when(urlService.getUrlsByUser(testUser, UrlService.UrlSort.CLICKS, null, 2))
+                .thenReturn(new UrlPageDto(List.of(url1, url2), "next"));
 
         // get urls and verify response
         mockMvc.perform(get("/api/urls/myurls")
+                        .param("sort", "clicks")
+                        .param("limit", "2")
                         .principal(() -> "testuser"))
                 .andExpect(status().isOk())
-                .andExpect(jsonPath("$.length()").value(2))
-                .andExpect(jsonPath("$[0].shortenedUrl").value("link1"))
-                .andExpect(jsonPath("$[1].shortenedUrl").value("link2"));
+                .andExpect(jsonPath("$.urls.length()").value(2))
+                .andExpect(jsonPath("$.urls[0].shortenedUrl").value("link1"))
+                .andExpect(jsonPath("$.urls[1].shortenedUrl").value("link2"))
+                .andExpect(jsonPath("$.nextCursor").value("next"));
     }
 
     @Test
     @DisplayName("should return empty list when user has no urls")
     void testGetUserUrls_EmptyList() throws Exception {
         // setup empty list
-        when(userService.findByUsername("testuser")).thenReturn(testUser);
-        when(urlService.getUrlsByUser(testUser)).thenReturn(List.of());
+        when(userService.currentUser(any())).thenReturn(testUser);
+        when(urlService.getUrlsByUser(testUser, UrlService.UrlSort.CREATED, null, 50)).thenReturn(new UrlPageDto(List.of(), null));
 
-        // verify empty array returned
+        // verify empty page returned
         mockMvc.perform(get("/api/urls/myurls")
                         .principal(() -> "testuser"))
                 .andExpect(status().isOk())
-                .andExpect(jsonPath("$.length()").value(0));
+                .andExpect(jsonPath("$.urls.length()").value(0))
+                .andExpect(jsonPath("$.nextCursor").value(nullValue()));
     }
 }
@@ -0,0 +1,176 @@
+package com.urler.security.jwt;
+
+import com.urler.repository.RevokedTokenRepository;
+import com.urler.repository.UserRepository;
+import com.urler.table.RevokedToken;
+import com.urler.table.User;
+import com.urler.table.UserDetailsImpl;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.io.Decoders;
+import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.FilterChain;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for JwtAuthenticationFilter.
+ * Tests that the principal comes from the token's claims and that logged-out and outdated tokens are rejected,
+ * also by a node other than the one that served the logout.
+ */
+@DisplayName("JwtAuthenticationFilter Tests")
+class JwtAuthenticationFilterTest {
+
+    static final String SECRET = "0a89d98541a09bf4e68b54defec837eb83c368c52cc1037a4932a923ea3ad4d809875f8b48f7be88176cf2ee4842bdaffcf568cc2c546b2669eed83804a5cb22";
+
+    private UserRepository userRepository;
+    private RevokedTokenRepository revokedTokenRepository;
+    private JwtUtils jwtUtils;
+    private TokenRevocationList revocationList;
+    private JwtAuthenticationFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        userRepository = mock(UserRepository.class);
+        when(userRepository.findTokenVersionById(7L)).thenReturn(Optional.of(3L));
+        // a shared revoked_tokens table
+        revokedTokenRepository = mock(RevokedTokenRepository.class);
+        List<String> revoked = new ArrayList<>();
+        when(revokedTokenRepository.save(any())).thenAnswer(invocation -> {
+            revoked.add(invocation.<RevokedToken>getArgument(0).getJti());
+            return invocation.getArgument(0);
+        });
+        when(revokedTokenRepository.findLiveJtisByUserId(eq(7L), any())).thenAnswer(invocation -> List.copyOf(revoked));
+        jwtUtils = new JwtUtils(SECRET, 3_600_000, 100, Duration.ofMinutes(5), new SimpleMeterRegistry());
+        revocationList = revocationList(Duration.ofMinutes(1));
+        filter = filter(revocationList);
+    }
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    @DisplayName("Should build the principal from the claims with one cached version lookup")
+    void testPrincipalFromClaims() throws Exception {
+        String token = token(3);
+
+        Authentication authentication = authenticate(token);
+        assertNotNull(authentication);
+        UserDetailsImpl principal = (UserDetailsImpl) authentication.getPrincipal();
+        assertEquals(7L, principal.getId());
+        assertEquals("alice", principal.getUsername());
+        assertEquals(3L, principal.getTokenVersion());
+        assertTrue(authentication.getAuthorities().stream().anyMatch(a -> a.getAuthority().equals("ROLE_USER")));
+
+        SecurityContextHolder.clearContext();
+        assertNotNull(authenticate(token));
+        verify(userRepository, times(1)).findTokenVersionById(7L);
+        verify(userRepository, never()).findByUsername(any());
+    }
+
+    @Test
+    @DisplayName("Should reject a logged-out token but not the user's other tokens")
+    void testDeniedToken() throws Exception {
+        String loggedOut = token(3);
+        String other = token(3);
+
+        var claims = jwtUtils.parseClaims(loggedOut);
+        revocationList.deny(claims.getId(), 7L, claims.getExpiration());
+
+        assertNull(authenticate(loggedOut));
+        assertNotNull(authenticate(other));
+    }
+
+    @Test
+    @DisplayName("Should reject a token logged out on another node once that node's cached entry expired")
+    void testDeniedOnOtherNode() throws Exception {
+        String loggedOut = token(3);
+        JwtAuthenticationFilter otherNode = filter(revocationList(Duration.ZERO));
+        assertNotNull(authenticate(otherNode, loggedOut));
+
+        var claims = jwtUtils.parseClaims(loggedOut);
+        revocationList.deny(claims.getId(), 7L, claims.getExpiration());
+
+        assertNull(authenticate(otherNode, loggedOut));
+        assertNotNull(authenticate(otherNode, token(3)));
+    }
+
+    @Test
+    @DisplayName("Should reject tokens issued before the user's version was bumped")
+    void testOutdatedVersion() throws Exception {
+        String token = token(3);
+        assertNotNull(authenticate(token));
+        SecurityContextHolder.clearContext();
+
+        when(userRepository.findTokenVersionById(7L)).thenReturn(Optional.of(4L));
+        revocationList.versionChanged(7L);
+
+        assertNull(authenticate(token));
+        assertNotNull(authenticate(token(4)));
+    }
+
+    @Test
+    @DisplayName("Should not authenticate a token without the uid and ver claims")
+    void testLegacyToken() throws Exception {
+        String legacy = Jwts.builder()
+                .subject("alice")
+                .claim("roles", "ROLE_USER")
+                .expiration(new Date(System.currentTimeMillis() + 60_000))
+                .signWith(Keys.hmacShaKeyFor(Decoders.BASE64.decode(SECRET)))
+                .compact();
+
+        assertNull(authenticate(legacy));
+    }
+
+    private String token(long version) {
+        User user = new User();
+        user.setId(7L);
+        user.setUsername("alice");
+        user.setTokenVersion(version);
+        return jwtUtils.generateJwtToken(UserDetailsImpl.build(user));
+    }
+
+    private TokenRevocationList revocationList(Duration ttl) {
+        return new TokenRevocationList(userRepository, revokedTokenRepository, new SimpleMeterRegistry(), 100, ttl);
+    }
+
+    private JwtAuthenticationFilter filter(TokenRevocationList revocationList) {
+        JwtAuthenticationFilter filter = new JwtAuthenticationFilter();
+        ReflectionTestUtils.setField(filter, "jwtTokenProvider", jwtUtils);
+        ReflectionTestUtils.setField(filter, "tokenRevocationList", revocationList);
+        return filter;
+    }
+
+    private Authentication authenticate(String token) throws Exception {
+        return authenticate(filter, token);
+    }
+
+    private Authentication authenticate(JwtAuthenticationFilter filter, String token) throws Exception {
+        SecurityContextHolder.clearContext();
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/urls/myurls");
+        request.addHeader("Authorization", "Bearer " + token);
+        FilterChain chain = mock(FilterChain.class);
+        filter.doFilter(request, new MockHttpServletResponse(), chain);
+        verify(chain).doFilter(any(), any());
+        return SecurityContextHolder.getContext().getAuthentication();
+    }
+}
@@ -0,0 +1,66 @@
+package com.urler.security.jwt;
+
+import com.urler.table.User;
+import com.urler.table.UserDetailsImpl;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwtException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for JwtUtils.
+ * Tests the verified-token cache: repeated tokens hit it, tampered and expired tokens never do.
+ */
+@DisplayName("JwtUtils Tests")
+class JwtUtilsTest {
+
+    private final JwtUtils jwtUtils = new JwtUtils(JwtAuthenticationFilterTest.SECRET, 3_600_000, 100,
+            Duration.ofMinutes(5), new SimpleMeterRegistry());
+
+    @Test
+    @DisplayName("Should serve a repeated token from the cache")
+    void testCachedClaims() {
+        String token = jwtUtils.generateJwtToken(user());
+
+        Claims first = jwtUtils.parseClaims(token);
+        assertSame(first, jwtUtils.parseClaims(token));
+        assertEquals("alice", first.getSubject());
+    }
+
+    @Test
+    @DisplayName("Should verify a tampered token in full even when the original is cached")
+    void testTamperedToken() {
+        String token = jwtUtils.generateJwtToken(user());
+        jwtUtils.parseClaims(token);
+
+        int signature = token.lastIndexOf('.') + 1;
+        String tampered = token.substring(0, signature)
+                + (token.charAt(signature) == 'A' ? 'B' : 'A') + token.substring(signature + 1);
+
+        assertThrows(JwtException.class, () -> jwtUtils.parseClaims(tampered));
+    }
+
+    @Test
+    @DisplayName("Should reject an expired token")
+    void testExpiredToken() {
+        JwtUtils shortLived = new JwtUtils(JwtAuthenticationFilterTest.SECRET, -1_000, 100,
+                Duration.ofMinutes(5), new SimpleMeterRegistry());
+        String token = shortLived.generateJwtToken(user());
+
+        assertThrows(ExpiredJwtException.class, () -> shortLived.parseClaims(token));
+        assertThrows(ExpiredJwtException.class, () -> shortLived.parseClaims(token));
+    }
+
+    private static UserDetailsImpl user() {
+        User user = new User();
+        user.setId(7L);
+        user.setUsername("alice");
+        return UserDetailsImpl.build(user);
+    }
+}
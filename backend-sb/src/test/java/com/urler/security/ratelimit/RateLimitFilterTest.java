@@ -0,0 +1,85 @@
+package com.urler.security.ratelimit;
+
+import com.urler.table.UserDetailsImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.FilterChain;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for RateLimitFilter.
+ * Tests the 429 response, which requests each route covers and the per-user key of the shorten route.
+ */
+@DisplayName("RateLimitFilter Tests")
+class RateLimitFilterTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private RateLimiter rateLimiter;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        rateLimiter = new RateLimiter(meterRegistry, 0.5, 2, 0.5, 1);
+    }
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    @DisplayName("Should answer redirects over the limit with 429 and Retry-After")
+    void testRedirectLimit() throws Exception {
+        RateLimitFilter filter = new RateLimitFilter(rateLimiter, RateLimiter.Route.REDIRECT);
+
+        assertEquals(200, run(filter, "GET", "/abc123", "10.0.0.1").getStatus());
+        assertEquals(200, run(filter, "GET", "/abc123", "10.0.0.1").getStatus());
+        MockHttpServletResponse limited = run(filter, "GET", "/other", "10.0.0.1");
+        assertEquals(429, limited.getStatus());
+        assertEquals("2", limited.getHeader("Retry-After"));
+
+        assertEquals(200, run(filter, "GET", "/abc123", "10.0.0.2").getStatus());
+        assertEquals(200, run(filter, "GET", "/api/urls/myurls", "10.0.0.1").getStatus());
+        assertEquals(3.0, meterRegistry.counter("urler.ratelimit.requests", "route", "redirect", "outcome", "accepted").count());
+        assertEquals(1.0, meterRegistry.counter("urler.ratelimit.requests", "route", "redirect", "outcome", "rejected").count());
+    }
+
+    @Test
+    @DisplayName("Should limit shortening per user rather than per address")
+    void testShortenLimitPerUser() throws Exception {
+        RateLimitFilter filter = new RateLimitFilter(rateLimiter, RateLimiter.Route.SHORTEN);
+
+        authenticate(1L);
+        assertEquals(200, run(filter, "POST", "/api/urls/shorten", "10.0.0.1").getStatus());
+        assertEquals(429, run(filter, "POST", "/api/urls/bulk", "10.0.0.2").getStatus());
+        assertEquals(200, run(filter, "GET", "/api/urls/myurls", "10.0.0.1").getStatus());
+
+        authenticate(2L);
+        assertEquals(200, run(filter, "POST", "/api/urls/shorten", "10.0.0.1").getStatus());
+    }
+
+    private static void authenticate(long userId) {
+        UserDetailsImpl user = new UserDetailsImpl(userId, "user" + userId, null, null, List.of());
+        SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(user, null, List.of()));
+    }
+
+    private static MockHttpServletResponse run(RateLimitFilter filter, String method, String uri, String address) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, uri);
+        request.setRemoteAddr(address);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        FilterChain chain = mock(FilterChain.class);
+        filter.doFilter(request, response, chain);
+        return response;
+    }
+}
@@ -0,0 +1,94 @@
+package com.urler.security.ratelimit;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for TokenBucketStore.
+ * Tests bursts, refill, the retry delay, per-client isolation, eviction and concurrent acquisition.
+ */
+@DisplayName("TokenBucketStore Tests")
+class TokenBucketStoreTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    @DisplayName("Should allow a full burst, then one request per interval")
+    void testBurstAndRefill() {
+        TokenBucketStore store = new TokenBucketStore(2, 3);
+        long now = 1_000 * SECOND;
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, store.tryAcquire("a", now));
+        }
+        assertEquals(SECOND / 2, store.tryAcquire("a", now));
+        assertEquals(SECOND / 4, store.tryAcquire("a", now + SECOND / 4));
+
+        assertEquals(0, store.tryAcquire("a", now + SECOND / 2));
+        assertTrue(store.tryAcquire("a", now + SECOND / 2) > 0);
+    }
+
+    @Test
+    @DisplayName("Should keep clients apart")
+    void testClientsIsolated() {
+        TokenBucketStore store = new TokenBucketStore(1, 1);
+
+        assertEquals(0, store.tryAcquire("a", 0));
+        assertTrue(store.tryAcquire("a", 0) > 0);
+        assertEquals(0, store.tryAcquire("b", 0));
+    }
+
+    @Test
+    @DisplayName("Should evict only buckets that have refilled")
+    void testEvictIdle() {
+        TokenBucketStore store = new TokenBucketStore(1, 10);
+        store.tryAcquire("idle", 0);
+        for (int i = 0; i < 5; i++) {
+            store.tryAcquire("busy", 5 * SECOND);
+        }
+
+        assertEquals(1, store.evictIdle(5 * SECOND));
+        // the busy bucket is still drained and keeps refusing
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, store.tryAcquire("busy", 5 * SECOND));
+        }
+        assertTrue(store.tryAcquire("busy", 5 * SECOND) > 0);
+    }
+
+    @Test
+    @DisplayName("Should hand out exactly the burst under contention")
+    void testConcurrentAcquire() throws InterruptedException {
+        TokenBucketStore store = new TokenBucketStore(0.001, 500);
+        long now = System.nanoTime();
+        AtomicInteger granted = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            executor.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 200; i++) {
+                    if (store.tryAcquire("shared", now) == 0) {
+                        granted.incrementAndGet();
+                    }
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(500, granted.get());
+    }
+}
@@ -0,0 +1,112 @@
+package com.urler.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.urler.cache.ShortCodeBloomFilter;
+import com.urler.dto.UrlDto;
+import com.urler.exception.AliasAlreadyExistsException;
+import com.urler.table.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for BulkShortenService.
+ * Tests NDJSON and CSV parsing, chunking and the per-row fallback when a chunk is rejected.
+ */
+@DisplayName("BulkShortenService Tests")
+class BulkShortenServiceTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private UrlService urlService;
+    private UrlBatchWriter urlBatchWriter;
+    private ShortCodeGenerator shortCodeGenerator;
+    private BulkShortenService bulkShortenService;
+    private User user;
+
+    @BeforeEach
+    void setUp() {
+        urlService = mock(UrlService.class);
+        urlBatchWriter = mock(UrlBatchWriter.class);
+        shortCodeGenerator = mock(ShortCodeGenerator.class);
+        when(shortCodeGenerator.next()).thenReturn("AAAAAAAB", "AAAAAAAC", "AAAAAAAD");
+        // chunks of 2 rows
+        bulkShortenService = new BulkShortenService(urlService, urlBatchWriter, shortCodeGenerator,
+                mock(ShortCodeBloomFilter.class), mock(UrlDeduplicator.class), objectMapper, 2);
+        user = new User();
+    }
+
+    @Test
+    @DisplayName("Should insert NDJSON lines in chunks and report one result per line")
+    void testNdjsonChunks() throws Exception {
+        String upload = """
+                {"url":"https://a.com"}
+                {"url":"https://b.com","customAlias":"bee"}
+                not json
+                {"url":"https://c.com"}
+                """;
+
+        List<JsonNode> results = run(upload, BulkShortenService.Format.NDJSON, 3);
+
+        assertEquals(4, results.size());
+        assertEquals("AAAAAAAB", results.get(0).get("shortenedUrl").asText());
+        assertEquals("bee", results.get(1).get("shortenedUrl").asText());
+        assertEquals("Malformed line", results.get(2).get("error").asText());
+        assertEquals(4, results.get(3).get("line").asLong());
+        verify(urlBatchWriter, times(2)).write(anyList());
+    }
+
+    @Test
+    @DisplayName("Should parse CSV with a header row and quoted fields")
+    void testCsv() throws Exception {
+        String upload = "url,customAlias\n\"https://a.com/?q=1,2\",\nhttps://b.com,bee\n";
+
+        List<JsonNode> results = run(upload, BulkShortenService.Format.CSV, 2);
+
+        assertEquals(2, results.size());
+        assertEquals("https://a.com/?q=1,2", results.get(0).get("url").asText());
+        assertEquals(2, results.get(0).get("line").asLong());
+        assertEquals("bee", results.get(1).get("shortenedUrl").asText());
+    }
+
+    @Test
+    @DisplayName("Should retry a rejected chunk row by row and report only the failing rows")
+    void testChunkFallback() throws Exception {
+        doThrow(new DataIntegrityViolationException("duplicate key")).when(urlBatchWriter).write(anyList());
+        when(urlService.createShortUrl(argThat(dto -> dto != null && "taken".equals(dto.getCustomAlias())), any()))
+                .thenThrow(new AliasAlreadyExistsException("Custom alias 'taken' is already taken."));
+        UrlDto saved = new UrlDto();
+        saved.setShortenedUrl("AAAAAAAZ");
+        when(urlService.createShortUrl(argThat(dto -> dto != null && dto.getCustomAlias() == null), any())).thenReturn(saved);
+
+        List<JsonNode> results = run("https://a.com,taken\nhttps://b.com\n", BulkShortenService.Format.CSV, 1);
+
+        assertTrue(results.get(0).get("shortenedUrl").isNull());
+        assertTrue(results.get(0).get("error").asText().contains("already taken"));
+        assertEquals("AAAAAAAZ", results.get(1).get("shortenedUrl").asText());
+    }
+
+    private List<JsonNode> run(String upload, BulkShortenService.Format format, long expectedCreated) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long created = bulkShortenService.shorten(
+                new ByteArrayInputStream(upload.getBytes(StandardCharsets.UTF_8)), format, user, out);
+        assertEquals(expectedCreated, created);
+
+        List<JsonNode> results = new ArrayList<>();
+        for (String line : out.toString(StandardCharsets.UTF_8).split("\n")) {
+            results.add(objectMapper.readTree(line));
+        }
+        return results;
+    }
+}
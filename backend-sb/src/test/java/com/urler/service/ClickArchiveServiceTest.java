@@ -0,0 +1,250 @@
+package com.urler.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.Period;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for ClickArchiveService.
+ * Tests archiving a month before its partition is dropped, ignoring segments whose partition still exists,
+ * stopping at the first month that fails, deleting segments past the retention and seeing months archived by another
+ * node.
+ */
+@DisplayName("ClickArchiveService Tests")
+class ClickArchiveServiceTest {
+
+    private static final Pattern FROM = Pattern.compile("from (\\w+)");
+    private static final Pattern DROP = Pattern.compile("DROP TABLE (\\w+)");
+
+    @TempDir
+    Path directory;
+
+    // what the mocked database holds: partition name -> its [url_id, id, click_date] rows
+    private final TreeMap<String, List<Object[]>> partitions = new TreeMap<>();
+    private final Set<String> failingDrops = new HashSet<>();
+    private DataSource dataSource;
+    private ClickPartitionManager partitionManager;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        Connection connection = mock(Connection.class);
+        when(connection.prepareStatement(anyString())).thenAnswer(invocation -> preparedStatement(invocation.getArgument(0)));
+        when(connection.createStatement()).thenAnswer(invocation -> statement());
+        dataSource = mock(DataSource.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        partitionManager = mock(ClickPartitionManager.class);
+        when(partitionManager.holdsMonth(any())).thenAnswer(invocation -> partitions.containsKey(
+                ClickPartitionManager.partitionName(invocation.getArgument(0))));
+        when(partitionManager.partitionMonths()).thenAnswer(invocation -> partitions.keySet().stream()
+                .map(ClickPartitionManager::parsePartitionName)
+                .toList());
+    }
+
+    @Test
+    @DisplayName("Should write a segment, drop the partition and serve the clicks from the segment")
+    void testArchiveThenDrop() throws IOException {
+        YearMonth month = YearMonth.now().minusMonths(4);
+        LocalDateTime clickDate = month.atDay(3).atTime(10, 15);
+        addPartition(month, new Object[]{7L, 1L, clickDate}, new Object[]{7L, 2L, clickDate.plusHours(1)});
+
+        ClickArchiveService service = service(Period.ZERO);
+        service.compact();
+
+        assertFalse(partitions.containsKey(ClickPartitionManager.partitionName(month)));
+        assertTrue(Files.exists(segmentPath(month)));
+        assertTrue(service.isArchived(month));
+        assertEquals(month, service.oldestMonth());
+        assertEquals(List.of(1L, 2L), clickIds(service, month));
+    }
+
+    @Test
+    @DisplayName("Should ignore a segment whose partition still exists and rewrite it from the partition")
+    void testRewritesSegmentLeftByCrash() throws IOException {
+        YearMonth month = YearMonth.now().minusMonths(4);
+        LocalDateTime clickDate = month.atDay(3).atTime(10, 15);
+        // written before a crash that rolled back the drop
+        Files.createDirectories(directory);
+        writeSegment(month, 99L);
+        addPartition(month, new Object[]{7L, 1L, clickDate});
+
+        ClickArchiveService service = service(Period.ZERO);
+        service.open();
+        assertFalse(service.isArchived(month));
+
+        service.compact();
+
+        assertTrue(service.isArchived(month));
+        assertEquals(List.of(1L), clickIds(service, month));
+    }
+
+    @Test
+    @DisplayName("Should stop archiving at the first month that fails")
+    void testStopsAtFirstFailure() throws IOException {
+        YearMonth oldest = YearMonth.now().minusMonths(6);
+        LocalDateTime clickDate = oldest.atDay(1).atTime(12, 0);
+        addPartition(oldest, new Object[]{7L, 1L, clickDate});
+        addPartition(oldest.plusMonths(1), new Object[]{7L, 2L, clickDate.plusMonths(1)});
+        addPartition(oldest.plusMonths(2), new Object[]{7L, 3L, clickDate.plusMonths(2)});
+        failingDrops.add(ClickPartitionManager.partitionName(oldest.plusMonths(1)));
+
+        ClickArchiveService service = service(Period.ZERO);
+        service.compact();
+
+        assertTrue(service.isArchived(oldest));
+        assertFalse(service.isArchived(oldest.plusMonths(1)));
+        assertFalse(service.isArchived(oldest.plusMonths(2)));
+        assertEquals(List.of(ClickPartitionManager.partitionName(oldest.plusMonths(1)),
+                ClickPartitionManager.partitionName(oldest.plusMonths(2))), new ArrayList<>(partitions.keySet()));
+        assertFalse(Files.exists(segmentPath(oldest.plusMonths(2))));
+
+        // the next run retries the failed month and carries on
+        failingDrops.clear();
+        service.compact();
+        assertTrue(service.isArchived(oldest.plusMonths(1)));
+        assertTrue(service.isArchived(oldest.plusMonths(2)));
+        assertEquals(List.of(2L), clickIds(service, oldest.plusMonths(1)));
+    }
+
+    @Test
+    @DisplayName("Should delete segments past the retention")
+    void testDeletesExpiredSegments() throws IOException {
+        YearMonth expired = YearMonth.now().minusMonths(5);
+        YearMonth kept = YearMonth.now().minusMonths(3);
+        Files.createDirectories(directory);
+        writeSegment(expired, 1L);
+        writeSegment(kept, 2L);
+
+        ClickArchiveService service = service(Period.ofMonths(3));
+        service.open();
+        assertTrue(service.isArchived(expired));
+
+        service.compact();
+
+        assertFalse(service.isArchived(expired));
+        assertFalse(Files.exists(segmentPath(expired)));
+        assertTrue(service.isArchived(kept));
+        assertEquals(kept, service.oldestMonth());
+    }
+
+    @Test
+    @DisplayName("Should see a month archived by another node on the shared path")
+    void testSeesMonthArchivedElsewhere() throws IOException {
+        YearMonth month = YearMonth.now().minusMonths(4);
+        addPartition(month, new Object[]{7L, 1L, month.atDay(3).atTime(10, 15)});
+        ClickArchiveService node = service(Period.ZERO);
+        node.open();
+        ClickArchiveService otherNode = service(Period.ZERO);
+        assertEquals(ClickArchiveService.ClickSource.TABLE, node.lockSource(month));
+
+        otherNode.compact();
+
+        assertEquals(ClickArchiveService.ClickSource.ARCHIVE, node.lockSource(month));
+        assertEquals(List.of(1L), clickIds(node, month));
+        assertEquals(ClickArchiveService.ClickSource.NONE, node.lockSource(month.minusMonths(1)));
+    }
+
+    private ClickArchiveService service(Period retention) {
+        return new ClickArchiveService(partitionManager, dataSource, mock(PlatformTransactionManager.class),
+                directory, true, Period.ofMonths(2), retention);
+    }
+
+    private void addPartition(YearMonth month, Object[]... rows) {
+        partitions.put(ClickPartitionManager.partitionName(month), List.of(rows));
+    }
+
+    private Path segmentPath(YearMonth month) {
+        return directory.resolve(ClickPartitionManager.partitionName(month) + ".seg");
+    }
+
+    private void writeSegment(YearMonth month, long clickId) throws IOException {
+        try (ClickSegment.Writer writer = new ClickSegment.Writer(segmentPath(month))) {
+            writer.add(7L, clickId, month.atDay(1).atStartOfDay());
+            writer.finish();
+        }
+    }
+
+    private static List<Long> clickIds(ClickArchiveService service, YearMonth month) throws IOException {
+        List<Long> ids = new ArrayList<>();
+        service.forEachClick(month, (urlId, id, clickDate) -> ids.add(id));
+        return ids;
+    }
+
+    // advisory lock and to_regclass lookups, both answered with a single boolean
+    private PreparedStatement preparedStatement(String sql) throws SQLException {
+        List<Object> parameters = new ArrayList<>();
+        PreparedStatement statement = mock(PreparedStatement.class);
+        doAnswer(invocation -> parameters.add(invocation.getArgument(1))).when(statement).setObject(anyInt(), any());
+        doAnswer(invocation -> parameters.add(invocation.getArgument(1))).when(statement).setString(anyInt(), any());
+        when(statement.executeQuery()).thenAnswer(invocation -> booleanResult(
+                !sql.contains("to_regclass") || partitions.containsKey((String) parameters.get(0))));
+        return statement;
+    }
+
+    // partition reads and the drop
+    private Statement statement() throws SQLException {
+        Statement statement = mock(Statement.class);
+        when(statement.executeQuery(anyString())).thenAnswer(invocation -> {
+            Matcher matcher = FROM.matcher(invocation.<String>getArgument(0));
+            assertTrue(matcher.find());
+            return rowsResult(partitions.get(matcher.group(1)));
+        });
+        when(statement.execute(anyString())).thenAnswer(invocation -> {
+            Matcher matcher = DROP.matcher(invocation.<String>getArgument(0));
+            if (matcher.find()) {
+                if (failingDrops.contains(matcher.group(1))) {
+                    throw new SQLException("canceling statement due to lock timeout", "55P03");
+                }
+                partitions.remove(matcher.group(1));
+            }
+            return false;
+        });
+        return statement;
+    }
+
+    private static ResultSet booleanResult(boolean value) throws SQLException {
+        ResultSet resultSet = mock(ResultSet.class);
+        ResultSetMetaData metaData = mock(ResultSetMetaData.class);
+        when(metaData.getColumnCount()).thenReturn(1);
+        when(resultSet.getMetaData()).thenReturn(metaData);
+        when(resultSet.next()).thenReturn(true, false);
+        when(resultSet.getBoolean(1)).thenReturn(value);
+        return resultSet;
+    }
+
+    private static ResultSet rowsResult(List<Object[]> rows) throws SQLException {
+        ResultSet resultSet = mock(ResultSet.class);
+        int[] row = {-1};
+        when(resultSet.next()).thenAnswer(invocation -> ++row[0] < rows.size());
+        when(resultSet.getLong(anyInt())).thenAnswer(invocation -> rows.get(row[0])[invocation.<Integer>getArgument(0) - 1]);
+        when(resultSet.getTimestamp(3)).thenAnswer(invocation -> Timestamp.valueOf((LocalDateTime) rows.get(row[0])[2]));
+        return resultSet;
+    }
+}
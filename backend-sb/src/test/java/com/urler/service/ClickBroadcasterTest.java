@@ -0,0 +1,142 @@
+package com.urler.service;
+
+import com.urler.dto.ClickEventMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for ClickBroadcaster.
+ * Tests that clicks are coalesced per tick into one batch per connected owner, with totals and deltas.
+ */
+@DisplayName("ClickBroadcaster Tests")
+class ClickBroadcasterTest {
+
+    private ClickSessionOutbox outbox;
+    private ClickBroadcaster broadcaster;
+
+    @BeforeEach
+    void setUp() {
+        outbox = mock(ClickSessionOutbox.class);
+        when(outbox.isConnected("alice")).thenReturn(true);
+        // not started, the tests drive the ticks
+        broadcaster = new ClickBroadcaster(outbox, new SimpleMeterRegistry(), Optional.empty(),
+                Duration.ofMillis(250));
+    }
+
+    @Test
+    @DisplayName("Should send one message per tick with the total and the delta")
+    void testCoalescedPerTick() {
+        for (int i = 0; i < 1000; i++) {
+            broadcaster.clicked(1L);
+        }
+        broadcaster.anchor(1L, "alice", 5000);
+        for (int i = 0; i < 20; i++) {
+            broadcaster.clicked(1L);
+        }
+
+        broadcaster.tick();
+        ClickEventMessage first = sent("alice").get(0);
+        assertEquals(5020, first.getClicks());
+        assertEquals(1020, first.getDelta());
+
+        clearInvocations(outbox);
+        broadcaster.clicked(1L);
+        broadcaster.clicked(1L);
+        broadcaster.tick();
+        ClickEventMessage second = sent("alice").get(0);
+        assertEquals(5022, second.getClicks());
+        assertEquals(2, second.getDelta());
+
+        clearInvocations(outbox);
+        broadcaster.tick();
+        verify(outbox, never()).send(any(), any());
+    }
+
+    @Test
+    @DisplayName("Should batch all of an owner's links into one message and skip owners without a session")
+    void testBatchedPerOwner() {
+        broadcaster.clicked(1L);
+        broadcaster.clicked(2L);
+        broadcaster.clicked(2L);
+        broadcaster.clicked(3L);
+        broadcaster.anchor(1L, "alice", 10);
+        broadcaster.anchor(2L, "alice", 20);
+        broadcaster.anchor(3L, "bob", 30);
+
+        broadcaster.tick();
+
+        List<ClickEventMessage> updates = sent("alice").stream()
+                .sorted(Comparator.comparing(ClickEventMessage::getUrlId)).toList();
+        assertEquals(2, updates.size());
+        assertEquals(10, updates.get(0).getClicks());
+        assertEquals(2, updates.get(1).getDelta());
+        verify(outbox, never()).send(eq("bob"), any());
+    }
+
+    @Test
+    @DisplayName("Should publish every owner's batch to the cluster relay and send only connected ones locally")
+    void testPublishesToClusterRelay() {
+        ClusterRelay relay = mock(ClusterRelay.class);
+        broadcaster = new ClickBroadcaster(outbox, new SimpleMeterRegistry(), Optional.of(relay),
+                Duration.ofMillis(250));
+        broadcaster.clicked(1L);
+        broadcaster.clicked(3L);
+        broadcaster.anchor(1L, "alice", 10);
+        broadcaster.anchor(3L, "bob", 30);
+
+        broadcaster.tick();
+
+        assertEquals(1, sent("alice").size());
+        verify(outbox, never()).send(eq("bob"), any());
+        verify(relay).publish(any(), argThat(byOwner -> byOwner.keySet().equals(Set.of("alice", "bob"))));
+    }
+
+    @Test
+    @DisplayName("Should hold a URL back until its total is anchored")
+    void testWaitsForAnchor() {
+        broadcaster.clicked(2L);
+        broadcaster.tick();
+        verify(outbox, never()).send(any(), any());
+
+        broadcaster.anchor(2L, "alice", 10);
+        broadcaster.tick();
+        ClickEventMessage message = sent("alice").get(0);
+        assertEquals(10, message.getClicks());
+        assertEquals(1, message.getDelta());
+    }
+
+    @Test
+    @DisplayName("Should never send a lower total after a re-anchor")
+    void testTotalNeverDecreases() {
+        broadcaster.clicked(3L);
+        broadcaster.anchor(3L, "alice", 100);
+        broadcaster.tick();
+        assertEquals(100, sent("alice").get(0).getClicks());
+
+        clearInvocations(outbox);
+        broadcaster.clicked(3L);
+        broadcaster.anchor(3L, "alice", 90);
+        broadcaster.tick();
+        assertEquals(100, sent("alice").get(0).getClicks());
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<ClickEventMessage> sent(String user) {
+        ArgumentCaptor<List<ClickEventMessage>> captor = ArgumentCaptor.forClass(List.class);
+        verify(outbox).send(eq(user), captor.capture());
+        return captor.getValue();
+    }
+}
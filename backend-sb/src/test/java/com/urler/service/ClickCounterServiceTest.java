@@ -0,0 +1,103 @@
+package com.urler.service;
+
+import com.urler.repository.UrlRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for ClickCounterService.
+ * Tests that concurrent increments are flushed as a single delta per URL and that idle counters are evicted.
+ */
+@DisplayName("ClickCounterService Tests")
+class ClickCounterServiceTest {
+
+    private UrlRepository urlRepository;
+    private ClickCounterService clickCounterService;
+
+    @BeforeEach
+    void setUp() {
+        urlRepository = mock(UrlRepository.class);
+        clickCounterService = new ClickCounterService(urlRepository, mock(ClickBroadcaster.class), new SimpleMeterRegistry());
+    }
+
+    @Test
+    @DisplayName("Should flush concurrent increments as one UPDATE per URL without losing any")
+    void testConcurrentIncrementsFlushedAsSingleDelta() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        clickCounterService.increment(1L);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        clickCounterService.increment(2L);
+
+        clickCounterService.flush();
+
+        verify(urlRepository).addClicks(1L, 80_000L);
+        verify(urlRepository).addClicks(2L, 1L);
+        verify(urlRepository, times(2)).addClicks(any(), anyLong());
+        assertEquals(0, clickCounterService.getPending(1L));
+    }
+
+    @Test
+    @DisplayName("Should not issue UPDATEs for URLs without new clicks")
+    void testSkipsCleanCounters() {
+        clickCounterService.increment(1L);
+        clickCounterService.flush();
+        clickCounterService.flush();
+
+        verify(urlRepository, times(1)).addClicks(any(), anyLong());
+    }
+
+    @Test
+    @DisplayName("Should evict a counter idle for a full interval and keep counting the URL afterwards")
+    void testEvictsIdleCounter() {
+        clickCounterService.increment(1L);
+        clickCounterService.flush();
+        clickCounterService.flush();
+        clickCounterService.flush();
+        assertEquals(0, clickCounterService.getPending(1L));
+
+        clickCounterService.increment(1L);
+        clickCounterService.increment(1L);
+        clickCounterService.flush();
+
+        verify(urlRepository).addClicks(1L, 1L);
+        verify(urlRepository).addClicks(1L, 2L);
+    }
+
+    @Test
+    @DisplayName("Should keep the delta when the flush fails")
+    void testKeepsDeltaOnFailure() {
+        when(urlRepository.addClicks(1L, 3L)).thenThrow(new RuntimeException("database down"));
+        for (int i = 0; i < 3; i++) {
+            clickCounterService.increment(1L);
+        }
+
+        clickCounterService.flush();
+
+        assertEquals(3, clickCounterService.getPending(1L));
+    }
+}
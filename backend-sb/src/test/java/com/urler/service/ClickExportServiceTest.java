@@ -0,0 +1,58 @@
+package com.urler.service;
+
+import com.urler.exception.ResourceNotFoundException;
+import com.urler.repository.UrlRepository;
+import com.urler.table.Url;
+import com.urler.table.User;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.sql.DataSource;
+import java.io.StringWriter;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for ClickExportService.
+ * Tests the row formats and the ownership check done before streaming.
+ */
+@DisplayName("ClickExportService Tests")
+class ClickExportServiceTest {
+
+    @Test
+    @DisplayName("Should write one NDJSON object or CSV line per click")
+    void testWriteRow() throws Exception {
+        LocalDateTime clickDate = LocalDateTime.of(2026, 3, 1, 12, 30, 5);
+
+        StringWriter ndjson = new StringWriter();
+        ClickExportService.writeRow(ndjson, ClickExportService.Format.NDJSON, 42, clickDate);
+        assertEquals("{\"id\":42,\"clickDate\":\"2026-03-01T12:30:05\"}\n", ndjson.toString());
+
+        StringWriter csv = new StringWriter();
+        ClickExportService.writeRow(csv, ClickExportService.Format.CSV, 42, clickDate);
+        assertEquals("42,2026-03-01T12:30:05\n", csv.toString());
+    }
+
+    @Test
+    @DisplayName("Should only export links owned by the caller")
+    void testFindOwnedUrl() {
+        UrlRepository urlRepository = mock(UrlRepository.class);
+        ClickExportService service = new ClickExportService(urlRepository, mock(ClickArchiveService.class), mock(DataSource.class),
+                mock(PlatformTransactionManager.class), 1000);
+        User owner = new User();
+        owner.setId(1L);
+        User other = new User();
+        other.setId(2L);
+        Url url = new Url();
+        url.setUser(owner);
+        when(urlRepository.findByShortenedUrl("abc")).thenReturn(url);
+
+        assertSame(url, service.findOwnedUrl("abc", owner));
+        assertThrows(AccessDeniedException.class, () -> service.findOwnedUrl("abc", other));
+        assertThrows(ResourceNotFoundException.class, () -> service.findOwnedUrl("missing", owner));
+    }
+}
@@ -0,0 +1,149 @@
+package com.urler.service;
+
+import com.urler.dto.ClickEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for ClickIngestionService.
+ * Tests batching, capacity limits, draining on shutdown and giving up on shutdown while the database is down.
+ */
+@DisplayName("ClickIngestionService Tests")
+class ClickIngestionServiceTest {
+
+    private ClickBatchWriter clickBatchWriter;
+    private SimpleMeterRegistry meterRegistry;
+    private final List<List<ClickEvent>> writtenBatches = new ArrayList<>();
+    private ClickIngestionService service;
+
+    @BeforeEach
+    void setUp() {
+        clickBatchWriter = mock(ClickBatchWriter.class);
+        meterRegistry = new SimpleMeterRegistry();
+        doAnswer(invocation -> {
+            List<ClickEvent> batch = invocation.getArgument(0);
+            synchronized (writtenBatches) {
+                writtenBatches.add(new ArrayList<>(batch));
+            }
+            return null;
+        }).when(clickBatchWriter).write(any());
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        if (service != null) {
+            service.stop();
+        }
+    }
+
+    private ClickIngestionService newService(int capacity, int batchSize, Duration flushInterval) {
+        return new ClickIngestionService(clickBatchWriter, meterRegistry, capacity, batchSize, flushInterval);
+    }
+
+    @Test
+    @DisplayName("Should drop events when the queue is full instead of blocking")
+    void testDropsWhenFull() {
+        // writer thread not started so nothing drains the queue
+        service = newService(2, 10, Duration.ofSeconds(1));
+
+        assertTrue(service.record(1L, LocalDateTime.now()));
+        assertTrue(service.record(1L, LocalDateTime.now()));
+        assertFalse(service.record(1L, LocalDateTime.now()));
+
+        assertEquals(2, service.getQueueDepth());
+        assertEquals(1.0, meterRegistry.counter("urler.clicks.dropped").count());
+    }
+
+    @Test
+    @DisplayName("Should write events in batches no larger than the batch size")
+    void testBatchesUpToBatchSize() throws InterruptedException {
+        service = newService(100, 10, Duration.ofMillis(50));
+        for (int i = 0; i < 25; i++) {
+            service.record(1L, LocalDateTime.now());
+        }
+        service.start();
+        service.stop();
+
+        int total = 0;
+        for (List<ClickEvent> batch : writtenBatches) {
+            assertTrue(batch.size() <= 10);
+            total += batch.size();
+        }
+        assertEquals(25, total);
+        assertEquals(25.0, meterRegistry.counter("urler.clicks.written").count());
+    }
+
+    @Test
+    @DisplayName("Should drain queued events on shutdown")
+    void testDrainsOnShutdown() throws InterruptedException {
+        service = newService(100, 500, Duration.ofSeconds(1));
+        service.start();
+        for (int i = 0; i < 7; i++) {
+            service.record(1L, LocalDateTime.now());
+        }
+
+        service.stop();
+
+        assertEquals(0, service.getQueueDepth());
+        assertEquals(7, writtenBatches.stream().mapToInt(List::size).sum());
+        assertFalse(service.record(1L, LocalDateTime.now()));
+    }
+
+    @Test
+    @DisplayName("Should keep and retry a batch while the database is unavailable")
+    void testRetriesFailedBatch() throws InterruptedException {
+        doThrow(new RuntimeException("database down"))
+                .doThrow(new RuntimeException("database down"))
+                .doAnswer(invocation -> {
+                    List<ClickEvent> batch = invocation.getArgument(0);
+                    synchronized (writtenBatches) {
+                        writtenBatches.add(new ArrayList<>(batch));
+                    }
+                    return null;
+                })
+                .when(clickBatchWriter).write(any());
+        service = newService(100, 10, Duration.ofMillis(20));
+        for (int i = 0; i < 5; i++) {
+            service.record(1L, LocalDateTime.now());
+        }
+        service.start();
+        Thread.sleep(1000);
+        service.stop();
+
+        assertEquals(5, writtenBatches.stream().mapToInt(List::size).sum());
+        assertEquals(0.0, meterRegistry.counter("urler.clicks.dropped").count());
+    }
+
+    @Test
+    @DisplayName("Should give up after one attempt per batch when stopped while the database is unavailable")
+    void testStopsWhileDatabaseDown() throws InterruptedException {
+        doThrow(new RuntimeException("database down")).when(clickBatchWriter).write(any());
+        service = newService(100, 10, Duration.ofMillis(20));
+        for (int i = 0; i < 25; i++) {
+            service.record(1L, LocalDateTime.now());
+        }
+        service.start();
+        Thread.sleep(50);
+
+        long started = System.nanoTime();
+        service.stop();
+
+        assertTrue(Duration.ofNanos(System.nanoTime() - started).toSeconds() < 5);
+        assertEquals(0, service.getQueueDepth());
+        assertEquals(25.0, meterRegistry.counter("urler.clicks.dropped").count());
+        // the batch taken while running is tried once more, the two left in the queue once each
+        verify(clickBatchWriter, atMost(4)).write(any());
+    }
+}
@@ -0,0 +1,33 @@
+package com.urler.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.YearMonth;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for ClickPartitionManager.
+ * Tests the partition naming that retention relies on to find a partition's month.
+ */
+@DisplayName("ClickPartitionManager Tests")
+class ClickPartitionManagerTest {
+
+    @Test
+    @DisplayName("Should round-trip a month through its partition name")
+    void testPartitionName() {
+        YearMonth month = YearMonth.of(2026, 3);
+
+        assertEquals("clicks_2026_03", ClickPartitionManager.partitionName(month));
+        assertEquals(month, ClickPartitionManager.parsePartitionName("clicks_2026_03"));
+    }
+
+    @Test
+    @DisplayName("Should ignore tables that are not monthly partitions")
+    void testParseForeignName() {
+        assertNull(ClickPartitionManager.parsePartitionName("clicks_unpartitioned"));
+        assertNull(ClickPartitionManager.parsePartitionName("clicks_hourly"));
+        assertNull(ClickPartitionManager.parsePartitionName("url"));
+    }
+}
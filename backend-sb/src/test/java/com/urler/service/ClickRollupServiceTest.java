@@ -0,0 +1,198 @@
+package com.urler.service;
+
+import com.urler.dto.ClickEvent;
+import com.urler.repository.BucketClicks;
+import com.urler.repository.ClickRollupRepository;
+import com.urler.repository.ClicksRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for ClickRollupService.
+ * Tests where each granularity reads from, dense series, how batches are aggregated, which batches wait for a
+ * backfill and which months and hours a backfill rebuilds.
+ */
+@DisplayName("ClickRollupService Tests")
+class ClickRollupServiceTest {
+
+    private ClickRollupRepository clickRollupRepository;
+    private ClicksRepository clicksRepository;
+    private JdbcTemplate jdbcTemplate;
+    private ClickArchiveService clickArchiveService;
+    private TransactionTemplate transactionTemplate;
+    private ClickRollupService clickRollupService;
+
+    @BeforeEach
+    void setUp() {
+        clickRollupRepository = mock(ClickRollupRepository.class);
+        clicksRepository = mock(ClicksRepository.class);
+        jdbcTemplate = mock(JdbcTemplate.class);
+        clickArchiveService = mock(ClickArchiveService.class);
+        transactionTemplate = mock(TransactionTemplate.class);
+        clickRollupService = new ClickRollupService(clickRollupRepository, clicksRepository, clickArchiveService, jdbcTemplate,
+                transactionTemplate, 2, 1000);
+    }
+
+    @Test
+    @DisplayName("Should read whole days from the daily rollup and partial days from the hourly rollup")
+    void testDaySeriesSplitsRange() {
+        ZoneId zone = ZoneId.systemDefault();
+        LocalDateTime start = LocalDateTime.of(2026, 3, 2, 10, 30);
+        LocalDateTime end = LocalDateTime.of(2026, 3, 5, 8, 0);
+        when(clickRollupRepository.sumDailyByBucket(1L, "day", LocalDate.of(2026, 3, 3), LocalDate.of(2026, 3, 5)))
+                .thenReturn(List.of(bucket(LocalDate.of(2026, 3, 3).atStartOfDay(), 7)));
+        when(clickRollupRepository.sumHourlyByBucket(eq(1L), eq("day"), any(), any(), eq(LocalDateTime.of(2026, 3, 2, 10, 0)), any()))
+                .thenReturn(List.of(bucket(LocalDate.of(2026, 3, 2).atStartOfDay(), 3)));
+        when(clickRollupRepository.sumHourlyByBucket(eq(1L), eq("day"), any(), any(), eq(LocalDateTime.of(2026, 3, 5, 0, 0)), eq(end)))
+                .thenReturn(List.of(bucket(LocalDate.of(2026, 3, 5).atStartOfDay(), 4)));
+
+        Map<LocalDateTime, Long> series = clickRollupService.series(1L, ClickRollupService.Granularity.DAY, zone, start, end);
+
+        // dense and ordered, the day without clicks is filled with 0
+        assertEquals(List.of(3L, 7L, 0L, 4L), List.copyOf(series.values()));
+        assertEquals(LocalDate.of(2026, 3, 2).atStartOfDay(), series.keySet().iterator().next());
+    }
+
+    @Test
+    @DisplayName("Should count the hour containing a mid-hour start whole")
+    void testHourSeriesCountsFirstHourWhole() {
+        ZoneId zone = ZoneId.systemDefault();
+        LocalDateTime start = LocalDateTime.of(2026, 3, 2, 10, 30);
+        LocalDateTime end = LocalDateTime.of(2026, 3, 2, 12, 0);
+        when(clickRollupRepository.sumHourlyByBucket(eq(1L), eq("hour"), any(), any(), eq(LocalDateTime.of(2026, 3, 2, 10, 0)), eq(end)))
+                .thenReturn(List.of(bucket(LocalDateTime.of(2026, 3, 2, 10, 0), 6), bucket(end, 2)));
+
+        Map<LocalDateTime, Long> series = clickRollupService.series(1L, ClickRollupService.Granularity.HOUR, zone, start, end);
+
+        // the 6 clicks of 10:00 include those before 10:30, the rollup cannot tell them apart
+        assertEquals(List.of(LocalDateTime.of(2026, 3, 2, 10, 0), LocalDateTime.of(2026, 3, 2, 11, 0), end),
+                List.copyOf(series.keySet()));
+        assertEquals(List.of(6L, 0L, 2L), List.copyOf(series.values()));
+    }
+
+    @Test
+    @DisplayName("Should aggregate minute buckets from the raw clicks")
+    void testMinuteSeriesUsesRawClicks() {
+        ZoneId zone = ZoneId.systemDefault();
+        LocalDateTime start = LocalDateTime.of(2026, 3, 1, 9, 0, 30);
+        LocalDateTime end = LocalDateTime.of(2026, 3, 1, 9, 4);
+        when(clicksRepository.countByBucket(eq(1L), eq("minute"), any(), any(), eq(LocalDateTime.of(2026, 3, 1, 9, 0)), eq(end)))
+                .thenReturn(List.of(bucket(LocalDateTime.of(2026, 3, 1, 9, 2), 5)));
+
+        Map<LocalDateTime, Long> series = clickRollupService.series(1L, ClickRollupService.Granularity.MINUTE, zone, start, end);
+
+        assertEquals(List.of(0L, 0L, 5L, 0L, 0L), List.copyOf(series.values()));
+        verifyNoInteractions(clickRollupRepository);
+    }
+
+    @Test
+    @DisplayName("Should start weeks on Monday and reject ranges with too many buckets")
+    void testWeekBoundariesAndLimit() {
+        ZoneId zone = ZoneId.systemDefault();
+        Map<LocalDateTime, Long> series = clickRollupService.series(1L, ClickRollupService.Granularity.WEEK, zone,
+                LocalDateTime.of(2026, 3, 4, 0, 0), LocalDateTime.of(2026, 3, 10, 0, 0));
+
+        assertEquals(List.of(LocalDateTime.of(2026, 3, 2, 0, 0), LocalDateTime.of(2026, 3, 9, 0, 0)), List.copyOf(series.keySet()));
+        assertThrows(IllegalArgumentException.class, () -> clickRollupService.series(1L, ClickRollupService.Granularity.MINUTE, zone,
+                LocalDateTime.of(2026, 1, 1, 0, 0), LocalDateTime.of(2026, 3, 1, 0, 0)));
+        assertThrows(IllegalArgumentException.class, () -> ClickRollupService.Granularity.parse("fortnight"));
+    }
+
+    @Test
+    @DisplayName("Should upsert one row per url and bucket of a batch")
+    @SuppressWarnings("unchecked")
+    void testAddAggregatesBatch() {
+        LocalDateTime time = LocalDateTime.of(2026, 3, 1, 10, 15);
+        clickRollupService.add(List.of(new ClickEvent(1L, time), new ClickEvent(1L, time.plusMinutes(5)),
+                new ClickEvent(1L, time.plusHours(1)), new ClickEvent(2L, time)));
+
+        verify(jdbcTemplate).batchUpdate(contains("click_rollup_hourly"), argThat((List<Object[]> rows) -> rows.size() == 3));
+        verify(jdbcTemplate).batchUpdate(contains("click_rollup_daily"), argThat((List<Object[]> rows) -> rows.size() == 2));
+    }
+
+    @Test
+    @DisplayName("Should wait for running backfills only when a batch carries clicks older than the straggler age")
+    void testAddLocksOutBackfillForStragglers() {
+        clickRollupService.add(List.of(new ClickEvent(1L, LocalDateTime.now())));
+        verify(jdbcTemplate, never()).query(eq("select pg_advisory_xact_lock(?)"), any(RowCallbackHandler.class), any(Object[].class));
+
+        clickRollupService.add(List.of(new ClickEvent(1L, LocalDateTime.now()),
+                new ClickEvent(1L, LocalDateTime.now().minus(ClickRollupService.STRAGGLER_AGE).minusMinutes(1))));
+        verify(jdbcTemplate).query(eq("select pg_advisory_xact_lock(?)"), any(RowCallbackHandler.class), any(Object[].class));
+        verify(jdbcTemplate, times(2)).query(eq("select pg_advisory_xact_lock_shared(?)"), any(RowCallbackHandler.class), any(Object[].class));
+    }
+
+    @Test
+    @DisplayName("Should rebuild up to the watermark and leave later hours to the click batches")
+    void testBackfillStopsAtWatermark() throws Exception {
+        runTransactions();
+        LocalDateTime watermark = LocalDateTime.now().minus(ClickRollupService.STRAGGLER_AGE).truncatedTo(ChronoUnit.HOURS);
+        YearMonth month = YearMonth.from(watermark);
+        when(clickArchiveService.oldestMonth()).thenReturn(month);
+        when(clickArchiveService.lockSource(any())).thenReturn(ClickArchiveService.ClickSource.TABLE);
+
+        assertEquals(1, clickRollupService.backfill());
+
+        verify(jdbcTemplate).update(startsWith("DELETE FROM click_rollup_hourly"),
+                eq(Timestamp.valueOf(month.atDay(1).atStartOfDay())), eq(Timestamp.valueOf(watermark)));
+        verify(jdbcTemplate).update(startsWith("INSERT INTO click_rollup_hourly"),
+                eq(Timestamp.valueOf(month.atDay(1).atStartOfDay())), eq(Timestamp.valueOf(watermark)));
+        verify(jdbcTemplate, never()).execute(startsWith("LOCK TABLE"));
+    }
+
+    @Test
+    @DisplayName("Should keep the rollups of a month whose raw clicks are neither in Postgres nor archived")
+    void testBackfillKeepsRollupsWithoutSource() throws Exception {
+        runTransactions();
+        YearMonth gone = YearMonth.now().minusMonths(3);
+        when(clickArchiveService.oldestMonth()).thenReturn(gone);
+        when(clickArchiveService.lockSource(any())).thenReturn(ClickArchiveService.ClickSource.TABLE);
+        when(clickArchiveService.lockSource(gone)).thenReturn(ClickArchiveService.ClickSource.NONE);
+
+        assertEquals(4, clickRollupService.backfill());
+
+        verify(jdbcTemplate, never()).update(startsWith("DELETE FROM click_rollup_hourly"),
+                eq(Timestamp.valueOf(gone.atDay(1).atStartOfDay())), any());
+        verify(jdbcTemplate).update(startsWith("DELETE FROM click_rollup_hourly"),
+                eq(Timestamp.valueOf(gone.plusMonths(1).atDay(1).atStartOfDay())), any());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void runTransactions() {
+        doAnswer(invocation -> {
+            invocation.<Consumer<TransactionStatus>>getArgument(0).accept(null);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+    }
+
+    private static BucketClicks bucket(LocalDateTime bucket, long clicks) {
+        return new BucketClicks() {
+            public LocalDateTime getBucket() {
+                return bucket;
+            }
+
+            public long getClicks() {
+                return clicks;
+            }
+        };
+    }
+}
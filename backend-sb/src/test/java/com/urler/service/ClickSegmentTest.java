@@ -0,0 +1,87 @@
+package com.urler.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for ClickSegment.
+ * Tests that archived clicks read back exactly as written, per url and for the whole month.
+ */
+@DisplayName("ClickSegment Tests")
+class ClickSegmentTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Should read back every click of a url in time order with microsecond precision")
+    void testRoundTrip() throws IOException {
+        Path path = directory.resolve("clicks_2026_03.seg");
+        LocalDateTime base = LocalDateTime.of(2026, 3, 1, 0, 0);
+        try (ClickSegment.Writer writer = new ClickSegment.Writer(path)) {
+            writer.add(1, 10, base.plusNanos(123_456_000));
+            writer.add(1, 7, base.plusHours(5));
+            for (int i = 0; i < 5_000; i++) {
+                writer.add(3, 100 + i, base.plusSeconds(i * 17L));
+            }
+            writer.add(9, 1, base.plusDays(30));
+            writer.finish();
+        }
+        // only the segment itself is left behind
+        assertEquals(List.of(path), Files.list(directory).toList());
+
+        ClickSegment segment = ClickSegment.open(path, YearMonth.of(2026, 3));
+        assertEquals(5_003, segment.getClickCount());
+
+        List<String> url1 = new ArrayList<>();
+        segment.forEach(1, (urlId, id, clickDate) -> url1.add(urlId + ":" + id + "@" + clickDate));
+        assertEquals(List.of("1:10@2026-03-01T00:00:00.123456", "1:7@2026-03-01T05:00"), url1);
+
+        long[] url3 = {0, 0};
+        segment.forEach(3, (urlId, id, clickDate) -> {
+            assertEquals(100 + url3[0], id);
+            assertEquals(base.plusSeconds(url3[0] * 17), clickDate);
+            url3[0]++;
+        });
+        assertEquals(5_000, url3[0]);
+
+        List<Long> missing = new ArrayList<>();
+        segment.forEach(2, (urlId, id, clickDate) -> missing.add(id));
+        assertTrue(missing.isEmpty());
+
+        List<Long> urls = new ArrayList<>();
+        segment.forEach((urlId, id, clickDate) -> {
+            if (urls.isEmpty() || urls.get(urls.size() - 1) != urlId) {
+                urls.add(urlId);
+            }
+        });
+        assertEquals(List.of(1L, 3L, 9L), urls);
+    }
+
+    @Test
+    @DisplayName("Should refuse a segment that was not finished")
+    void testIncompleteSegment() throws IOException {
+        Path path = directory.resolve("clicks_2026_04.seg");
+        try (ClickSegment.Writer writer = new ClickSegment.Writer(path)) {
+            writer.add(1, 1, LocalDateTime.of(2026, 4, 1, 0, 0));
+        }
+        assertThrows(IOException.class, () -> ClickSegment.open(path, YearMonth.of(2026, 4)));
+        assertThrows(IllegalArgumentException.class, () -> {
+            try (ClickSegment.Writer writer = new ClickSegment.Writer(directory.resolve("unordered.seg"))) {
+                writer.add(2, 1, LocalDateTime.of(2026, 4, 1, 0, 0));
+                writer.add(1, 2, LocalDateTime.of(2026, 4, 1, 0, 0));
+            }
+        });
+    }
+}
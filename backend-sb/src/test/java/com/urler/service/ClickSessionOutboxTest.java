@@ -0,0 +1,113 @@
+package com.urler.service;
+
+import com.urler.config.WebSocketSessionMonitor;
+import com.urler.dto.ClickEventMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.user.SimpSession;
+import org.springframework.messaging.simp.user.SimpUser;
+import org.springframework.messaging.simp.user.SimpUserRegistry;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for ClickSessionOutbox.
+ * Tests that sessions keeping up get every batch and that updates for sessions behind are conflated per URL.
+ */
+@DisplayName("ClickSessionOutbox Tests")
+class ClickSessionOutboxTest {
+
+    private static final LocalDateTime NOW = LocalDateTime.now();
+
+    private SimpMessagingTemplate messagingTemplate;
+    private WebSocketSessionMonitor sessionMonitor;
+    private ClickSessionOutbox outbox;
+
+    @BeforeEach
+    void setUp() {
+        messagingTemplate = mock(SimpMessagingTemplate.class);
+        sessionMonitor = mock(WebSocketSessionMonitor.class);
+        when(sessionMonitor.isOpen(anyString())).thenReturn(true);
+        SimpUser alice = mock(SimpUser.class);
+        SimpSession fast = mock(SimpSession.class);
+        SimpSession slow = mock(SimpSession.class);
+        when(fast.getId()).thenReturn("fast");
+        when(slow.getId()).thenReturn("slow");
+        when(alice.getSessions()).thenReturn(Set.of(fast, slow));
+        SimpUserRegistry userRegistry = mock(SimpUserRegistry.class);
+        when(userRegistry.getUser("alice")).thenReturn(alice);
+        outbox = new ClickSessionOutbox(messagingTemplate, userRegistry, sessionMonitor, new SimpleMeterRegistry());
+    }
+
+    @Test
+    @DisplayName("Should send a batch once to the user while all sessions keep up")
+    void testSendsOnceWhileKeepingUp() {
+        List<ClickEventMessage> updates = List.of(new ClickEventMessage(1L, 10, 1, NOW));
+
+        outbox.send("alice", updates);
+
+        verify(messagingTemplate).convertAndSendToUser("alice", ClickSessionOutbox.DESTINATION, updates);
+        verifyNoMoreInteractions(messagingTemplate);
+    }
+
+    @Test
+    @DisplayName("Should conflate updates for a session behind and send them once it caught up")
+    void testConflatesWhileBehind() {
+        when(sessionMonitor.isBehind("slow")).thenReturn(true);
+
+        outbox.send("alice", List.of(new ClickEventMessage(1L, 10, 1, NOW), new ClickEventMessage(2L, 5, 5, NOW)));
+        outbox.send("alice", List.of(new ClickEventMessage(1L, 13, 3, NOW)));
+        outbox.flush();
+        assertEquals(2, sentTo("fast").size());
+        assertTrue(sentTo("slow").isEmpty());
+
+        when(sessionMonitor.isBehind("slow")).thenReturn(false);
+        outbox.flush();
+
+        List<List<ClickEventMessage>> slow = sentTo("slow");
+        assertEquals(1, slow.size());
+        assertEquals(List.of(new ClickEventMessage(1L, 13, 4, NOW), new ClickEventMessage(2L, 5, 5, NOW)), slow.get(0));
+    }
+
+    @Test
+    @DisplayName("Should drop the held back updates of a closed session")
+    void testDropsClosedSessions() {
+        when(sessionMonitor.isBehind("slow")).thenReturn(true);
+        outbox.send("alice", List.of(new ClickEventMessage(1L, 10, 1, NOW)));
+
+        when(sessionMonitor.isOpen("slow")).thenReturn(false);
+        outbox.flush();
+        when(sessionMonitor.isBehind("slow")).thenReturn(false);
+        outbox.flush();
+
+        assertTrue(sentTo("slow").isEmpty());
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<List<ClickEventMessage>> sentTo(String sessionId) {
+        ArgumentCaptor<Object> payloads = ArgumentCaptor.forClass(Object.class);
+        ArgumentCaptor<MessageHeaders> headers = ArgumentCaptor.forClass(MessageHeaders.class);
+        verify(messagingTemplate, atLeast(0)).convertAndSendToUser(eq("alice"), eq(ClickSessionOutbox.DESTINATION),
+                payloads.capture(), headers.capture());
+        List<List<ClickEventMessage>> sent = new ArrayList<>();
+        for (int i = 0; i < payloads.getAllValues().size(); i++) {
+            if (sessionId.equals(SimpMessageHeaderAccessor.getSessionId(headers.getAllValues().get(i)))) {
+                sent.add((List<ClickEventMessage>) payloads.getAllValues().get(i));
+            }
+        }
+        return sent;
+    }
+}
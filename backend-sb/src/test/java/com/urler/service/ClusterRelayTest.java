@@ -0,0 +1,118 @@
+package com.urler.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.urler.cache.ShortCodeBloomFilter;
+import com.urler.dto.ClickEventMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for ClusterRelay.
+ * Tests the notification encoding, relaying to connected owners, that a node ignores its own notifications and that
+ * codes announced by the url trigger reach the bloom filter.
+ */
+@DisplayName("ClusterRelay Tests")
+class ClusterRelayTest {
+
+    private static final LocalDateTime NOW = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+
+    private ClickSessionOutbox outbox;
+    private ShortCodeBloomFilter bloomFilter;
+    private ClusterRelay node;
+    private ClusterRelay otherNode;
+
+    @BeforeEach
+    void setUp() {
+        outbox = mock(ClickSessionOutbox.class);
+        when(outbox.isConnected("alice")).thenReturn(true);
+        bloomFilter = mock(ShortCodeBloomFilter.class);
+        // not started, no database involved
+        node = relay(outbox, bloomFilter);
+        otherNode = relay(mock(ClickSessionOutbox.class), mock(ShortCodeBloomFilter.class));
+    }
+
+    @Test
+    @DisplayName("Should relay another node's batch to the owners connected here")
+    void testRelaysToConnectedOwners() {
+        List<String> payloads = otherNode.encode(NOW, Map.of(
+                "alice", List.of(new ClickEventMessage(1L, 10, 2, NOW), new ClickEventMessage(2L, 20, 1, NOW)),
+                "bob", List.of(new ClickEventMessage(3L, 30, 3, NOW))));
+        assertEquals(1, payloads.size());
+
+        node.receive(payloads.get(0));
+
+        List<ClickEventMessage> updates = sent("alice");
+        assertEquals(List.of(new ClickEventMessage(1L, 10, 2, NOW), new ClickEventMessage(2L, 20, 1, NOW)), updates);
+        verify(outbox, never()).send(eq("bob"), any());
+    }
+
+    @Test
+    @DisplayName("Should ignore its own notifications")
+    void testIgnoresOwnNotifications() {
+        List<String> payloads = node.encode(NOW, Map.of("alice", List.of(new ClickEventMessage(1L, 10, 2, NOW))));
+
+        node.receive(payloads.get(0));
+
+        verifyNoInteractions(outbox);
+    }
+
+    @Test
+    @DisplayName("Should split large batches into notifications under the payload limit")
+    void testSplitsUnderPayloadLimit() {
+        List<ClickEventMessage> many = new ArrayList<>();
+        for (long id = 0; id < 1000; id++) {
+            many.add(new ClickEventMessage(Long.MAX_VALUE - id, Long.MAX_VALUE, Long.MAX_VALUE, NOW));
+        }
+        List<String> payloads = otherNode.encode(NOW, Map.of("alice", many));
+
+        assertTrue(payloads.size() > 1);
+        for (String payload : payloads) {
+            assertTrue(payload.getBytes(StandardCharsets.UTF_8).length < ClusterRelay.MAX_PAYLOAD_BYTES);
+            node.receive(payload);
+        }
+        List<ClickEventMessage> relayed = new ArrayList<>();
+        sentAll("alice", payloads.size()).forEach(relayed::addAll);
+        assertEquals(many, relayed);
+    }
+
+    @Test
+    @DisplayName("Should add the codes announced by the url trigger to the bloom filter")
+    void testAddsAnnouncedCodes() {
+        node.receive("{\"c\":[\"abc123\",\"xyz789\"]}");
+
+        verify(bloomFilter).put("abc123");
+        verify(bloomFilter).put("xyz789");
+        verifyNoInteractions(outbox);
+    }
+
+    private static ClusterRelay relay(ClickSessionOutbox outbox, ShortCodeBloomFilter bloomFilter) {
+        return new ClusterRelay(new DataSourceProperties(), outbox, bloomFilter, new ObjectMapper(),
+                new SimpleMeterRegistry(), "urler_cluster");
+    }
+
+    private List<ClickEventMessage> sent(String user) {
+        return sentAll(user, 1).get(0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<List<ClickEventMessage>> sentAll(String user, int times) {
+        ArgumentCaptor<List<ClickEventMessage>> captor = ArgumentCaptor.forClass(List.class);
+        verify(outbox, times(times)).send(eq(user), captor.capture());
+        return captor.getAllValues();
+    }
+}
@@ -0,0 +1,48 @@
+package com.urler.service;
+
+import com.urler.repository.UrlRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for ShortCodeGenerator.
+ * Tests block allocation from the sequence and the base62 encoding.
+ */
+@DisplayName("ShortCodeGenerator Tests")
+class ShortCodeGeneratorTest {
+
+    @Test
+    @DisplayName("Should draw a new block from the sequence only when the current one is used up")
+    void testBlockAllocation() {
+        UrlRepository urlRepository = mock(UrlRepository.class);
+        when(urlRepository.nextShortCodeBlock()).thenReturn(1L, 1L + ShortCodeGenerator.BLOCK_SIZE);
+        ShortCodeGenerator generator = new ShortCodeGenerator(urlRepository);
+
+        Set<String> codes = new HashSet<>();
+        for (int i = 0; i < ShortCodeGenerator.BLOCK_SIZE + 1; i++) {
+            codes.add(generator.next());
+        }
+
+        assertEquals(ShortCodeGenerator.BLOCK_SIZE + 1, codes.size());
+        verify(urlRepository, times(2)).nextShortCodeBlock();
+    }
+
+    @Test
+    @DisplayName("Should encode distinct ids as distinct 8 character base62 codes")
+    void testEncoding() {
+        Set<String> codes = new HashSet<>();
+        for (long id = 1; id <= 100_000; id++) {
+            String code = ShortCodeGenerator.encode(id);
+            assertTrue(code.matches("[A-Za-z0-9]{8}"), code);
+            codes.add(code);
+        }
+        assertEquals(100_000, codes.size());
+        assertNotEquals(ShortCodeGenerator.encode(1), ShortCodeGenerator.encode(218_340_105_584_896L + 2));
+    }
+}
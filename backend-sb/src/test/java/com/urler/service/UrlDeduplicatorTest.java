@@ -0,0 +1,142 @@
+package com.urler.service;
+
+import com.urler.repository.UrlRepository;
+import com.urler.table.Url;
+import com.urler.table.User;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for UrlDeduplicator.
+ * Tests URL normalization, the hashed lookup of existing links, concurrent shortening of one destination
+ * and the backfill of missing hashes.
+ */
+@DisplayName("UrlDeduplicator Tests")
+class UrlDeduplicatorTest {
+
+    @Test
+    @DisplayName("Should treat equivalent spellings of a URL as the same destination")
+    void testNormalize() {
+        assertEquals("https://example.com/", UrlDeduplicator.normalize("HTTPS://Example.COM"));
+        assertEquals("https://example.com/a/c?x=1", UrlDeduplicator.normalize(" https://example.com:443/a/b/../c?x=1#top "));
+        assertEquals("http://example.com:8080/", UrlDeduplicator.normalize("http://example.com:8080"));
+        assertEquals(UrlDeduplicator.hash("https://example.com"), UrlDeduplicator.hash("https://EXAMPLE.com/#x"));
+        assertNotEquals(UrlDeduplicator.hash("https://example.com/?a=1"), UrlDeduplicator.hash("https://example.com/?a=2"));
+    }
+
+    @Test
+    @DisplayName("Should find an existing link through the hash and confirm it on the normalized URL")
+    void testFindExisting() {
+        UrlRepository urlRepository = mock(UrlRepository.class);
+        User user = new User();
+        Url existing = new Url();
+        existing.setUrl("https://example.com/");
+        when(urlRepository.findByUserAndUrlHash(user, UrlDeduplicator.hash("https://example.com"))).thenReturn(List.of(existing));
+
+        assertSame(existing, new UrlDeduplicator(urlRepository, mock(JdbcTemplate.class), mock(TransactionTemplate.class), true).findExisting("https://Example.com", user));
+        assertNull(new UrlDeduplicator(urlRepository, mock(JdbcTemplate.class), mock(TransactionTemplate.class), false).findExisting("https://example.com", user));
+        verify(urlRepository, times(1)).findByUserAndUrlHash(any(), anyLong());
+    }
+
+    @Test
+    @DisplayName("Should insert one link when two threads shorten the same destination at once")
+    void testConcurrentShortenInsertsOnce() throws Exception {
+        User user = new User();
+        user.setId(1L);
+        // the committed url rows, and an in-process stand-in for the advisory lock released on commit
+        List<Url> rows = new CopyOnWriteArrayList<>();
+        ReentrantLock advisoryLock = new ReentrantLock();
+        UrlRepository urlRepository = mock(UrlRepository.class);
+        when(urlRepository.findByUserAndUrlHash(user, UrlDeduplicator.hash("https://example.com"))).thenAnswer(invocation -> List.copyOf(rows));
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        doAnswer(invocation -> {
+            advisoryLock.lock();
+            return null;
+        }).when(jdbcTemplate).query(eq("select pg_advisory_xact_lock(?, ?)"), any(RowCallbackHandler.class), any(Object[].class));
+        TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+        when(transactionTemplate.execute(any())).thenAnswer(invocation -> {
+            try {
+                return invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null);
+            } finally {
+                if (advisoryLock.isHeldByCurrentThread()) {
+                    advisoryLock.unlock();
+                }
+            }
+        });
+        UrlDeduplicator deduplicator = new UrlDeduplicator(urlRepository, jdbcTemplate, transactionTemplate, true);
+
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<Url>> results = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    Url url = new Url();
+                    url.setUrl("https://example.com/");
+                    Url existing = deduplicator.findExistingOrInsert("https://example.com", user, () -> {
+                        // wide enough for the other thread's lookup to run before this insert without the lock
+                        sleep(100);
+                        rows.add(url);
+                    });
+                    return existing != null ? existing : url;
+                }));
+            }
+            start.countDown();
+            assertSame(results.get(0).get(), results.get(1).get());
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, rows.size());
+    }
+
+    @Test
+    @DisplayName("Should fill in the hash of rows that have none, batch by batch")
+    @SuppressWarnings("unchecked")
+    void testBackfillHashes() throws Exception {
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        ResultSet resultSet = mock(ResultSet.class);
+        when(resultSet.getLong(1)).thenReturn(7L);
+        when(resultSet.getString(2)).thenReturn("https://Example.com");
+        when(jdbcTemplate.query(startsWith("SELECT id, url FROM url"), any(RowMapper.class), anyLong(), anyInt()))
+                .thenAnswer(invocation -> Collections.singletonList(invocation.<RowMapper<Object[]>>getArgument(1).mapRow(resultSet, 0)));
+
+        new UrlDeduplicator(mock(UrlRepository.class), jdbcTemplate, mock(TransactionTemplate.class), false).backfillHashes();
+        verifyNoInteractions(jdbcTemplate);
+
+        new UrlDeduplicator(mock(UrlRepository.class), jdbcTemplate, mock(TransactionTemplate.class), true).backfillHashes();
+        // a batch shorter than the batch size is the last one
+        verify(jdbcTemplate, times(1)).query(anyString(), any(RowMapper.class), eq(0L), anyInt());
+        verify(jdbcTemplate).batchUpdate(startsWith("UPDATE url SET url_hash"),
+                argThat((List<Object[]> rows) -> rows.size() == 1 && rows.get(0)[0].equals(UrlDeduplicator.hash("https://example.com/"))
+                        && rows.get(0)[1].equals(7L)));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,12 +1,17 @@
 package com.urler.service;
 
+import com.urler.cache.HotLinkTracker;
+import com.urler.cache.RedirectCache;
+import com.urler.cache.ShortCodeBloomFilter;
+import com.urler.dto.RedirectTarget;
 import com.urler.dto.UrlDto;
+import com.urler.dto.UrlPageDto;
 import com.urler.exception.AliasAlreadyExistsException;
 import com.urler.exception.ResourceNotFoundException;
-import com.urler.repository.ClicksRepository;
 import com.urler.repository.UrlRepository;
 import com.urler.table.Url;
 import com.urler.table.User;
+import org.hibernate.exception.ConstraintViolationException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.DisplayName;
@@ -14,10 +19,14 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.dao.DataIntegrityViolationException;
 
+import java.sql.SQLException;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Supplier;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -35,10 +44,31 @@ class UrlServiceTest {
     private UrlRepository urlRepository;
 
     @Mock
-    private ClicksRepository clicksRepository;
+    private ClickRollupService clickRollupService;
 
     @Mock
-    private SimpMessagingTemplate messagingTemplate;
+    private RedirectCache redirectCache;
+
+    @Mock
+    private ShortCodeBloomFilter shortCodeBloomFilter;
+
+    @Mock
+    private ClickIngestionService clickIngestionService;
+
+    @Mock
+    private ClickCounterService clickCounterService;
+
+    @Mock
+    private HotLinkTracker hotLinkTracker;
+
+    @Mock
+    private ShortCodeGenerator shortCodeGenerator;
+
+    @Mock
+    private UrlDeduplicator urlDeduplicator;
+
+    @Mock
+    private ReplicaRouting replicaRouting;
 
     @InjectMocks
     private UrlService urlService;
@@ -54,6 +84,9 @@ class UrlServiceTest {
 
         testUrlDto = new UrlDto();
         testUrlDto.setUrl("https://example.com");
+
+        // reads run inline, routing is covered by the datasource
+        lenient().when(replicaRouting.read(any())).thenAnswer(invocation -> ((Supplier<?>) invocation.getArgument(0)).get());
     }
 
     @Test
@@ -63,8 +96,7 @@ class UrlServiceTest {
         String customAlias = "mylink";
         testUrlDto.setCustomAlias(customAlias);
 
-        // mock repository to return null (alias is available)
-        when(urlRepository.findByShortenedUrl(customAlias)).thenReturn(null);
+        // alias is claimed by the insert itself
         when(urlRepository.save(any(Url.class))).thenAnswer(invocation -> {
             Url url = invocation.getArgument(0);
             url.setId(1L);
@@ -80,7 +112,8 @@ class UrlServiceTest {
         assertEquals(testUrlDto.getUrl(), result.getUrl());
         assertEquals(testUser.getUsername(), result.getUsername());
 
-        verify(urlRepository).findByShortenedUrl(customAlias);
+        verify(urlRepository, never()).findByShortenedUrl(anyString());
+        verify(shortCodeGenerator, never()).next();
         verify(urlRepository).save(any(Url.class));
     }
 
@@ -91,9 +124,8 @@ class UrlServiceTest {
         String duplicateAlias = "taken";
         testUrlDto.setCustomAlias(duplicateAlias);
 
-        Url existingUrl = new Url();
-        existingUrl.setShortenedUrl(duplicateAlias);
-        when(urlRepository.findByShortenedUrl(duplicateAlias)).thenReturn(existingUrl);
+        // insert rejected by the unique index on shortened_url
+        when(urlRepository.save(any(Url.class))).thenThrow(shortCodeConflict());
 
         // verify exception is thrown
         AliasAlreadyExistsException exception = assertThrows(
@@ -104,8 +136,53 @@ class UrlServiceTest {
         assertTrue(exception.getMessage().contains(duplicateAlias));
         assertTrue(exception.getMessage().contains("already taken"));
 
-        verify(urlRepository).findByShortenedUrl(duplicateAlias);
+        verify(urlRepository, never()).findByShortenedUrl(anyString());
+        verify(shortCodeBloomFilter, never()).put(anyString());
+    }
+
+    @Test
+    @DisplayName("Should take the next generated code when a custom alias already claimed one")
+    void testCreateShortUrlRetriesGeneratedCodeConflict() {
+        testUrlDto.setCustomAlias(null);
+
+        when(shortCodeGenerator.next()).thenReturn("AAAAAAAB", "AAAAAAAC");
+        when(urlRepository.save(any(Url.class)))
+                .thenThrow(shortCodeConflict())
+                .thenAnswer(invocation -> {
+                    Url url = invocation.getArgument(0);
+                    url.setId(1L);
+                    return url;
+                });
+
+        UrlDto result = urlService.createShortUrl(testUrlDto, testUser);
+
+        assertEquals("AAAAAAAC", result.getShortenedUrl());
+        verify(urlRepository, times(2)).save(any(Url.class));
+    }
+
+    @Test
+    @DisplayName("Should return the existing short code when dedup finds the same destination")
+    void testCreateShortUrlDeduplicated() {
+        testUrlDto.setCustomAlias(null);
+
+        Url existing = new Url();
+        existing.setId(5L);
+        existing.setUrl("https://example.com/");
+        existing.setShortenedUrl("AAAAAAAB");
+        existing.setUser(testUser);
+        when(urlDeduplicator.isEnabled()).thenReturn(true);
+        when(urlDeduplicator.findExistingOrInsert(eq("https://example.com"), eq(testUser), any())).thenReturn(existing);
+
+        UrlDto result = urlService.createShortUrl(testUrlDto, testUser);
+
+        assertEquals("AAAAAAAB", result.getShortenedUrl());
         verify(urlRepository, never()).save(any(Url.class));
+        verify(shortCodeGenerator, never()).next();
+    }
+
+    private static DataIntegrityViolationException shortCodeConflict() {
+        return new DataIntegrityViolationException("duplicate key",
+                new ConstraintViolationException("duplicate key", new SQLException(), "url_shortened_url_key"));
     }
 
     @Test
@@ -113,6 +190,7 @@ class UrlServiceTest {
     void testCreateShortUrlWithRandomAlias() {
         // no custom alias provided
         testUrlDto.setCustomAlias(null);
+        when(shortCodeGenerator.next()).thenReturn(ShortCodeGenerator.encode(1));
 
         when(urlRepository.save(any(Url.class))).thenAnswer(invocation -> {
             Url url = invocation.getArgument(0);
@@ -138,6 +216,7 @@ class UrlServiceTest {
     void testCreateShortUrlWithEmptyAlias() {
         // custom alias is just whitespace
         testUrlDto.setCustomAlias("   ");
+        when(shortCodeGenerator.next()).thenReturn(ShortCodeGenerator.encode(1));
 
         when(urlRepository.save(any(Url.class))).thenAnswer(invocation -> {
             Url url = invocation.getArgument(0);
@@ -157,84 +236,114 @@ class UrlServiceTest {
     }
 
     @Test
-    @DisplayName("Should return list of URLs for a specific user")
+    @DisplayName("Should return a page of the user's URLs with a cursor to the next one")
     void testGetUrlsByUser() {
-        // create test urls for user
-        Url url1 = new Url();
-        url1.setId(1L);
-        url1.setUrl("https://example.com");
-        url1.setShortenedUrl("abc123");
-        url1.setUser(testUser);
-        url1.setClicks(10);
-        url1.setDateCreated(LocalDateTime.now());
-
-        Url url2 = new Url();
-        url2.setId(2L);
-        url2.setUrl("https://google.com");
-        url2.setShortenedUrl("xyz789");
-        url2.setUser(testUser);
-        url2.setClicks(5);
-        url2.setDateCreated(LocalDateTime.now());
-
-        when(urlRepository.findByUser(testUser)).thenReturn(List.of(url1, url2));
-
-        // get user's urls
-        List<UrlDto> results = urlService.getUrlsByUser(testUser);
-
-        // verify correct urls returned
-        assertNotNull(results);
-        assertEquals(2, results.size());
-
-        UrlDto firstDto = results.get(0);
-        assertEquals("abc123", firstDto.getShortenedUrl());
-        assertEquals("https://example.com", firstDto.getUrl());
-        assertEquals(10, firstDto.getClicks());
-
-        verify(urlRepository).findByUser(testUser);
+        // projection rows, one more than the page size
+        LocalDateTime created = LocalDateTime.of(2026, 5, 1, 12, 0, 0, 123_456_000);
+        UrlDto url1 = new UrlDto(2L, "https://google.com", "xyz789", 5, created);
+        UrlDto url2 = new UrlDto(1L, "https://example.com", "abc123", 10, created);
+        UrlDto url3 = new UrlDto(0L, "https://example.org", "old", 1, created.minusDays(1));
+        when(urlRepository.findPageByUserOrderByCreated(eq(testUser), any())).thenReturn(new ArrayList<>(List.of(url1, url2, url3)));
+
+        UrlPageDto page = urlService.getUrlsByUser(testUser, UrlService.UrlSort.CREATED, null, 2);
+
+        // verify the page and the owner are returned
+        assertEquals(List.of("xyz789", "abc123"), page.getUrls().stream().map(UrlDto::getShortenedUrl).toList());
+        assertEquals("testuser", page.getUrls().get(0).getUsername());
+        assertNotNull(page.getNextCursor());
+
+        // the cursor continues after the last row of the page
+        when(urlRepository.findPageByUserOrderByCreatedAfter(eq(testUser), eq(created), eq(1L), any())).thenReturn(List.of(url3));
+        UrlPageDto next = urlService.getUrlsByUser(testUser, UrlService.UrlSort.CREATED, page.getNextCursor(), 2);
+        assertEquals(List.of("old"), next.getUrls().stream().map(UrlDto::getShortenedUrl).toList());
+        assertNull(next.getNextCursor());
+
+        // a cursor only fits the sort it was issued for
+        assertThrows(IllegalArgumentException.class,
+                () -> urlService.getUrlsByUser(testUser, UrlService.UrlSort.CLICKS, page.getNextCursor(), 2));
+        assertThrows(IllegalArgumentException.class,
+                () -> urlService.getUrlsByUser(testUser, UrlService.UrlSort.CREATED, "not-a-cursor", 2));
+    }
+
+    @Test
+    @DisplayName("Should write newly created URL through to the redirect cache")
+    void testCreateShortUrlWritesThroughToCache() {
+        testUrlDto.setCustomAlias("mylink");
+
+        when(urlRepository.save(any(Url.class))).thenAnswer(invocation -> {
+            Url url = invocation.getArgument(0);
+            url.setId(7L);
+            return url;
+        });
+
+        urlService.createShortUrl(testUrlDto, testUser);
+
+        verify(redirectCache).put("mylink", new RedirectTarget(7L, "https://example.com"));
     }
 
     @Test
-    @DisplayName("Should increment clicks and save click event when getting original URL")
-    void testGetOriginalUrlIncrementsClicks() {
-        // setup url with 5 clicks
-        Url url = new Url();
-        url.setId(1L);
-        url.setUrl("https://example.com");
-        url.setShortenedUrl("abc123");
-        url.setClicks(5);
-
-        when(urlRepository.findByShortenedUrl("abc123")).thenReturn(url);
-        when(urlRepository.save(any(Url.class))).thenReturn(url);
+    @DisplayName("Should enqueue click event without writing when getting original URL")
+    void testGetOriginalUrlRecordsClick() {
+        // setup cached target
+        RedirectTarget target = new RedirectTarget(1L, "https://example.com");
+
+        when(shortCodeBloomFilter.mightContain("abc123")).thenReturn(true);
+        when(redirectCache.get("abc123")).thenReturn(target);
 
         // get original url
-        Url result = urlService.getOriginalUrl("abc123");
+        RedirectTarget result = urlService.getOriginalUrl("abc123");
 
-        // verify clicks incremented and event saved
+        // verify click handed to the ingestion queue and nothing written on the request thread
         assertNotNull(result);
-        assertEquals(6, result.getClicks());
         assertEquals("https://example.com", result.getUrl());
 
-        verify(urlRepository).findByShortenedUrl("abc123");
-        verify(urlRepository).save(url);
-        verify(clicksRepository).save(any());
-        verify(messagingTemplate).convertAndSend(eq("/topic/clicks/1"), any(Object.class));
+        verify(redirectCache).get("abc123");
+        verify(clickCounterService).increment(1L);
+        verify(clickIngestionService).record(eq(1L), any(LocalDateTime.class));
+        verify(hotLinkTracker).offer("abc123");
+        verify(urlRepository, never()).findByShortenedUrl(anyString());
+        verify(urlRepository, never()).addClicks(any(), anyInt());
+        verify(clickRollupService, never()).add(any());
     }
 
     @Test
     @DisplayName("Should return null when getting non-existent original URL")
     void testGetOriginalUrlNotFound() {
-        // mock url not found
-        when(urlRepository.findByShortenedUrl("nonexistent")).thenReturn(null);
+        // mock url not found (bloom filter false positive)
+        when(shortCodeBloomFilter.mightContain("nonexistent")).thenReturn(true);
+        when(redirectCache.get("nonexistent")).thenReturn(null);
 
         // try to get url
-        Url result = urlService.getOriginalUrl("nonexistent");
+        RedirectTarget result = urlService.getOriginalUrl("nonexistent");
 
         // verify null returned and nothing saved
         assertNull(result);
 
-        verify(urlRepository).findByShortenedUrl("nonexistent");
-        verify(urlRepository, never()).save(any());
-        verify(clicksRepository, never()).save(any());
+        verify(redirectCache).get("nonexistent");
+        verify(clickCounterService, never()).increment(any());
+        verify(clickIngestionService, never()).record(any(), any());
+    }
+
+    @Test
+    @DisplayName("Should answer definitely-unknown codes from the bloom filter without a lookup")
+    void testGetOriginalUrlRejectedByBloomFilter() {
+        when(shortCodeBloomFilter.mightContain("probe")).thenReturn(false);
+
+        assertNull(urlService.getOriginalUrl("probe"));
+
+        verify(redirectCache, never()).get(anyString());
+        verify(clickIngestionService, never()).record(any(), any());
+    }
+
+    @Test
+    @DisplayName("Should add newly created URL to the bloom filter")
+    void testCreateShortUrlAddsToBloomFilter() {
+        testUrlDto.setCustomAlias("fresh");
+        when(urlRepository.save(any(Url.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        urlService.createShortUrl(testUrlDto, testUser);
+
+        verify(shortCodeBloomFilter).put("fresh");
     }
 
     @Test
@@ -250,14 +359,14 @@ class UrlServiceTest {
         // verify exception is thrown
         ResourceNotFoundException exception = assertThrows(
                 ResourceNotFoundException.class,
-                () -> urlService.getClickEventsByDate(shortenedUrl, start, end)
+                () -> urlService.getClickEventsByDate(shortenedUrl, start, end, ClickRollupService.Granularity.DAY, ZoneId.systemDefault())
         );
 
         assertTrue(exception.getMessage().contains(shortenedUrl));
         assertTrue(exception.getMessage().contains("not found"));
 
         verify(urlRepository).findByShortenedUrl(shortenedUrl);
-        verify(clicksRepository, never()).findByUrlAndClickDateBetween(any(), any(), any());
+        verify(clickRollupService, never()).series(any(), any(), any(), any(), any());
     }
 
     @Test
@@ -265,6 +374,7 @@ class UrlServiceTest {
     void testRandomAliasGeneration() {
         // no custom alias
         testUrlDto.setCustomAlias(null);
+        when(shortCodeGenerator.next()).thenReturn(ShortCodeGenerator.encode(1));
 
         when(urlRepository.save(any(Url.class))).thenAnswer(invocation -> {
             Url url = invocation.getArgument(0);
@@ -4,6 +4,7 @@ import Link from 'next/link';
 import { useRouter, usePathname } from 'next/navigation';
 import { useEffect, useState } from 'react';
 import { authUtils } from '@/lib/auth';
+import { authAPI } from '@/lib/api';
 import { Button } from './ui/Button';
 
 export function Navbar() {
@@ -16,7 +17,8 @@ export function Navbar() {
     setIsAuthenticated(authUtils.isAuthenticated());
   }, [pathname]);
 
-  const handleLogout = () => {
+  const handleLogout = async () => {
+    await authAPI.logout();
     authUtils.removeToken();
     setIsAuthenticated(false);
     router.push('/');
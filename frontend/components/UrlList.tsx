@@ -3,7 +3,7 @@
 import { useEffect, useState, useCallback, useRef } from 'react';
 import { toast } from 'sonner';
 import { urlAPI } from '@/lib/api';
-import { UrlDto } from '@/lib/types';
+import { UrlDto, UrlSort } from '@/lib/types';
 import { useWebSocket } from '@/lib/useWebSocket';
 import { Card, CardContent, CardHeader, CardTitle } from './ui/Card';
 import { Button } from './ui/Button';
@@ -14,17 +14,21 @@ interface UrlListProps {
 
 export function UrlList({ refreshTrigger }: UrlListProps) {
   const [urls, setUrls] = useState<UrlDto[]>([]);
+  const [sort, setSort] = useState<UrlSort>('created');
+  const [nextCursor, setNextCursor] = useState<string | null>(null);
   const [isLoading, setIsLoading] = useState(true);
+  const [isLoadingMore, setIsLoadingMore] = useState(false);
   const [highlightedId, setHighlightedId] = useState<number | null>(null);
   const highlightTimeoutRef = useRef<NodeJS.Timeout | undefined>(undefined);
 
   const fetchUrls = async () => {
     setIsLoading(true);
     try {
-      const result = await urlAPI.getMyUrls();
+      const result = await urlAPI.getMyUrls(sort);
 
       if (result.success) {
-        setUrls(result.data);
+        setUrls(result.data.urls);
+        setNextCursor(result.data.nextCursor);
       } else {
         toast.error(result.error);
       }
@@ -35,15 +39,36 @@ export function UrlList({ refreshTrigger }: UrlListProps) {
     }
   };
 
+  // appends the next page, the cursor belongs to the current sort
+  const loadMore = async () => {
+    if (!nextCursor) return;
+    setIsLoadingMore(true);
+    try {
+      const result = await urlAPI.getMyUrls(sort, nextCursor);
+
+      if (result.success) {
+        setUrls((prevUrls) => [...prevUrls, ...result.data.urls]);
+        setNextCursor(result.data.nextCursor);
+      } else {
+        toast.error(result.error);
+      }
+    } catch (error) {
+      toast.error('Failed to fetch URLs');
+    } finally {
+      setIsLoadingMore(false);
+    }
+  };
+
   useEffect(() => {
     fetchUrls();
-  }, [refreshTrigger]);
+  }, [refreshTrigger, sort]);
 
   // Handle WebSocket click updates with highlight effect
   const handleClickUpdate = useCallback((message: { urlId: number; clicks: number; clickDate: string }) => {
     setUrls((prevUrls) =>
       prevUrls.map((url) =>
-        url.id === message.urlId ? { ...url, clicks: message.clicks } : url
+        // every node reports the total it knows of, keep the highest so updates relayed from other nodes never count down
+        url.id === message.urlId ? { ...url, clicks: Math.max(url.clicks, message.clicks) } : url
       )
     );
 
@@ -103,12 +128,22 @@ export function UrlList({ refreshTrigger }: UrlListProps) {
   return (
     <Card className="animate-scale-in">
       <CardHeader>
-        <CardTitle className="text-2xl flex items-center gap-2">
-          📊 Your URLs
-          <span className="text-sm font-normal text-gray-500 dark:text-gray-400">
-            ({urls.length})
-          </span>
-        </CardTitle>
+        <div className="flex items-center justify-between gap-4">
+          <CardTitle className="text-2xl flex items-center gap-2">
+            📊 Your URLs
+            <span className="text-sm font-normal text-gray-500 dark:text-gray-400">
+              ({urls.length}{nextCursor ? '+' : ''})
+            </span>
+          </CardTitle>
+          <div className="flex gap-2">
+            <Button size="sm" variant={sort === 'created' ? 'primary' : 'outline'} onClick={() => setSort('created')}>
+              Newest
+            </Button>
+            <Button size="sm" variant={sort === 'clicks' ? 'primary' : 'outline'} onClick={() => setSort('clicks')}>
+              Most clicked
+            </Button>
+          </div>
+        </div>
       </CardHeader>
       <CardContent>
         <div className="space-y-4">
@@ -161,6 +196,13 @@ export function UrlList({ refreshTrigger }: UrlListProps) {
             </div>
           ))}
         </div>
+        {nextCursor && (
+          <div className="text-center mt-6">
+            <Button variant="outline" onClick={loadMore} disabled={isLoadingMore}>
+              {isLoadingMore ? 'Loading...' : 'Load more'}
+            </Button>
+          </div>
+        )}
       </CardContent>
     </Card>
   );
@@ -4,6 +4,8 @@ import {
   AuthResponse,
   RegisterResponse,
   UrlDto,
+  UrlPage,
+  UrlSort,
   ShortenUrlRequest,
   ClicksDto,
   TotalClicksData,
@@ -27,6 +29,15 @@ async function fetchAPI<T>(
       },
     });
 
+    // rate-limited responses have no body
+    if (response.status === 429) {
+      const retryAfter = response.headers.get('Retry-After');
+      return {
+        success: false,
+        error: `Too many requests, try again in ${retryAfter ?? 'a few'} seconds`,
+      };
+    }
+
     const data = await response.json();
 
     if (!response.ok) {
@@ -61,6 +72,18 @@ export const authAPI = {
       body: JSON.stringify(data),
     });
   },
+
+  // revokes the current token on the server, the caller still removes it locally
+  logout: async (): Promise<void> => {
+    try {
+      await fetch(`${API_BASE_URL}/api/auth/logout`, {
+        method: 'POST',
+        headers: authUtils.getAuthHeader(),
+      });
+    } catch {
+      // the token expires on its own if the server is unreachable
+    }
+  },
 };
 
 // URL API (requires authentication)
@@ -73,8 +96,16 @@ export const urlAPI = {
     });
   },
 
-  getMyUrls: async (): Promise<ApiResponse<UrlDto[]>> => {
-    return fetchAPI<UrlDto[]>('/api/urls/myurls', {
+  getMyUrls: async (
+    sort: UrlSort = 'created',
+    cursor?: string,
+    limit: number = 50
+  ): Promise<ApiResponse<UrlPage>> => {
+    const params = new URLSearchParams({ sort, limit: String(limit) });
+    if (cursor) {
+      params.set('cursor', cursor);
+    }
+    return fetchAPI<UrlPage>(`/api/urls/myurls?${params}`, {
       method: 'GET',
       headers: authUtils.getAuthHeader(),
     });
@@ -83,9 +114,11 @@ export const urlAPI = {
   getUrlAnalytics: async (
     shortenedUrl: string,
     startDate: string,
-    endDate: string
+    endDate: string,
+    granularity: 'minute' | 'hour' | 'day' | 'week' = 'day',
+    timezone: string = Intl.DateTimeFormat().resolvedOptions().timeZone
   ): Promise<ApiResponse<ClicksDto[]>> => {
-    const params = new URLSearchParams({ startDate, endDate });
+    const params = new URLSearchParams({ startDate, endDate, granularity, timezone });
     return fetchAPI<ClicksDto[]>(`/api/urls/analytics/${shortenedUrl}?${params}`, {
       method: 'GET',
       headers: authUtils.getAuthHeader(),
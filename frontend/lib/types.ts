@@ -32,6 +32,14 @@ export interface UrlDto {
   username: string;
 }
 
+// One page of GET /api/urls/myurls, pass nextCursor back to get the following page
+export interface UrlPage {
+  urls: UrlDto[];
+  nextCursor: string | null;
+}
+
+export type UrlSort = 'created' | 'clicks';
+
 export interface ShortenUrlRequest {
   url: string;
   customAlias?: string;
@@ -40,6 +48,7 @@ export interface ShortenUrlRequest {
 // Analytics types
 export interface ClicksDto {
   clickDate: string; // ISO date string (YYYY-MM-DD)
+  bucket: string; // ISO date-time with offset, start of the bucket in the requested timezone
   count: number;
 }
 
@@ -1,10 +1,14 @@
 import { useEffect, useRef} from 'react';
-import { Client, StompSubscription } from '@stomp/stompjs';
+import { Client } from '@stomp/stompjs';
 import SockJS from 'sockjs-client';
+import { authUtils } from './auth';
 
 interface ClickEventMessage {
   urlId: number;
+  // total clicks of the url
   clicks: number;
+  // clicks since the previous message, messages are coalesced per url on the server
+  delta: number;
   clickDate: string;
 }
 
@@ -13,9 +17,11 @@ interface UseWebSocketProps {
   onMessage: (message: ClickEventMessage) => void;
 }
 
+// One subscription per session: the server sends each user a batch with the updates of all their links
+// on /user/queue/clicks, the hook passes on the ones for urlIds.
 export function useWebSocket({ urlIds, onMessage }: UseWebSocketProps) {
   const clientRef = useRef<Client | null>(null);
-  const subscriptionsRef = useRef<Map<number, StompSubscription>>(new Map());
+  const urlIdsRef = useRef<Set<number>>(new Set(urlIds));
   const onMessageRef = useRef(onMessage);
 
   // Keep onMessage ref updated without causing reconnections
@@ -23,17 +29,37 @@ export function useWebSocket({ urlIds, onMessage }: UseWebSocketProps) {
     onMessageRef.current = onMessage;
   }, [onMessage]);
 
+  // Changing the visible links only changes the filter, not the subscription
+  useEffect(() => {
+    urlIdsRef.current = new Set(urlIds);
+  }, [urlIds]);
+
   // Initialize WebSocket connection once
   useEffect(() => {
     const API_URL = process.env.NEXT_PUBLIC_API_URL || 'http://localhost:8080';
+    const token = authUtils.getToken();
+    if (!token) {
+      return;
+    }
 
     const client = new Client({
       webSocketFactory: () => new SockJS(`${API_URL}/ws`),
+      // the SockJS handshake cannot carry headers, the server authenticates the CONNECT frame
+      connectHeaders: { Authorization: `Bearer ${token}` },
       reconnectDelay: 5000,
       heartbeatIncoming: 4000,
       heartbeatOutgoing: 4000,
       onConnect: () => {
         console.log('WebSocket connected');
+        // subscribing here also restores the subscription after a reconnect
+        client.subscribe('/user/queue/clicks', (message) => {
+          const clickEvents: ClickEventMessage[] = JSON.parse(message.body);
+          clickEvents.forEach((clickEvent) => {
+            if (urlIdsRef.current.has(clickEvent.urlId)) {
+              onMessageRef.current(clickEvent);
+            }
+          });
+        });
       },
       onStompError: (frame) => {
         console.error('STOMP error', frame);
@@ -50,49 +76,5 @@ export function useWebSocket({ urlIds, onMessage }: UseWebSocketProps) {
     };
   }, []); // Only connect once
 
-  // Handle subscriptions separately when urlIds change
-  useEffect(() => {
-    const client = clientRef.current;
-    if (!client || !client.connected) {
-      // Wait for connection and retry
-      const timer = setTimeout(() => {
-        if (clientRef.current?.connected) {
-          subscribeToUrls();
-        }
-      }, 1000);
-      return () => clearTimeout(timer);
-    }
-
-    subscribeToUrls();
-
-    function subscribeToUrls() {
-      const client = clientRef.current;
-      if (!client) return;
-
-      // Subscribe to new URLs
-      urlIds.forEach((urlId) => {
-        if (!subscriptionsRef.current.has(urlId)) {
-          console.log(`Subscribing to /topic/clicks/${urlId}`);
-          const subscription = client.subscribe(`/topic/clicks/${urlId}`, (message) => {
-            console.log('Received message:', message.body);
-            const clickEvent: ClickEventMessage = JSON.parse(message.body);
-            onMessageRef.current(clickEvent);
-          });
-          subscriptionsRef.current.set(urlId, subscription);
-        }
-      });
-
-      // Unsubscribe from removed URLs
-      const currentUrlIds = new Set(urlIds);
-      subscriptionsRef.current.forEach((subscription, urlId) => {
-        if (!currentUrlIds.has(urlId)) {
-          console.log(`Unsubscribing from /topic/clicks/${urlId}`);
-          subscription.unsubscribe();
-          subscriptionsRef.current.delete(urlId);
-        }
-      });
-    }
-  }, [urlIds]);
-
   return clientRef.current;
 }